@@ -0,0 +1,101 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.MessageWindowChatMemory;
+import dev.langchain4j.store.memory.chat.InMemoryChatMemoryStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话记忆的序列化往返
+ *
+ * - fullListRoundTrip：整段会话序列化为一个 JSON 再读回（旧的 RedisChatMemoryStore 每轮的做法）
+ * - deltaWrite：只序列化本轮新增的两条消息（NearCacheChatMemoryStore 回写 RPUSH 的内容）
+ * - perMessageLoad：逐条反序列化整段会话（NearCacheChatMemoryStore 未命中近缓存时的 LRANGE 加载）
+ * - windowMemoryTurn：进程内存储上的一轮 add + messages（不含网络往返的记忆开销下限）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatMemoryBenchmark {
+
+    @Param({"10", "40"})
+    public int messages;
+
+    private List<ChatMessage> conversation;
+    private List<String> storedJson;
+    private UserMessage nextQuestion;
+    private AiMessage nextAnswer;
+    private ChatMemory windowMemory;
+
+    @Setup
+    public void setUp() {
+        conversation = new ArrayList<>(messages);
+        conversation.add(SystemMessage.from(SampleDocuments.chineseText(1, 400)));
+        for (int i = 1; i < messages; i++) {
+            conversation.add(i % 2 == 1
+                    ? UserMessage.from(SampleDocuments.chineseText(i, 60))
+                    : AiMessage.from(SampleDocuments.chineseText(i, 300)));
+        }
+        storedJson = conversation.stream().map(ChatMessageSerializer::messageToJson).toList();
+        nextQuestion = UserMessage.from(SampleDocuments.chineseText(-1, 60));
+        nextAnswer = AiMessage.from(SampleDocuments.chineseText(-2, 300));
+
+        windowMemory = MessageWindowChatMemory.builder()
+                .id("bench")
+                .maxMessages(messages)
+                .chatMemoryStore(new InMemoryChatMemoryStore())
+                .build();
+        conversation.forEach(windowMemory::add);
+    }
+
+    @Benchmark
+    public List<ChatMessage> fullListRoundTrip() {
+        return ChatMessageDeserializer.messagesFromJson(ChatMessageSerializer.messagesToJson(conversation));
+    }
+
+    @Benchmark
+    public void deltaWrite(Blackhole blackhole) {
+        blackhole.consume(ChatMessageSerializer.messageToJson(nextQuestion));
+        blackhole.consume(ChatMessageSerializer.messageToJson(nextAnswer));
+    }
+
+    @Benchmark
+    public List<ChatMessage> perMessageLoad() {
+        List<ChatMessage> loaded = new ArrayList<>(storedJson.size());
+        for (String json : storedJson) {
+            loaded.add(ChatMessageDeserializer.messageFromJson(json));
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public List<ChatMessage> windowMemoryTurn() {
+        windowMemory.add(nextQuestion);
+        windowMemory.add(nextAnswer);
+        return windowMemory.messages();
+    }
+}
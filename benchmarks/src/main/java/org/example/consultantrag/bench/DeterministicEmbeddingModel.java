@@ -0,0 +1,75 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基准测试用的本地向量模型：同一文本总是得到同一个单位向量，不访问 Ollama
+ *
+ * 可选地模拟远程调用耗时（每次请求的固定开销 + 每条文本的计算时间），
+ * 用于比较不同批次大小、合并请求的效果；两项都为 0 时只剩向量生成本身的开销。
+ */
+public class DeterministicEmbeddingModel implements EmbeddingModel {
+
+    private final int dimension;
+    private final long requestOverheadNanos;
+    private final long perTextNanos;
+
+    public DeterministicEmbeddingModel(int dimension) {
+        this(dimension, 0, 0);
+    }
+
+    /**
+     * @param requestOverheadMicros 每次 embedAll 的固定开销（HTTP 往返、排队）
+     * @param perTextMicros         每条文本的计算时间
+     */
+    public DeterministicEmbeddingModel(int dimension, long requestOverheadMicros, long perTextMicros) {
+        this.dimension = dimension;
+        this.requestOverheadNanos = TimeUnit.MICROSECONDS.toNanos(requestOverheadMicros);
+        this.perTextNanos = TimeUnit.MICROSECONDS.toNanos(perTextMicros);
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        long delay = requestOverheadNanos + perTextNanos * segments.size();
+        if (delay > 0) LockSupport.parkNanos(delay);
+
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        for (TextSegment segment : segments) {
+            embeddings.add(Embedding.from(vector(segment.text().hashCode(), dimension)));
+        }
+        return Response.from(embeddings);
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * 由种子确定的随机单位向量（各分量近似正态分布）
+     */
+    public static float[] vector(long seed, int dimension) {
+        SplittableRandom random = new SplittableRandom(seed);
+        float[] vector = new float[dimension];
+        double norm = 0;
+        for (int i = 0; i < dimension; i++) {
+            // 12 个均匀分布之和近似正态分布，避免 nextGaussian 的额外开销
+            double value = -6;
+            for (int k = 0; k < 12; k++) value += random.nextDouble();
+            vector[i] = (float) value;
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < dimension; i++) vector[i] /= (float) norm;
+        return vector;
+    }
+}
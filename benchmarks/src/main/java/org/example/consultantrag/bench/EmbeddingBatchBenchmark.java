@@ -0,0 +1,69 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入库向量化阶段：同样 512 个片段按不同批次大小调用 embedAll（对应 rag.ingest.batch-size）
+ *
+ * 向量模型为本地桩，模拟每次请求的固定开销与每条文本的计算时间，结果为平均每个片段的耗时。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBatchBenchmark {
+
+    private static final int SEGMENTS = 512;
+
+    @Param({"1", "8", "16", "32", "64"})
+    public int batchSize;
+
+    @Param({"2000"})
+    public long requestOverheadMicros;
+
+    @Param({"50"})
+    public long perTextMicros;
+
+    private EmbeddingModel embeddingModel;
+    private List<TextSegment> segments;
+
+    @Setup
+    public void setUp() {
+        embeddingModel = new DeterministicEmbeddingModel(768, requestOverheadMicros, perTextMicros);
+        segments = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(TextSegment.from(SampleDocuments.chineseText(i, 400)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEGMENTS)
+    public void embedInBatches(Blackhole blackhole) {
+        for (int from = 0; from < SEGMENTS; from += batchSize) {
+            List<Embedding> embeddings = embeddingModel
+                    .embedAll(segments.subList(from, Math.min(from + batchSize, SEGMENTS))).content();
+            blackhole.consume(embeddings);
+        }
+    }
+}
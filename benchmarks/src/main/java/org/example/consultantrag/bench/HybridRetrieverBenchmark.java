@@ -0,0 +1,109 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.query.Query;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.retrieval.Bm25Index;
+import org.example.consultantrag.retrieval.HybridContentRetriever;
+import org.example.consultantrag.store.HnswSegmentStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 完整的检索路径：查询向量化（本地桩）→ HNSW 向量检索 ∥ BM25 → RRF 融合
+ *
+ * 与线上 HybridContentRetriever 使用同一实现，只把 Ollama 换成确定性的本地向量模型、
+ * 把 Qdrant 换成进程内 HNSW，因此结果反映的是检索代码本身的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class HybridRetrieverBenchmark {
+
+    private static final String[] QUESTIONS = {
+            "如何共享会议录制", "外部用户能否编辑文件", "频道权限不足怎么办", "许可证如何迁移",
+            "怎样导出团队聊天记录", "移动端在哪里修改通知设置", "会议最多允许多少人加入", "如何恢复已删除的频道",
+    };
+
+    @Param({"10000", "100000"})
+    public int chunks;
+
+    @Param({"256"})
+    public int dimension;
+
+    @Param({"3"})
+    public int maxResults;
+
+    private Path directory;
+    private HnswSegmentStore store;
+    private ExecutorService executor;
+    private HybridContentRetriever retriever;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        DeterministicEmbeddingModel embeddingModel = new DeterministicEmbeddingModel(dimension);
+        directory = Files.createTempDirectory("bench-hybrid-");
+        store = HnswSegmentStore.open(directory, dimension, 16, 200, 64, Duration.ofDays(1));
+        Bm25Index bm25Index = new Bm25Index();
+
+        for (int from = 0; from < chunks; from += 1000) {
+            int to = Math.min(from + 1000, chunks);
+            List<String> ids = new ArrayList<>(to - from);
+            List<TextSegment> segments = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                ids.add(new UUID(0, i).toString());
+                segments.add(TextSegment.from(SampleDocuments.chineseText(i, 200)));
+            }
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            store.upsertAll(ids, embeddings, segments);
+            bm25Index.upsertAll(ids, segments);
+        }
+
+        executor = Executors.newFixedThreadPool(4);
+        retriever = new HybridContentRetriever(store, embeddingModel, bm25Index, executor,
+                new StageMetrics(new SimpleMeterRegistry(), false), maxResults, 0.0, 10, 60);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        store.close();
+        try (var files = Files.walk(directory)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Content> retrieve() {
+        return retriever.retrieve(Query.from(QUESTIONS[next.getAndIncrement() & (QUESTIONS.length - 1)]));
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.example.consultantrag.embedding.BatchingEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 检索阶段的查询向量化：16 个线程并发提问时，直连模型与 BatchingEmbeddingModel 合并请求的吞吐量
+ *
+ * 本地桩模型模拟串行处理的后端（同一时间只处理一个请求），与单个 Ollama 实例的行为一致。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class QueryEmbeddingBenchmark {
+
+    @Param({"false", "true"})
+    public boolean batching;
+
+    @Param({"2000"})
+    public long requestOverheadMicros;
+
+    @Param({"50"})
+    public long perTextMicros;
+
+    private EmbeddingModel embeddingModel;
+
+    @Setup
+    public void setUp() {
+        EmbeddingModel backend = new SerialEmbeddingModel(
+                new DeterministicEmbeddingModel(768, requestOverheadMicros, perTextMicros));
+        embeddingModel = batching ? new BatchingEmbeddingModel(backend, 16, Duration.ofMillis(5)) : backend;
+    }
+
+    @Benchmark
+    public Embedding embedQuery() {
+        return embeddingModel.embed("如何共享会议录制 " + ThreadLocalRandom.current().nextInt(1_000_000)).content();
+    }
+
+    /**
+     * 同一时间只处理一个请求的后端
+     */
+    private static final class SerialEmbeddingModel implements EmbeddingModel {
+
+        private final EmbeddingModel delegate;
+
+        SerialEmbeddingModel(EmbeddingModel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+            return delegate.embedAll(segments);
+        }
+
+        @Override
+        public int dimension() {
+            return delegate.dimension();
+        }
+    }
+}
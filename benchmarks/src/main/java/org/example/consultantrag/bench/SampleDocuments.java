@@ -0,0 +1,141 @@
+package org.example.consultantrag.bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * 基准测试用的样例文档，按种子确定性生成，不在仓库中存放二进制文件
+ *
+ * 中文段落模拟知识库中的操作说明；PDF 使用内置 Helvetica 字体，只能写入英文段落。
+ */
+public final class SampleDocuments {
+
+    private static final String[] ZH_SUBJECTS = {"会议", "频道", "团队", "文件", "权限", "账号", "许可证", "通知", "日程", "设置"};
+    private static final String[] ZH_ACTIONS = {"创建", "删除", "共享", "同步", "导出", "恢复", "审批", "配置", "迁移", "归档"};
+    private static final String[] ZH_DETAILS = {
+            "需要管理员在后台开启对应选项，修改后约十五分钟生效。",
+            "如果提示权限不足，请联系所在组织的全局管理员。",
+            "移动端与桌面端的入口不同，桌面端位于右上角的设置菜单中。",
+            "超过保留期限的数据无法恢复，请提前导出备份。",
+            "外部用户默认只能查看，不能编辑或下载附件。",
+            "同一时间最多允许三百人加入，超过后新成员进入等候区。",
+    };
+    private static final String[] EN_WORDS = {
+            "meeting", "channel", "team", "file", "permission", "account", "license", "notification",
+            "calendar", "settings", "admin", "policy", "guest", "external", "retention", "export",
+            "recording", "transcript", "tenant", "mobile", "desktop", "sync", "archive", "approval",
+    };
+
+    private SampleDocuments() {
+    }
+
+    /**
+     * 约 chars 个字符的中文说明文本，段落之间空行分隔
+     */
+    public static String chineseText(long seed, int chars) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder text = new StringBuilder(chars + 64);
+        while (text.length() < chars) {
+            int sentences = 3 + random.nextInt(5);
+            for (int i = 0; i < sentences; i++) {
+                text.append("如何").append(ZH_ACTIONS[random.nextInt(ZH_ACTIONS.length)])
+                        .append(ZH_SUBJECTS[random.nextInt(ZH_SUBJECTS.length)]).append("？")
+                        .append(ZH_DETAILS[random.nextInt(ZH_DETAILS.length)]);
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * 约 chars 个字符的英文文本，每段若干句
+     */
+    public static String englishText(long seed, int chars) {
+        SplittableRandom random = new SplittableRandom(seed);
+        StringBuilder text = new StringBuilder(chars + 64);
+        while (text.length() < chars) {
+            int sentences = 3 + random.nextInt(5);
+            for (int i = 0; i < sentences; i++) {
+                int words = 6 + random.nextInt(10);
+                for (int w = 0; w < words; w++) {
+                    String word = EN_WORDS[random.nextInt(EN_WORDS.length)];
+                    text.append(w == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word)
+                            .append(w == words - 1 ? ". " : " ");
+                }
+            }
+            text.append("\n\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * 指定页数的 PDF，每页约 45 行英文
+     */
+    public static byte[] pdf(long seed, int pages) {
+        List<String> lines = wrap(englishText(seed, pages * 45 * 90), 90);
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int page = 0; page < pages; page++) {
+                PDPage pdPage = new PDPage();
+                document.addPage(pdPage);
+                try (PDPageContentStream content = new PDPageContentStream(document, pdPage)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 740);
+                    for (int i = page * 45; i < Math.min(lines.size(), (page + 1) * 45); i++) {
+                        content.showText(lines.get(i));
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("样例 PDF 生成失败", e);
+        }
+    }
+
+    /**
+     * 与 pages 页 PDF 文本量相当的中文 DOCX
+     */
+    public static byte[] docx(long seed, int pages) {
+        try (XWPFDocument document = new XWPFDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (String paragraph : chineseText(seed, pages * 1500).split("\n\n")) {
+                document.createParagraph().createRun().setText(paragraph);
+            }
+            document.write(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException("样例 DOCX 生成失败", e);
+        }
+    }
+
+    private static List<String> wrap(String text, int width) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : text.split("\n\n")) {
+            StringBuilder line = new StringBuilder();
+            for (String word : paragraph.split(" ")) {
+                if (line.length() + word.length() + 1 > width) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+                if (!line.isEmpty()) line.append(' ');
+                line.append(word);
+            }
+            lines.add(line.toString());
+            lines.add("");
+        }
+        return lines;
+    }
+}
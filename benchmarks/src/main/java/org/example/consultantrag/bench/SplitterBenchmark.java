@@ -0,0 +1,68 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.segment.TextSegment;
+import org.example.consultantrag.ingest.SentenceSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入库分块阶段：递归分块器与按句分块器在不同片段长度 / 重叠长度下的耗时
+ *
+ * IngestionPipeline 默认使用 sentence、500 / 50；片段数同时决定后续向量化和写入的工作量，
+ * 因此不同设置产生的片段数也应一并比较（见 JSON 结果中各参数组合的得分）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitterBenchmark {
+
+    @Param({"300", "500", "1000"})
+    public int maxSegmentSize;
+
+    @Param({"0", "50", "100"})
+    public int maxOverlap;
+
+    @Param({"zh", "en"})
+    public String language;
+
+    @Param({"recursive", "sentence"})
+    public String splitter;
+
+    private Document document;
+    private DocumentSplitter documentSplitter;
+
+    @Setup
+    public void setUp() {
+        // 约 50 页文档的文本量
+        String text = "zh".equals(language)
+                ? SampleDocuments.chineseText(7, 75_000)
+                : SampleDocuments.englishText(7, 200_000);
+        document = Document.from(text);
+        documentSplitter = "sentence".equals(splitter)
+                ? new SentenceSplitter(maxSegmentSize, maxOverlap)
+                : DocumentSplitters.recursive(maxSegmentSize, maxOverlap);
+    }
+
+    @Benchmark
+    public List<TextSegment> split() {
+        return documentSplitter.split(document);
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
+import org.example.consultantrag.ingest.StreamingTextExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入库解析阶段：从 PDF / DOCX 中提取文本
+ *
+ * - extract：Tika 一次性提取整篇文本（流式改造前的做法，作为对照）
+ * - streaming：StreamingTextExtractor 从磁盘文件流式提取（IngestionPipeline 当前的做法）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TikaExtractionBenchmark {
+
+    @Param({"pdf", "docx"})
+    public String format;
+
+    @Param({"2", "50"})
+    public int pages;
+
+    private byte[] document;
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException {
+        document = "pdf".equals(format) ? SampleDocuments.pdf(42, pages) : SampleDocuments.docx(42, pages);
+        file = Files.createTempFile("bench-extract-", "." + format);
+        Files.write(file, document);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String extract() {
+        return new ApacheTikaDocumentParser().parse(new ByteArrayInputStream(document)).text();
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        StreamingTextExtractor.extract(file, (text, page) -> blackhole.consume(text));
+    }
+}
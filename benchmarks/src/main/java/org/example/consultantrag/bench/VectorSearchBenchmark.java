@@ -0,0 +1,117 @@
+package org.example.consultantrag.bench;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import org.example.consultantrag.store.HnswSegmentStore;
+import org.example.consultantrag.store.Quantization;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 向量检索：进程内 HNSW 与暴力精确检索在 1 万 / 10 万 / 100 万片段下的单次查询耗时
+ *
+ * 默认 256 维（4096 维 × 100 万片段约 16GB，超出常见开发机内存），需要时用 -p dimension=... 覆盖。
+ * 建图是单线程的，100 万片段首次建图需要较长时间；建好的索引保存在 target/bench-data 下，
+ * 再次运行时直接打开，不必重新建图。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class VectorSearchBenchmark {
+
+    private static final int QUERIES = 1024;
+    private static final int BUILD_BATCH = 1000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int chunks;
+
+    @Param({"256"})
+    public int dimension;
+
+    @Param({"none"})
+    public String quantization;
+
+    @Param({"5"})
+    public int maxResults;
+
+    private HnswSegmentStore store;
+    private final List<Embedding> queries = new ArrayList<>(QUERIES);
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws IOException {
+        Path directory = Path.of("target", "bench-data", "hnsw-" + chunks + "-" + dimension + "-" + quantization);
+        Path ready = directory.resolve("READY");
+        store = HnswSegmentStore.open(directory, dimension, 16, 200, 64, Duration.ofDays(1),
+                Quantization.from(quantization), 3.0);
+
+        if (!Files.exists(ready)) {
+            store.removeAll();
+            for (int from = 0; from < chunks; from += BUILD_BATCH) {
+                int to = Math.min(from + BUILD_BATCH, chunks);
+                List<String> ids = new ArrayList<>(to - from);
+                List<Embedding> embeddings = new ArrayList<>(to - from);
+                List<TextSegment> segments = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    ids.add(new UUID(0, i).toString());
+                    embeddings.add(Embedding.from(DeterministicEmbeddingModel.vector(i, dimension)));
+                    segments.add(TextSegment.from("片段 " + i));
+                }
+                store.upsertAll(ids, embeddings, segments);
+            }
+            store.flush();
+            Files.createFile(ready);
+        }
+
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(Embedding.from(DeterministicEmbeddingModel.vector(-1 - i, dimension)));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Benchmark
+    public List<EmbeddingMatch<TextSegment>> hnswSearch() {
+        return store.search(request()).matches();
+    }
+
+    @Benchmark
+    public List<EmbeddingMatch<TextSegment>> exactSearch() {
+        return store.searchExact(request()).matches();
+    }
+
+    private EmbeddingSearchRequest request() {
+        return EmbeddingSearchRequest.builder()
+                .queryEmbedding(queries.get(next.getAndIncrement() & (QUERIES - 1)))
+                .maxResults(maxResults)
+                .build();
+    }
+}
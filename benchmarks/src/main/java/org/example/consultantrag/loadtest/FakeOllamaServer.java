@@ -0,0 +1,211 @@
+package org.example.consultantrag.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.example.consultantrag.bench.DeterministicEmbeddingModel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟 Ollama HTTP 接口的本地服务，替代 GPU 后端做压测
+ *
+ * - POST /api/chat：先等待 firstTokenLatency（模拟 prompt 处理），再按 tokensPerSecond 逐个下发 token；
+ *   stream=false 时等待同样的总时长后一次返回。结束分块带 prompt_eval_count / eval_count。
+ * - 工具调用模式：请求带 tools、最后一条是用户消息时，按 toolCallRatio 的概率返回对 toolName 的调用，
+ *   收到工具结果后再正常生成回答
+ * - POST /api/embed：等待 embedLatency 后返回确定性的单位向量
+ * - GET /api/tags：返回一个模型，供健康检查使用
+ */
+public class FakeOllamaServer implements AutoCloseable {
+
+    private static final String[] TOKENS = {
+            "根据", "知识库", "中的", "说明", "，", "您", "可以", "在", "设置", "菜单", "中", "找到", "对应", "选项",
+            "。", "如果", "提示", "权限", "不足", "，", "请", "联系", "管理员", "开启", "该", "功能", "。",
+    };
+
+    /**
+     * @param firstTokenLatency 首 token 前的等待（prompt 处理 + 排队）
+     * @param tokensPerSecond   单个请求的输出速度
+     * @param answerTokens      每个回答的 token 数
+     * @param toolCallRatio     带工具的请求返回工具调用的概率
+     * @param toolName          工具调用模式下调用的工具（应为无参数、不访问外部服务的工具）
+     */
+    public record Settings(Duration firstTokenLatency, double tokensPerSecond, int answerTokens,
+                           double toolCallRatio, String toolName,
+                           Duration embedLatency, int embeddingDimension) {
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong chatRequests = new AtomicLong();
+    private final AtomicLong toolCalls = new AtomicLong();
+    private final AtomicLong embedRequests = new AtomicLong();
+    private final AtomicLong embeddedTexts = new AtomicLong();
+
+    public FakeOllamaServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext("/api/chat", exchange -> handle(exchange, this::chat));
+        server.createContext("/api/embed", exchange -> handle(exchange, this::embed));
+        server.createContext("/api/tags", exchange -> handle(exchange, this::tags));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("chatRequests", chatRequests.get());
+        stats.put("toolCalls", toolCalls.get());
+        stats.put("embedRequests", embedRequests.get());
+        stats.put("embeddedTexts", embeddedTexts.get());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange exchange, JsonNode request) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try (exchange) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            JsonNode request = body.length == 0 ? objectMapper.createObjectNode() : objectMapper.readTree(body);
+            handler.handle(exchange, request);
+        } catch (IOException e) {
+            // 客户端断开（取消生成）时写入失败，忽略
+        }
+    }
+
+    private void chat(HttpExchange exchange, JsonNode request) throws IOException {
+        chatRequests.incrementAndGet();
+        boolean stream = request.path("stream").asBoolean(true);
+        JsonNode messages = request.path("messages");
+        int promptTokens = 0;
+        for (JsonNode message : messages) promptTokens += message.path("content").asText("").length() / 2;
+        String lastRole = messages.isEmpty() ? "" : messages.get(messages.size() - 1).path("role").asText();
+
+        exchange.getResponseHeaders().set("Content-Type", stream ? "application/x-ndjson" : "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        sleep(settings.firstTokenLatency().toNanos());
+
+        if ("user".equals(lastRole) && hasTool(request.path("tools"), settings.toolName())
+                && ThreadLocalRandom.current().nextDouble() < settings.toolCallRatio()) {
+            toolCalls.incrementAndGet();
+            Map<String, Object> message = Map.of("role", "assistant", "content", "", "tool_calls",
+                    List.of(Map.of("function", Map.of("name", settings.toolName(), "arguments", Map.of()))));
+            if (stream) writeLine(out, chunk(message, false, 0, 0));
+            writeLine(out, chunk(stream ? assistant("") : message, true, promptTokens, 8));
+            return;
+        }
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / settings.tokensPerSecond());
+        if (!stream) {
+            StringBuilder answer = new StringBuilder();
+            for (int i = 0; i < settings.answerTokens(); i++) answer.append(TOKENS[i % TOKENS.length]);
+            sleep(interval * settings.answerTokens());
+            writeLine(out, chunk(assistant(answer.toString()), true, promptTokens, settings.answerTokens()));
+            return;
+        }
+        for (int i = 0; i < settings.answerTokens(); i++) {
+            if (i > 0) sleep(interval);
+            writeLine(out, chunk(assistant(TOKENS[i % TOKENS.length]), false, 0, 0));
+        }
+        writeLine(out, chunk(assistant(""), true, promptTokens, settings.answerTokens()));
+    }
+
+    private void embed(HttpExchange exchange, JsonNode request) throws IOException {
+        embedRequests.incrementAndGet();
+        List<float[]> embeddings = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isTextual()) {
+            embeddings.add(DeterministicEmbeddingModel.vector(input.asText().hashCode(), settings.embeddingDimension()));
+        } else {
+            for (JsonNode text : input) {
+                embeddings.add(DeterministicEmbeddingModel.vector(text.asText().hashCode(), settings.embeddingDimension()));
+            }
+        }
+        embeddedTexts.addAndGet(embeddings.size());
+        sleep(settings.embedLatency().toNanos());
+
+        Map<String, Object> response = Map.of("model", request.path("model").asText(), "embeddings", embeddings);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        byte[] body = objectMapper.writeValueAsBytes(response);
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void tags(HttpExchange exchange, JsonNode request) throws IOException {
+        byte[] body = objectMapper.writeValueAsBytes(Map.of("models", List.of(Map.of("name", "fake"))));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private Map<String, Object> chunk(Map<String, Object> message, boolean done, int promptTokens, int evalTokens) {
+        Map<String, Object> chunk = new LinkedHashMap<>();
+        chunk.put("model", "fake");
+        chunk.put("created_at", Instant.now().toString());
+        chunk.put("message", message);
+        chunk.put("done", done);
+        if (done) {
+            chunk.put("done_reason", "stop");
+            chunk.put("prompt_eval_count", promptTokens);
+            chunk.put("eval_count", evalTokens);
+        }
+        return chunk;
+    }
+
+    private static Map<String, Object> assistant(String content) {
+        return Map.of("role", "assistant", "content", content);
+    }
+
+    private static boolean hasTool(JsonNode tools, String name) {
+        for (JsonNode tool : tools) {
+            if (name.equals(tool.path("function").path("name").asText())) return true;
+        }
+        return false;
+    }
+
+    private void writeLine(OutputStream out, Map<String, Object> chunk) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(chunk));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.example.consultantrag.loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内的最小 Redis（RESP2），只实现本项目用到的命令，替代真实 Redis 做压测
+ *
+ * 支持：GET / SET / SETEX / DEL / RPUSH / LRANGE / LTRIM / EXPIRE / PUBLISH / SUBSCRIBE 以及连接握手命令。
+ * HELLO 返回错误，客户端（Lettuce）退回 RESP2。过期时间只记录不生效，压测期间数据量有限。
+ */
+public class FakeRedisServer implements AutoCloseable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "fake-redis");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 值为 String 或 List<String>；所有数据操作在 data 上加锁，压测规模下足够
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Set<Connection>> subscribers = new ConcurrentHashMap<>();
+
+    public FakeRedisServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        executor.execute(this::acceptLoop);
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                executor.execute(() -> new Connection(socket).serve());
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private final class Connection {
+
+        private final Socket socket;
+        private final Set<String> channels = new CopyOnWriteArraySet<>();
+        private InputStream in;
+        private OutputStream out;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void serve() {
+            try (socket) {
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                while (true) {
+                    List<String> command = readCommand();
+                    synchronized (this) {
+                        execute(command);
+                        // 管道中还有未读命令时继续处理，读空后再统一刷出
+                        if (in.available() == 0) out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // 连接关闭
+            } finally {
+                channels.forEach(channel -> subscribers.getOrDefault(channel, Set.of()).remove(this));
+            }
+        }
+
+        private void execute(List<String> command) throws IOException {
+            String name = command.get(0).toUpperCase(Locale.ROOT);
+            switch (name) {
+                case "HELLO" -> error("ERR unknown command 'HELLO'");
+                case "PING" -> simple("PONG");
+                case "CLIENT", "SELECT", "AUTH", "READONLY" -> simple("OK");
+                case "INFO" -> bulk("# Server\r\nredis_version:7.0.0\r\n");
+                case "QUIT" -> {
+                    simple("OK");
+                    out.flush();
+                    socket.close();
+                }
+                case "GET" -> {
+                    Object value;
+                    synchronized (data) {
+                        value = data.get(command.get(1));
+                    }
+                    bulk(value instanceof String text ? text : null);
+                }
+                case "SET", "SETEX" -> {
+                    String value = name.equals("SETEX") ? command.get(3) : command.get(2);
+                    synchronized (data) {
+                        data.put(command.get(1), value);
+                    }
+                    simple("OK");
+                }
+                case "DEL" -> {
+                    long removed = 0;
+                    synchronized (data) {
+                        for (String key : command.subList(1, command.size())) {
+                            if (data.remove(key) != null) removed++;
+                        }
+                    }
+                    integer(removed);
+                }
+                case "EXPIRE", "PEXPIRE" -> {
+                    boolean exists;
+                    synchronized (data) {
+                        exists = data.containsKey(command.get(1));
+                    }
+                    integer(exists ? 1 : 0);
+                }
+                case "RPUSH" -> {
+                    long size;
+                    synchronized (data) {
+                        List<String> list = list(command.get(1), true);
+                        list.addAll(command.subList(2, command.size()));
+                        size = list.size();
+                    }
+                    integer(size);
+                }
+                case "LRANGE" -> {
+                    List<String> range;
+                    synchronized (data) {
+                        List<String> list = list(command.get(1), false);
+                        int[] bounds = bounds(list.size(), command.get(2), command.get(3));
+                        range = new ArrayList<>(list.subList(bounds[0], bounds[1]));
+                    }
+                    array(range);
+                }
+                case "LTRIM" -> {
+                    synchronized (data) {
+                        List<String> list = list(command.get(1), false);
+                        int[] bounds = bounds(list.size(), command.get(2), command.get(3));
+                        List<String> kept = new ArrayList<>(list.subList(bounds[0], bounds[1]));
+                        if (kept.isEmpty()) {
+                            data.remove(command.get(1));
+                        } else {
+                            data.put(command.get(1), kept);
+                        }
+                    }
+                    simple("OK");
+                }
+                case "PUBLISH" -> integer(publish(command.get(1), command.get(2)));
+                case "SUBSCRIBE" -> {
+                    for (String channel : command.subList(1, command.size())) {
+                        channels.add(channel);
+                        subscribers.computeIfAbsent(channel, key -> new CopyOnWriteArraySet<>()).add(this);
+                        array(List.of("subscribe", channel), channels.size());
+                    }
+                }
+                case "UNSUBSCRIBE" -> {
+                    List<String> targets = command.size() > 1 ? command.subList(1, command.size()) : List.copyOf(channels);
+                    for (String channel : targets) {
+                        channels.remove(channel);
+                        subscribers.getOrDefault(channel, Set.of()).remove(this);
+                        array(List.of("unsubscribe", channel), channels.size());
+                    }
+                }
+                default -> error("ERR unknown command '" + command.get(0) + "'");
+            }
+        }
+
+        private int publish(String channel, String message) {
+            int receivers = 0;
+            for (Connection subscriber : subscribers.getOrDefault(channel, Set.of())) {
+                try {
+                    synchronized (subscriber) {
+                        subscriber.array(List.of("message", channel, message));
+                        subscriber.out.flush();
+                    }
+                    receivers++;
+                } catch (IOException e) {
+                    subscribers.get(channel).remove(subscriber);
+                }
+            }
+            return receivers;
+        }
+
+        // 调用方持有 data 锁
+        @SuppressWarnings("unchecked")
+        private List<String> list(String key, boolean create) {
+            Object value = data.get(key);
+            if (value instanceof List<?> list) return (List<String>) list;
+            if (!create) return List.of();
+            List<String> list = new ArrayList<>();
+            data.put(key, list);
+            return list;
+        }
+
+        private static int[] bounds(int size, String start, String stop) {
+            int from = Integer.parseInt(start);
+            int to = Integer.parseInt(stop);
+            if (from < 0) from = Math.max(0, size + from);
+            if (to < 0) to = size + to;
+            to = Math.min(to, size - 1);
+            return from > to ? new int[]{0, 0} : new int[]{from, to + 1};
+        }
+
+        private List<String> readCommand() throws IOException {
+            String header = readLine();
+            if (!header.startsWith("*")) {
+                return List.of(header.trim().split("\\s+"));
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine().substring(1));
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length < length) throw new EOFException();
+                in.readNBytes(2);
+                command.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) throw new EOFException();
+                line.write(b);
+            }
+            in.read();
+            return line.toString(StandardCharsets.UTF_8);
+        }
+
+        private void simple(String text) throws IOException {
+            out.write(("+" + text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void error(String text) throws IOException {
+            out.write(("-" + text + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void integer(long value) throws IOException {
+            out.write((":" + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void bulk(String text) throws IOException {
+            if (text == null) {
+                out.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void array(List<String> items) throws IOException {
+            out.write(("*" + items.size() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            for (String item : items) bulk(item);
+        }
+
+        // 订阅确认：[kind, channel, 当前订阅数]
+        private void array(List<String> items, int count) throws IOException {
+            out.write(("*" + (items.size() + 1) + "\r\n").getBytes(StandardCharsets.UTF_8));
+            for (String item : items) bulk(item);
+            integer(count);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+package org.example.consultantrag.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.consultantrag.ConsultantRagApplication;
+import org.example.consultantrag.bench.SampleDocuments;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端压测：在本进程内启动完整的 Spring 应用，依赖全部换成本地替身，回放混合负载
+ *
+ * - Ollama：FakeOllamaServer，按配置的首 token 延迟 / 输出速度流式下发，可按比例返回工具调用
+ * - Qdrant：vector-store.type=hnsw，进程内 HNSW 索引，数据写在临时目录
+ * - Redis：FakeRedisServer，进程内 RESP 服务
+ *
+ * 先上传一份样例文档作为知识库，然后依次对每个接口单独压测一段时间（线程数、堆内存按接口区分），
+ * 最后按 mix 比例混合压测。每个阶段输出首 token 时间（TTFT）、完整响应耗时的 p50/p95/p99、吞吐、错误数，
+ * 以及阶段内的线程数、堆内存峰值与 GC 次数。
+ *
+ * 用法（先在仓库根目录 mvn -B install -DskipTests）：
+ *   mvn -f benchmarks/pom.xml compile exec:java \
+ *       -Dexec.mainClass=org.example.consultantrag.loadtest.LoadTest \
+ *       -Dexec.args="concurrency=32 duration=PT2M ttft=PT0.5S --rag.admission.max-in-flight=8"
+ *
+ * 参数为 key=value（默认值见 DEFAULTS）；以 -- 开头的参数原样传给 Spring，可覆盖 application.yml 中的任意配置。
+ *
+ * 耗时口径：
+ * - chat（/api/chat）：TTFT 为响应体第一个字节，完整耗时为响应体结束
+ * - v2（/api/v2/chat）：同步接口，TTFT 与完整耗时相同
+ * - v2stream（/api/v2/chat/stream）：TTFT 为第一个 token 事件，完整耗时为事件流结束
+ * - upload（/api/rag/upload）：TTFT 为接口受理返回，完整耗时为入库任务 COMPLETED
+ * - search-batch（/api/rag/search/batch）：一次提交 batch-queries 个查询，TTFT 与完整耗时相同（默认不在 mix 中）
+ * 429 与入库队列已满计为 rejected，其余非 2xx / error 事件 / 任务失败计为 errors。
+ * 压测客户端与被测应用在同一 JVM 中，线程数包含 concurrency 个压测线程。
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("warmup", "PT10S");                 // 预热阶段（混合负载），不计入报告
+        DEFAULTS.put("phase-duration", "PT30S");         // 单接口阶段时长
+        DEFAULTS.put("duration", "PT60S");               // 混合阶段时长
+        DEFAULTS.put("concurrency", "16");               // 并发的压测线程数（闭环：每个线程收到完整响应后再发下一个）
+        DEFAULTS.put("mix", "chat=40,v2=25,v2stream=25,upload=10");
+        DEFAULTS.put("sessions", "50");                  // 会话数，请求随机分配到会话上
+        DEFAULTS.put("upload-pages", "2");               // 每次上传的文档大小（页）
+        DEFAULTS.put("batch-queries", "20");             // search-batch 每次请求的查询数
+        DEFAULTS.put("ttft", "PT0.3S");
+        DEFAULTS.put("tokens-per-second", "30");
+        DEFAULTS.put("answer-tokens", "120");
+        DEFAULTS.put("tool-call-ratio", "0.3");
+        DEFAULTS.put("tool", "getCurrentTime");
+        DEFAULTS.put("embed-latency", "PT0.02S");
+        DEFAULTS.put("dimension", "256");
+        DEFAULTS.put("output", "target/load-report.json");
+    }
+
+    private static final String[] QUESTIONS = {
+            "如何共享会议录制文件？",
+            "外部用户能不能编辑频道里的文档？",
+            "许可证到期以后账号会怎么样？",
+            "怎么导出团队的聊天记录，超过保留期限还能恢复吗？",
+            "会议最多能有多少人参加，超过了会怎样？",
+            "现在几点了？",
+            "今天是几号？",
+            "你好",
+            "谢谢",
+    };
+
+    enum Endpoint {
+        CHAT("chat"), V2("v2"), V2_STREAM("v2stream"), UPLOAD("upload"), SEARCH_BATCH("search-batch");
+
+        final String key;
+
+        Endpoint(String key) {
+            this.key = key;
+        }
+
+        static Endpoint of(String key) {
+            for (Endpoint endpoint : values()) {
+                if (endpoint.key.equals(key)) return endpoint;
+            }
+            throw new IllegalArgumentException("未知接口: " + key);
+        }
+    }
+
+    private static final class EndpointStats {
+        final LatencyRecorder ttft = new LatencyRecorder();
+        final LatencyRecorder latency = new LatencyRecorder();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        Map<String, Object> toMap(double seconds) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("completed", latency.count());
+            map.put("errors", errors.get());
+            map.put("rejected", rejected.get());
+            map.put("throughputPerSecond", Math.round(latency.count() / seconds * 100) / 100.0);
+            map.put("ttftMillis", ttft.summary());
+            map.put("latencyMillis", latency.summary());
+            return map;
+        }
+    }
+
+    private final URI baseUri;
+    private final Map<String, String> options;
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong documentSeed = new AtomicLong(1000);
+
+    LoadTest(URI baseUri, Map<String, String> options) {
+        this.baseUri = baseUri;
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        List<String> springArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                springArgs.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !DEFAULTS.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("未知参数: " + arg + "，可用参数: " + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        FakeOllamaServer.Settings settings = new FakeOllamaServer.Settings(
+                Duration.parse(options.get("ttft")),
+                Double.parseDouble(options.get("tokens-per-second")),
+                Integer.parseInt(options.get("answer-tokens")),
+                Double.parseDouble(options.get("tool-call-ratio")),
+                options.get("tool"),
+                Duration.parse(options.get("embed-latency")),
+                Integer.parseInt(options.get("dimension")));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        try (FakeOllamaServer ollama = new FakeOllamaServer(settings); FakeRedisServer redis = new FakeRedisServer()) {
+            Path dataDir = Files.createTempDirectory("rag-load-hnsw-");
+            List<String> appArgs = new ArrayList<>(List.of(
+                    "--server.port=0",
+                    "--ollama.base-url=" + ollama.baseUrl(),
+                    "--spring.data.redis.host=127.0.0.1",
+                    "--spring.data.redis.port=" + redis.port(),
+                    "--vector-store.type=hnsw",
+                    "--hnsw.data-dir=" + dataDir,
+                    "--qdrant.vector-dimension=" + options.get("dimension"),
+                    "--weather.api.key=load-test",
+                    "--logging.level.dev.langchain4j=WARN",
+                    "--logging.level.org.example.consultantrag=WARN"));
+            appArgs.addAll(springArgs);
+
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(ConsultantRagApplication.class)
+                    .run(appArgs.toArray(String[]::new));
+            try {
+                String port = context.getEnvironment().getProperty("local.server.port");
+                LoadTest test = new LoadTest(URI.create("http://127.0.0.1:" + port), options);
+                report.put("options", options);
+                report.put("springArgs", springArgs);
+                report.put("phases", test.run());
+                report.put("fakeOllama", ollama.stats());
+            } finally {
+                context.close();
+            }
+        }
+
+        Path output = Path.of(options.get("output"));
+        if (output.getParent() != null) Files.createDirectories(output.getParent());
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(output.toFile(), report);
+        System.out.println("报告已写入 " + output.toAbsolutePath());
+        System.exit(0);
+    }
+
+    List<Map<String, Object>> run() throws Exception {
+        Map<Endpoint, Integer> mix = parseMix(options.get("mix"));
+        int concurrency = Integer.parseInt(options.get("concurrency"));
+
+        System.out.println("上传种子文档 ...");
+        EndpointStats seed = new EndpointStats();
+        upload(seed, 5);
+        if (seed.latency.count() == 0) throw new IllegalStateException("种子文档入库失败");
+
+        Duration warmup = Duration.parse(options.get("warmup"));
+        if (!warmup.isZero()) runPhase("warmup", mix, concurrency, warmup);
+
+        List<Map<String, Object>> phases = new ArrayList<>();
+        Duration phaseDuration = Duration.parse(options.get("phase-duration"));
+        for (Endpoint endpoint : mix.keySet()) {
+            phases.add(runPhase(endpoint.key, Map.of(endpoint, 1), concurrency, phaseDuration));
+        }
+        phases.add(runPhase("mixed", mix, concurrency, Duration.parse(options.get("duration"))));
+        return phases;
+    }
+
+    private Map<String, Object> runPhase(String name, Map<Endpoint, Integer> mix, int concurrency, Duration duration)
+            throws InterruptedException {
+        System.out.printf("阶段 %s：%d 并发，%s%n", name, concurrency, duration);
+        Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+        mix.keySet().forEach(endpoint -> stats.put(endpoint, new EndpointStats()));
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        ResourceSampler sampler = new ResourceSampler();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(() -> {
+                while (System.nanoTime() < deadline) {
+                    Endpoint endpoint = pick(mix, totalWeight);
+                    execute(endpoint, stats.get(endpoint));
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(duration.toMinutes() + 10, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Map<String, Object> phase = new LinkedHashMap<>();
+        phase.put("name", name);
+        phase.put("seconds", Math.round(seconds * 10) / 10.0);
+        phase.put("concurrency", concurrency);
+        Map<String, Object> endpoints = new LinkedHashMap<>();
+        stats.forEach((endpoint, endpointStats) -> endpoints.put(endpoint.key, endpointStats.toMap(seconds)));
+        phase.put("endpoints", endpoints);
+        phase.put("resources", sampler.stop());
+        if (!"warmup".equals(name)) print(phase);
+        return phase;
+    }
+
+    private void execute(Endpoint endpoint, EndpointStats stats) {
+        try {
+            switch (endpoint) {
+                case CHAT -> chat("/api/chat", false, stats);
+                case V2 -> chat("/api/v2/chat", false, stats);
+                case V2_STREAM -> chat("/api/v2/chat/stream", true, stats);
+                case UPLOAD -> upload(stats, Integer.parseInt(options.get("upload-pages")));
+                case SEARCH_BATCH -> searchBatch(stats, Integer.parseInt(options.get("batch-queries")));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    private void chat(String path, boolean sse, EndpointStats stats) throws IOException, InterruptedException {
+        String memoryId = "load-" + ThreadLocalRandom.current().nextInt(Integer.parseInt(options.get("sessions")));
+        String question = QUESTIONS[ThreadLocalRandom.current().nextInt(QUESTIONS.length)];
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve(path + "?memoryId=" + memoryId))
+                .timeout(Duration.ofMinutes(5))
+                .header("Content-Type", "text/plain;charset=UTF-8")
+                .header("Accept", sse ? "text/event-stream" : "*/*")
+                .POST(HttpRequest.BodyPublishers.ofString(question))
+                .build();
+
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = response.body()) {
+            if (!accepted(response.statusCode(), stats)) return;
+
+            if (!sse) {
+                if (body.read() >= 0) stats.ttft.record(System.nanoTime() - start);
+                body.transferTo(OutputStream.nullOutputStream());
+                stats.latency.record(System.nanoTime() - start);
+                return;
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            boolean firstToken = true;
+            boolean failed = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("event:")) continue;
+                String event = line.substring("event:".length()).trim();
+                if (firstToken && event.equals("token")) {
+                    stats.ttft.record(System.nanoTime() - start);
+                    firstToken = false;
+                } else if (event.equals("error")) {
+                    failed = true;
+                }
+            }
+            if (failed) {
+                stats.errors.incrementAndGet();
+            } else {
+                stats.latency.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void upload(EndpointStats stats, int pages) throws IOException, InterruptedException {
+        // 每次上传内容不同的新文档，避免命中 embedding 缓存或增量去重
+        long seed = documentSeed.incrementAndGet();
+        byte[] document = SampleDocuments.docx(seed, pages);
+        String boundary = UUID.randomUUID().toString();
+        ByteArrayOutputStream multipart = new ByteArrayOutputStream(document.length + 256);
+        multipart.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"load-" + seed + ".docx\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        multipart.writeBytes(document);
+        multipart.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/api/rag/upload"))
+                .timeout(Duration.ofMinutes(1))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(multipart.toByteArray()))
+                .build();
+
+        long start = System.nanoTime();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (!accepted(response.statusCode(), stats)) return;
+        JsonNode accepted = objectMapper.readTree(response.body());
+        if (!accepted.path("success").asBoolean()) {
+            if (accepted.path("message").asText().contains("队列已满")) {
+                stats.rejected.incrementAndGet();
+            } else {
+                stats.errors.incrementAndGet();
+            }
+            return;
+        }
+        stats.ttft.record(System.nanoTime() - start);
+
+        URI jobUri = baseUri.resolve("/api/rag/jobs/" + URLEncoder.encode(accepted.path("jobId").asText(), StandardCharsets.UTF_8));
+        long deadline = start + TimeUnit.MINUTES.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+            JsonNode job = objectMapper.readTree(client.send(HttpRequest.newBuilder(jobUri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()).body());
+            String status = job.path("status").asText();
+            if (status.equals("COMPLETED")) {
+                stats.latency.record(System.nanoTime() - start);
+                return;
+            }
+            if (status.equals("FAILED") || !job.path("success").asBoolean()) {
+                stats.errors.incrementAndGet();
+                return;
+            }
+        }
+        stats.errors.incrementAndGet();
+    }
+
+    private void searchBatch(EndpointStats stats, int queries) throws IOException, InterruptedException {
+        List<String> batch = new ArrayList<>(queries);
+        int offset = ThreadLocalRandom.current().nextInt(QUESTIONS.length);
+        for (int i = 0; i < queries; i++) {
+            // 同一问题加序号，避免整批命中 embedding 缓存
+            batch.add(QUESTIONS[(offset + i) % QUESTIONS.length] + " #" + ThreadLocalRandom.current().nextInt(1_000_000));
+        }
+        HttpRequest request = HttpRequest.newBuilder(baseUri.resolve("/api/rag/search/batch"))
+                .timeout(Duration.ofMinutes(1))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                        Map.of("queries", batch, "maxResults", 5))))
+                .build();
+
+        long start = System.nanoTime();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (!accepted(response.statusCode(), stats)) return;
+        JsonNode body = objectMapper.readTree(response.body());
+        if (!body.path("success").asBoolean() || body.path("results").size() != queries) {
+            stats.errors.incrementAndGet();
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        stats.ttft.record(elapsed);
+        stats.latency.record(elapsed);
+    }
+
+    private static boolean accepted(int status, EndpointStats stats) {
+        if (status == 429) {
+            stats.rejected.incrementAndGet();
+            return false;
+        }
+        if (status / 100 != 2) {
+            stats.errors.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private static Endpoint pick(Map<Endpoint, Integer> mix, int totalWeight) {
+        int value = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Map.Entry<Endpoint, Integer> entry : mix.entrySet()) {
+            value -= entry.getValue();
+            if (value < 0) return entry.getKey();
+        }
+        throw new IllegalStateException();
+    }
+
+    private static Map<Endpoint, Integer> parseMix(String mix) {
+        Map<Endpoint, Integer> weights = new EnumMap<>(Endpoint.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) weights.put(Endpoint.of(pair[0].trim()), weight);
+        }
+        if (weights.isEmpty()) throw new IllegalArgumentException("mix 中至少要有一个接口的权重大于 0");
+        return weights;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> phase) {
+        System.out.printf("%n== %s（%s 秒）==%n", phase.get("name"), phase.get("seconds"));
+        System.out.printf("%-9s %8s %6s %6s %8s   %-22s %-22s%n",
+                "endpoint", "done", "err", "rej", "req/s", "TTFT p50/p95/p99 ms", "latency p50/p95/p99 ms");
+        Map<String, Object> endpoints = (Map<String, Object>) phase.get("endpoints");
+        endpoints.forEach((key, value) -> {
+            Map<String, Object> stats = (Map<String, Object>) value;
+            System.out.printf("%-9s %8s %6s %6s %8s   %-22s %-22s%n", key, stats.get("completed"), stats.get("errors"),
+                    stats.get("rejected"), stats.get("throughputPerSecond"),
+                    percentiles((Map<String, Object>) stats.get("ttftMillis")),
+                    percentiles((Map<String, Object>) stats.get("latencyMillis")));
+        });
+        System.out.println("resources " + phase.get("resources"));
+    }
+
+    private static String percentiles(Map<String, Object> summary) {
+        if (!summary.containsKey("p50")) return "-";
+        return summary.get("p50") + "/" + summary.get("p95") + "/" + summary.get("p99");
+    }
+
+    /**
+     * 每 250ms 采样一次线程数和已用堆内存，结束时给出峰值、均值和阶段内的 GC 次数 / 耗时
+     */
+    private static final class ResourceSampler {
+
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-test-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final long gcCountBefore = gcCount();
+        private final long gcMillisBefore = gcMillis();
+        private int samples;
+        private long threadSum;
+        private int peakThreads;
+        private long heapSum;
+        private long peakHeap;
+
+        ResourceSampler() {
+            scheduler.scheduleAtFixedRate(this::sample, 0, 250, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void sample() {
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            samples++;
+            threadSum += threads;
+            heapSum += heap;
+            peakThreads = Math.max(peakThreads, threads);
+            peakHeap = Math.max(peakHeap, heap);
+        }
+
+        synchronized Map<String, Object> stop() {
+            scheduler.shutdownNow();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("peakThreads", peakThreads);
+            map.put("avgThreads", samples == 0 ? 0 : threadSum / samples);
+            map.put("peakHeapMb", peakHeap >> 20);
+            map.put("avgHeapMb", samples == 0 ? 0 : (heapSum / samples) >> 20);
+            map.put("gcCount", gcCount() - gcCountBefore);
+            map.put("gcMillis", gcMillis() - gcMillisBefore);
+            return map;
+        }
+
+        private static long gcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount).filter(count -> count > 0).sum();
+        }
+
+        private static long gcMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime).filter(time -> time > 0).sum();
+        }
+    }
+}
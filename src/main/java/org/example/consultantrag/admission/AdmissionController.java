@@ -0,0 +1,264 @@
+package org.example.consultantrag.admission;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 模型调用的准入控制
+ *
+ * 每个 Ollama 后端最多同时执行 max-in-flight 个生成请求，其余进入有界等待队列：
+ * - 队列按 memoryId 分组轮转出队，同一会话连发多条不会饿死其它会话
+ * - 排队不占用线程（返回 CompletableFuture），获准后再交给执行线程；取消 Future 即放弃排队
+ * - 队列满或排队超过 max-wait 时立即失败，附带按平均生成耗时估算的 Retry-After
+ *
+ * 会话摘要等后台生成走单独的低优先级通道（acquireBackground）：只在有空闲名额且没有用户请求排队时获准，
+ * 同时最多 max-background-in-flight 个；已开始的后台生成不会被打断，但用户请求排队期间不会再启动新的。
+ */
+@Component
+public class AdmissionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final int maxInFlight;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final int maxBackgroundInFlight;
+
+    private final Map<String, Gate> gates = new ConcurrentHashMap<>();
+
+    public AdmissionController(@Value("${rag.admission.max-in-flight:2}") int maxInFlight,
+                               @Value("${rag.admission.max-queue:32}") int maxQueue,
+                               @Value("${rag.admission.max-wait:PT60S}") Duration maxWait,
+                               @Value("${rag.admission.max-background-in-flight:1}") int maxBackgroundInFlight) {
+        this.maxInFlight = maxInFlight;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.maxBackgroundInFlight = maxBackgroundInFlight;
+    }
+
+    /**
+     * 已获准的执行许可，生成结束后必须 release（可重复调用）
+     */
+    public interface Permit {
+        void release();
+    }
+
+    /**
+     * 申请执行许可
+     *
+     * @param backend  模型后端标识（如 Ollama base-url），每个后端独立限流
+     * @param memoryId 会话 ID，用于公平调度
+     * @return 获准时完成的 Future；队列已满或排队超时则以 AdmissionRejectedException 失败
+     */
+    public CompletableFuture<Permit> acquire(String backend, String memoryId) {
+        return gates.computeIfAbsent(backend, Gate::new).acquire(memoryId == null ? "" : memoryId);
+    }
+
+    /**
+     * 申请后台生成的执行许可（低优先级，让位于用户请求）
+     *
+     * @return 获准时完成的 Future；后台队列已满或排队超时则以 AdmissionRejectedException 失败
+     */
+    public CompletableFuture<Permit> acquireBackground(String backend) {
+        return gates.computeIfAbsent(backend, Gate::new).acquireBackground();
+    }
+
+    /**
+     * 各后端的在途数与排队数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        gates.forEach((backend, gate) -> stats.put(backend, gate.stats()));
+        return stats;
+    }
+
+    private final class Gate {
+
+        private final String backend;
+
+        private int inFlight;
+        private int queued;
+        private final Map<String, Deque<CompletableFuture<Permit>>> queues = new HashMap<>();
+        private final Deque<String> rotation = new ArrayDeque<>();
+
+        // 后台生成：inFlight 中属于后台的部分，以及等待中的后台请求（FIFO）
+        private int backgroundInFlight;
+        private final Deque<CompletableFuture<Permit>> background = new ArrayDeque<>();
+
+        // 生成耗时的指数滑动平均，用于估算 Retry-After
+        private double avgGenerationMillis = 10_000;
+
+        Gate(String backend) {
+            this.backend = backend;
+        }
+
+        CompletableFuture<Permit> acquire(String memoryId) {
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            synchronized (this) {
+                if (inFlight < maxInFlight && queued == 0) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(newPermit(false));
+                }
+                if (queued >= maxQueue) {
+                    long retryAfter = estimateRetryAfterSeconds();
+                    logger.warn("模型准入队列已满: backend={}, inFlight={}, queued={}", backend, inFlight, queued);
+                    return CompletableFuture.failedFuture(
+                            new AdmissionRejectedException("当前请求过多，请稍后重试", retryAfter));
+                }
+                Deque<CompletableFuture<Permit>> queue = queues.computeIfAbsent(memoryId, id -> new ArrayDeque<>());
+                if (queue.isEmpty()) {
+                    rotation.addLast(memoryId);
+                }
+                queue.addLast(waiter);
+                queued++;
+            }
+
+            waiter.orTimeout(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            CompletableFuture<Permit> result = waiter.handle((permit, e) -> {
+                if (e == null) return permit;
+                if (e instanceof TimeoutException) {
+                    remove(memoryId, waiter);
+                    throw new AdmissionRejectedException("排队等待超时，请稍后重试", estimateRetryAfterSeconds());
+                }
+                throw e instanceof RuntimeException runtime ? runtime : new RuntimeException(e);
+            });
+            // 调用方放弃等待（如客户端断开）：移出队列；若已获准则立即归还
+            result.whenComplete((permit, e) -> {
+                if (result.isCancelled()) {
+                    remove(memoryId, waiter);
+                    waiter.thenAccept(Permit::release);
+                }
+            });
+            return result;
+        }
+
+        CompletableFuture<Permit> acquireBackground() {
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            synchronized (this) {
+                if (background.isEmpty() && backgroundAllowed()) {
+                    inFlight++;
+                    backgroundInFlight++;
+                    return CompletableFuture.completedFuture(newPermit(true));
+                }
+                if (background.size() >= maxQueue) {
+                    return CompletableFuture.failedFuture(
+                            new AdmissionRejectedException("后台任务过多，稍后重试", estimateRetryAfterSeconds()));
+                }
+                background.addLast(waiter);
+            }
+
+            waiter.orTimeout(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+            return waiter.handle((permit, e) -> {
+                if (e == null) return permit;
+                if (e instanceof TimeoutException) {
+                    synchronized (this) {
+                        background.remove(waiter);
+                    }
+                    throw new AdmissionRejectedException("后台任务排队超时", estimateRetryAfterSeconds());
+                }
+                throw e instanceof RuntimeException runtime ? runtime : new RuntimeException(e);
+            });
+        }
+
+        /**
+         * 后台生成只使用空闲名额，且没有用户请求在排队
+         */
+        private boolean backgroundAllowed() {
+            return queued == 0 && inFlight < maxInFlight && backgroundInFlight < maxBackgroundInFlight;
+        }
+
+        private Permit newPermit(boolean isBackground) {
+            long start = System.nanoTime();
+            boolean[] released = {false};
+            return () -> {
+                synchronized (this) {
+                    if (released[0]) return;
+                    released[0] = true;
+                    double millis = (System.nanoTime() - start) / 1e6;
+                    avgGenerationMillis = 0.8 * avgGenerationMillis + 0.2 * millis;
+                    inFlight--;
+                    if (isBackground) backgroundInFlight--;
+                }
+                dispatch();
+            };
+        }
+
+        /**
+         * 有空位时按会话轮转唤醒排队请求，用户请求都已获准后才唤醒后台请求（在锁外完成 Future，避免回调在锁内执行）
+         */
+        private void dispatch() {
+            while (true) {
+                CompletableFuture<Permit> next;
+                boolean isBackground;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight) return;
+                    if (queued > 0) {
+                        String memoryId = rotation.pollFirst();
+                        Deque<CompletableFuture<Permit>> queue = queues.get(memoryId);
+                        next = queue.pollFirst();
+                        queued--;
+                        if (queue.isEmpty()) {
+                            queues.remove(memoryId);
+                        } else {
+                            rotation.addLast(memoryId);
+                        }
+                        isBackground = false;
+                    } else if (!background.isEmpty() && backgroundAllowed()) {
+                        next = background.pollFirst();
+                        backgroundInFlight++;
+                        isBackground = true;
+                    } else {
+                        return;
+                    }
+                    inFlight++;
+                }
+                if (!next.complete(newPermit(isBackground))) {
+                    // 已超时的等待者：归还名额继续出队
+                    synchronized (this) {
+                        inFlight--;
+                        if (isBackground) backgroundInFlight--;
+                    }
+                }
+            }
+        }
+
+        private synchronized void remove(String memoryId, CompletableFuture<Permit> waiter) {
+            Deque<CompletableFuture<Permit>> queue = queues.get(memoryId);
+            if (queue == null || !queue.remove(waiter)) return;
+            queued--;
+            if (queue.isEmpty()) {
+                queues.remove(memoryId);
+                rotation.remove(memoryId);
+            }
+        }
+
+        private long estimateRetryAfterSeconds() {
+            double waitMillis = avgGenerationMillis * (queued + 1) / Math.max(1, maxInFlight);
+            return Math.max(1, (long) Math.ceil(waitMillis / 1000));
+        }
+
+        synchronized Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("inFlight", inFlight);
+            stats.put("queued", queued);
+            stats.put("sessions", queues.size());
+            stats.put("backgroundInFlight", backgroundInFlight);
+            stats.put("backgroundQueued", background.size());
+            stats.put("avgGenerationMillis", Math.round(avgGenerationMillis));
+            return stats;
+        }
+    }
+}
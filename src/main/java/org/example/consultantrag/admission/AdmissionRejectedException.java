@@ -0,0 +1,23 @@
+package org.example.consultantrag.admission;
+
+/**
+ * 生成请求被准入控制拒绝（等待队列已满或排队超时）
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * 建议客户端重试前等待的秒数（用于 Retry-After 响应头）
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
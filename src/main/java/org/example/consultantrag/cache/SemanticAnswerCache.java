@@ -0,0 +1,222 @@
+package org.example.consultantrag.cache;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.example.consultantrag.retrieval.ContextPackingContentInjector;
+import org.example.consultantrag.retrieval.RuleBasedQueryRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 语义答案缓存（进程内，默认关闭）
+ *
+ * 缓存键 = 问题向量 + 检索内容指纹（注入提示词的参考内容的 SHA-256）：
+ * - 参考内容完全相同、问题向量余弦相似度不低于阈值时命中，直接回放答案，不调用模型
+ * - 知识库更新导致检索内容变化时指纹不同，自然失效；另有 TTL 兜底
+ *
+ * 以下问题不走缓存：闲聊 / 纯工具问题、答案依赖当前时间或天气的问题、
+ * 依赖上文的追问（“那周二呢”“刚才说的”），以及本轮没有注入参考内容的问题
+ * （检索超时 / 失败降级或没有检索到片段时，答案没有知识库依据，不能按“空内容”指纹缓存下来回放）。
+ */
+public class SemanticAnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    private static final Pattern FOLLOW_UP = Pattern.compile("^(那|那么|还有|然后|另外|它|这个|那个)|刚才|上面|之前说|你说的");
+    private static final int REPLAY_CHUNK_CHARS = 16;
+
+    private final EmbeddingModel embeddingModel;
+    private final RuleBasedQueryRouter queryRouter;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final Duration ttl;
+    private final int maxEntries;
+
+    // 按检索内容指纹分组，组内线性比较余弦相似度；insertionOrder 用于超出上限时淘汰最早的条目
+    private final Map<String, List<Entry>> entriesByContext = new HashMap<>();
+    private final Deque<Entry> insertionOrder = new ArrayDeque<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+
+    /**
+     * 一次查询的缓存键，未命中时用同一个键写入答案
+     */
+    public record Key(float[] vector, String contextFingerprint) {
+    }
+
+    private record Entry(float[] vector, String contextFingerprint, String answer, long expiresAt) {
+    }
+
+    public SemanticAnswerCache(EmbeddingModel embeddingModel, RuleBasedQueryRouter queryRouter, boolean enabled,
+                               double similarityThreshold, Duration ttl, int maxEntries) {
+        this.embeddingModel = embeddingModel;
+        this.queryRouter = queryRouter;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 计算缓存键；不适合缓存的问题返回 null
+     *
+     * 问题向量与检索阶段使用同一文本，经 CachingEmbeddingModel 时命中进程内缓存，不会再次调用模型。
+     *
+     * @param question         用户原始问题
+     * @param augmentedMessage 注入检索内容后的用户消息
+     */
+    public Key key(String question, ChatMessage augmentedMessage) {
+        if (!enabled) return null;
+        if (!queryRouter.decide(question).retrieve()
+                || queryRouter.timeSensitive(question)
+                || FOLLOW_UP.matcher(question.strip()).find()) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+
+        String context = retrievedContext(augmentedMessage);
+        if (context == null) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+
+        float[] vector = normalize(embeddingModel.embed(question).content().vector());
+        return new Key(vector, fingerprint(context));
+    }
+
+    /**
+     * 查找语义相近且检索内容相同的答案
+     */
+    public String get(Key key) {
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        synchronized (this) {
+            for (Entry entry : entriesByContext.getOrDefault(key.contextFingerprint(), List.of())) {
+                if (entry.expiresAt() < now) continue;
+                double score = dot(key.vector(), entry.vector());
+                if (score >= bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        logger.debug("答案缓存命中: 相似度 {}", String.format("%.4f", bestScore));
+        return best.answer();
+    }
+
+    public void put(Key key, String answer) {
+        if (answer == null || answer.isBlank()) return;
+        Entry entry = new Entry(key.vector(), key.contextFingerprint(), answer,
+                System.currentTimeMillis() + ttl.toMillis());
+        synchronized (this) {
+            entriesByContext.computeIfAbsent(entry.contextFingerprint(), fingerprint -> new ArrayList<>()).add(entry);
+            insertionOrder.addLast(entry);
+            long now = System.currentTimeMillis();
+            while (insertionOrder.size() > maxEntries
+                    || (!insertionOrder.isEmpty() && insertionOrder.peekFirst().expiresAt() < now)) {
+                remove(insertionOrder.pollFirst());
+            }
+        }
+    }
+
+    /**
+     * 把缓存的答案切成小段，按流式接口的方式回放
+     */
+    public static List<String> replayChunks(String answer) {
+        List<String> chunks = new ArrayList<>();
+        int[] codePoints = answer.codePoints().toArray();
+        for (int i = 0; i < codePoints.length; i += REPLAY_CHUNK_CHARS) {
+            chunks.add(new String(codePoints, i, Math.min(REPLAY_CHUNK_CHARS, codePoints.length - i)));
+        }
+        return chunks;
+    }
+
+    /**
+     * 命中统计，供监控接口使用
+     */
+    public Map<String, Object> stats() {
+        long hit = hits.get();
+        long miss = misses.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("bypasses", bypasses.get());
+        stats.put("hitRate", hit + miss == 0 ? 0.0 : (double) hit / (hit + miss));
+        synchronized (this) {
+            stats.put("entries", insertionOrder.size());
+            stats.put("contexts", entriesByContext.size());
+        }
+        return stats;
+    }
+
+    private void remove(Entry entry) {
+        List<Entry> group = entriesByContext.get(entry.contextFingerprint());
+        if (group == null) return;
+        group.remove(entry);
+        if (group.isEmpty()) entriesByContext.remove(entry.contextFingerprint());
+    }
+
+    /**
+     * 注入的参考内容；没有注入时返回 null
+     */
+    private static String retrievedContext(ChatMessage augmentedMessage) {
+        if (augmentedMessage instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+            String text = userMessage.singleText();
+            int marker = text.indexOf(ContextPackingContentInjector.CONTEXT_MARKER);
+            if (marker >= 0) return text.substring(marker + ContextPackingContentInjector.CONTEXT_MARKER.length());
+        }
+        return null;
+    }
+
+    private static String fingerprint(String context) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(context.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) return normalized;
+        for (int i = 0; i < vector.length; i++) normalized[i] = (float) (vector[i] / norm);
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+}
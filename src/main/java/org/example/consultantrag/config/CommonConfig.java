@@ -2,37 +2,72 @@ package org.example.consultantrag.config;
 
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.chat.ChatLanguageModel;
 import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.Tokenizer;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.ollama.OllamaChatModel;
 import dev.langchain4j.model.ollama.OllamaEmbeddingModel;
 import dev.langchain4j.model.ollama.OllamaStreamingChatModel;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
-import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.qdrant.QdrantEmbeddingStore;
-import dev.langchain4j.store.memory.chat.redis.RedisChatMemoryStore;
 import io.qdrant.client.QdrantClient;
 import io.qdrant.client.QdrantGrpcClient;
 import io.qdrant.client.grpc.Collections;
+import org.example.consultantrag.cache.SemanticAnswerCache;
+import org.example.consultantrag.embedding.BatchingEmbeddingModel;
+import org.example.consultantrag.embedding.CachingEmbeddingModel;
+import org.example.consultantrag.ingest.IngestionPipeline;
+import org.example.consultantrag.memory.ConversationSummarizer;
+import org.example.consultantrag.memory.NearCacheChatMemoryStore;
+import org.example.consultantrag.memory.SummarizingChatMemory;
+import org.example.consultantrag.metrics.BreakdownPropagatingExecutor;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.ollama.OllamaToolStreamClient;
+import org.example.consultantrag.retrieval.Bm25Index;
+import org.example.consultantrag.retrieval.ContextPackingContentInjector;
+import org.example.consultantrag.retrieval.ConversationFilterExtractor;
+import org.example.consultantrag.retrieval.EstimatingTokenizer;
+import org.example.consultantrag.retrieval.HybridContentRetriever;
+import org.example.consultantrag.retrieval.RuleBasedQueryRouter;
+import org.example.consultantrag.store.HnswSegmentStore;
+import org.example.consultantrag.store.QdrantSegmentStore;
+import org.example.consultantrag.store.Quantization;
+import org.example.consultantrag.store.SegmentStore;
+import org.example.consultantrag.tools.CalculatorTool;
+import org.example.consultantrag.tools.ParallelToolExecutor;
+import org.example.consultantrag.tools.TimeTool;
+import org.example.consultantrag.tools.WeatherTool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
 
 @Configuration
 public class CommonConfig {
 
-    @Value("${spring.data.redis.host:localhost}")
-    private String redisHost;
-
-    @Value("${spring.data.redis.port:6379}")
-    private int redisPort;
+    private static final Logger logger = LoggerFactory.getLogger(CommonConfig.class);
 
     @Value("${ollama.base-url:http://localhost:11434}")
     private String ollamaBaseUrl;
@@ -40,9 +75,138 @@ public class CommonConfig {
     @Value("${ollama.chat-model.name:qwen3}")
     private String chatModelName;
 
+    @Value("${ollama.log-payloads:false}")
+    private boolean ollamaLogPayloads;
+
     @Value("${ollama.embedding-model.name:qwen3-embedding}")
     private String embeddingModelName;
 
+    @Value("${embedding.cache.max-entries:2000}")
+    private int embeddingCacheMaxEntries;
+
+    @Value("${embedding.cache.redis.enabled:false}")
+    private boolean embeddingCacheRedisEnabled;
+
+    @Value("${embedding.cache.redis.ttl:P7D}")
+    private Duration embeddingCacheRedisTtl;
+
+    @Value("${embedding.batch.enabled:true}")
+    private boolean embeddingBatchEnabled;
+
+    @Value("${embedding.batch.max-size:16}")
+    private int embeddingBatchMaxSize;
+
+    @Value("${embedding.batch.max-wait:PT0.005S}")
+    private Duration embeddingBatchMaxWait;
+
+    @Value("${vector-store.type:qdrant}")
+    private String vectorStoreType;
+
+    @Value("${vector-store.quantization.type:none}")
+    private String quantizationType;
+
+    @Value("${vector-store.quantization.oversampling:3.0}")
+    private double quantizationOversampling;
+
+    @Value("${vector-store.matryoshka.dimension:0}")
+    private int matryoshkaDimension;
+
+    @Value("${vector-store.matryoshka.oversampling:4.0}")
+    private double matryoshkaOversampling;
+
+    @Value("${hnsw.data-dir:./data/hnsw}")
+    private String hnswDataDir;
+
+    @Value("${hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${hnsw.flush-interval:PT10S}")
+    private Duration hnswFlushInterval;
+
+    @Value("${rag.retrieval.hybrid:true}")
+    private boolean hybridRetrieval;
+
+    @Value("${rag.retrieval.max-results:3}")
+    private int retrievalMaxResults;
+
+    @Value("${rag.retrieval.min-score:0.5}")
+    private double retrievalMinScore;
+
+    @Value("${rag.retrieval.candidates:10}")
+    private int retrievalCandidates;
+
+    @Value("${rag.retrieval.rrf-k:60}")
+    private int retrievalRrfK;
+
+    @Value("${rag.router.enabled:true}")
+    private boolean routerEnabled;
+
+    @Value("${rag.router.deep-max-results:6}")
+    private int routerDeepMaxResults;
+
+    @Value("${rag.router.knowledge-keywords:景点,门票,开放,营业,闭馆,关门,室内,室外,户外,博物馆,公园,路线,推荐,去哪,好玩,游玩}")
+    private List<String> routerKnowledgeKeywords;
+
+    @Value("${rag.router.max-tool-query-chars:40}")
+    private int routerMaxToolQueryChars;
+
+    @Value("${rag.router.deep-query-chars:80}")
+    private int routerDeepQueryChars;
+
+    @Value("${rag.filter.from-conversation:true}")
+    private boolean filterFromConversation;
+
+    @Value("${rag.filter.cities:}")
+    private List<String> filterCities;
+
+    @Value("${rag.answer-cache.enabled:false}")
+    private boolean answerCacheEnabled;
+
+    @Value("${rag.answer-cache.similarity-threshold:0.95}")
+    private double answerCacheSimilarityThreshold;
+
+    @Value("${rag.answer-cache.ttl:PT1H}")
+    private Duration answerCacheTtl;
+
+    @Value("${rag.answer-cache.max-entries:1000}")
+    private int answerCacheMaxEntries;
+
+    @Value("${rag.context.token-budget:1200}")
+    private int contextTokenBudget;
+
+    @Value("${rag.context.duplicate-threshold:0.8}")
+    private double contextDuplicateThreshold;
+
+    @Value("${rag.tools.parallelism:8}")
+    private int toolParallelism;
+
+    @Value("${rag.tools.timeout:PT15S}")
+    private Duration toolTimeout;
+
+    @Value("${rag.memory.max-messages:40}")
+    private int memoryMaxMessages;
+
+    @Value("${rag.memory.token-budget:1500}")
+    private int memoryTokenBudget;
+
+    @Value("${rag.memory.keep-recent-turns:2}")
+    private int memoryKeepRecentTurns;
+
+    @Value("${rag.memory.max-sessions:10000}")
+    private int memoryMaxSessions;
+
+    @Value("${rag.memory.flush-interval:PT0.05S}")
+    private Duration memoryFlushInterval;
+
+    @Value("${rag.memory.ttl:P30D}")
+    private Duration memoryTtl;
+
     @Value("${qdrant.host:localhost}")
     private String qdrantHost;
 
@@ -61,8 +225,8 @@ public class CommonConfig {
         return OllamaChatModel.builder()
                 .baseUrl(ollamaBaseUrl)
                 .modelName(chatModelName)
-                .logRequests(true)  // 开启请求日志
-                .logResponses(true) // 开启响应日志
+                .logRequests(ollamaLogPayloads)   // 请求 / 响应日志包含完整提示词，默认关闭
+                .logResponses(ollamaLogPayloads)
                 .timeout(Duration.ofSeconds(60))
                 .build();
     }
@@ -72,66 +236,294 @@ public class CommonConfig {
         return OllamaStreamingChatModel.builder()
                 .baseUrl(ollamaBaseUrl)
                 .modelName(chatModelName)
-                .logRequests(true)  // 开启请求日志
-                .logResponses(true) // 开启响应日志
+                .logRequests(ollamaLogPayloads)   // 请求 / 响应日志包含完整提示词，默认关闭
+                .logResponses(ollamaLogPayloads)
                 .timeout(Duration.ofSeconds(60))
                 .build();
     }
 
+    /**
+     * 支持工具调用的流式客户端（OllamaStreamingChatModel 不支持工具，V2 流式对话使用）
+     */
     @Bean
-    public EmbeddingModel embeddingModel() {
-        return OllamaEmbeddingModel.builder()
+    public OllamaToolStreamClient toolStreamClient() {
+        return new OllamaToolStreamClient(ollamaBaseUrl, chatModelName, Duration.ofSeconds(60));
+    }
+
+    @Bean
+    public EmbeddingModel embeddingModel(ObjectProvider<RedisConnectionFactory> redisConnectionFactory) {
+        EmbeddingModel ollamaEmbeddingModel = OllamaEmbeddingModel.builder()
                 .baseUrl(ollamaBaseUrl)
                 .modelName(embeddingModelName)
                 .timeout(Duration.ofSeconds(60))
                 .build();
+
+        // 并发的单条查询合并成一次 embedAll 请求（位于缓存之后，命中缓存的调用不参与等待）
+        if (embeddingBatchEnabled) {
+            ollamaEmbeddingModel = new BatchingEmbeddingModel(ollamaEmbeddingModel,
+                    embeddingBatchMaxSize, embeddingBatchMaxWait);
+        }
+
+        // 相同内容（重复上传、重复提问）只向 Ollama 请求一次
+        RedisTemplate<String, byte[]> redisTemplate = null;
+        if (embeddingCacheRedisEnabled) {
+            redisTemplate = new RedisTemplate<>();
+            redisTemplate.setConnectionFactory(redisConnectionFactory.getObject());
+            redisTemplate.setKeySerializer(RedisSerializer.string());
+            redisTemplate.setValueSerializer(RedisSerializer.byteArray());
+            redisTemplate.afterPropertiesSet();
+        }
+
+        return new CachingEmbeddingModel(ollamaEmbeddingModel, embeddingModelName,
+                embeddingCacheMaxEntries, redisTemplate, embeddingCacheRedisTtl);
     }
 
     @Bean
-    public EmbeddingStore<TextSegment> embeddingStore() {
+    public SegmentStore embeddingStore() {
+        Quantization quantization = Quantization.from(quantizationType);
+
+        // 单机部署 / 离线测试可切换到进程内 HNSW，省掉每次检索的 gRPC 往返
+        if ("hnsw".equalsIgnoreCase(vectorStoreType)) {
+            if (matryoshkaDimension > 0) {
+                logger.warn("进程内 HNSW 不支持 vector-store.matryoshka，按完整维度检索");
+            }
+            return HnswSegmentStore.open(Path.of(hnswDataDir), vectorDimension,
+                    hnswM, hnswEfConstruction, hnswEfSearch, hnswFlushInterval,
+                    quantization, quantizationOversampling);
+        }
+
         QdrantClient client = new QdrantClient(
                 QdrantGrpcClient.newBuilder(qdrantHost, qdrantPort, false).build()
         );
 
+        // 降维模式的点结构不同（两个命名向量），使用单独的 collection，文档需重新上传
+        int searchDimension = matryoshkaDimension > 0 && matryoshkaDimension < vectorDimension ? matryoshkaDimension : 0;
+        String collection = searchDimension > 0 ? collectionName + "_mrl" + searchDimension : collectionName;
+        if (searchDimension > 0) {
+            logger.info("向量检索使用前 {} 维（完整 {} 维仅用于重排），collection: {}",
+                    searchDimension, vectorDimension, collection);
+        }
+
         try {
-            if (!client.listCollectionsAsync().get().contains(collectionName)) {
-                client.createCollectionAsync(collectionName,
-                        Collections.VectorParams.newBuilder()
-                                .setDistance(Collections.Distance.Cosine)
-                                .setSize(vectorDimension)
-                                .build()).get();
+            if (!client.listCollectionsAsync().get().contains(collection)) {
+                Collections.CreateCollection.Builder createCollection = Collections.CreateCollection.newBuilder()
+                        .setCollectionName(collection);
+                Collections.QuantizationConfig quantizationConfig = quantizationConfig(quantization);
+                if (searchDimension > 0) {
+                    createCollection.setVectorsConfig(matryoshkaVectorsConfig(searchDimension, quantizationConfig));
+                } else {
+                    createCollection.setVectorsConfig(Collections.VectorsConfig.newBuilder()
+                            .setParams(Collections.VectorParams.newBuilder()
+                                    .setDistance(Collections.Distance.Cosine)
+                                    .setSize(vectorDimension)));
+                    if (quantizationConfig != null) {
+                        createCollection.setQuantizationConfig(quantizationConfig);
+                    }
+                }
+                client.createCollectionAsync(createCollection.build()).get();
             }
+            createPayloadIndexes(client, collection);
         } catch (InterruptedException | ExecutionException e) {
             System.err.println("Qdrant Collection 状态异常: " + e.getMessage());
         }
 
-        return QdrantEmbeddingStore.builder()
-                .client(client)
-                .collectionName(collectionName)
+        return new QdrantSegmentStore(client, collection, quantization, quantizationOversampling,
+                searchDimension, matryoshkaOversampling);
+    }
+
+    /**
+     * 量化向量常驻内存，原始向量只在重排时读取；NONE 返回 null
+     */
+    private static Collections.QuantizationConfig quantizationConfig(Quantization quantization) {
+        return switch (quantization) {
+            case SCALAR -> Collections.QuantizationConfig.newBuilder()
+                    .setScalar(Collections.ScalarQuantization.newBuilder()
+                            .setType(Collections.QuantizationType.Int8)
+                            .setQuantile(0.99f)
+                            .setAlwaysRam(true))
+                    .build();
+            case BINARY -> Collections.QuantizationConfig.newBuilder()
+                    .setBinary(Collections.BinaryQuantization.newBuilder()
+                            .setAlwaysRam(true))
+                    .build();
+            case NONE -> null;
+        };
+    }
+
+    /**
+     * 降维模式的两个命名向量
+     *
+     * - mrl：截断后的向量，建 HNSW 索引，量化也只作用在它上面
+     * - full：完整向量，只按 ID 读取做重排，不建 HNSW（m = 0）、存放在磁盘上
+     */
+    private Collections.VectorsConfig matryoshkaVectorsConfig(int searchDimension,
+                                                             Collections.QuantizationConfig quantizationConfig) {
+        Collections.VectorParams.Builder search = Collections.VectorParams.newBuilder()
+                .setDistance(Collections.Distance.Cosine)
+                .setSize(searchDimension);
+        if (quantizationConfig != null) {
+            search.setQuantizationConfig(quantizationConfig);
+        }
+        Collections.VectorParams full = Collections.VectorParams.newBuilder()
+                .setDistance(Collections.Distance.Cosine)
+                .setSize(vectorDimension)
+                .setOnDisk(true)
+                .setHnswConfig(Collections.HnswConfigDiff.newBuilder().setM(0))
+                .build();
+        return Collections.VectorsConfig.newBuilder()
+                .setParamsMap(Collections.VectorParamsMap.newBuilder()
+                        .putMap(QdrantSegmentStore.SEARCH_VECTOR, search.build())
+                        .putMap(QdrantSegmentStore.FULL_VECTOR, full))
                 .build();
     }
 
+    /**
+     * 为入库写入的元数据建 payload 索引（已存在时 Qdrant 直接返回），检索过滤和按文档列出片段都走索引
+     *
+     * - document_id / file_name：增量入库按文档列出已有片段
+     * - city：按目的地过滤的主要字段，标记为 tenant，Qdrant 按城市聚集存储，单个城市的检索只读该城市的数据
+     * - region / scene：关键字过滤；uploaded_at：按上传时间范围过滤
+     */
+    private void createPayloadIndexes(QdrantClient client, String collection)
+            throws InterruptedException, ExecutionException {
+        for (String field : List.of(IngestionPipeline.DOCUMENT_ID_KEY, IngestionPipeline.FILE_NAME_KEY,
+                IngestionPipeline.REGION_KEY, IngestionPipeline.SCENE_KEY)) {
+            client.createPayloadIndexAsync(collection, field, Collections.PayloadSchemaType.Keyword,
+                    null, true, null, null).get();
+        }
+        client.createPayloadIndexAsync(collection, IngestionPipeline.CITY_KEY, Collections.PayloadSchemaType.Keyword,
+                Collections.PayloadIndexParams.newBuilder()
+                        .setKeywordIndexParams(Collections.KeywordIndexParams.newBuilder().setIsTenant(true))
+                        .build(), true, null, null).get();
+        client.createPayloadIndexAsync(collection, IngestionPipeline.UPLOADED_AT_KEY,
+                Collections.PayloadSchemaType.Integer, null, true, null, null).get();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService retrievalExecutor() {
+        return new BreakdownPropagatingExecutor(
+                Executors.newFixedThreadPool(4, new CustomizableThreadFactory("retrieval-")));
+    }
+
+    /**
+     * 执行阻塞式模型调用（多轮工具调用）的线程池
+     *
+     * 运行在 Java 21+ 时使用虚拟线程，每个请求一个，阻塞等待 Ollama 不占用平台线程；
+     * 更低版本退回到按需创建的平台线程池。并发数由 AdmissionController 控制，这里不再限制。
+     * 两个线程池都包装为沿用提交线程的请求耗时明细（StageBreakdown）。
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService chatExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.info("chatExecutor 使用虚拟线程");
+            return new BreakdownPropagatingExecutor((ExecutorService) factory.invoke(null));
+        } catch (NoSuchMethodException e) {
+            logger.info("当前 JDK 不支持虚拟线程，chatExecutor 使用平台线程池");
+            return new BreakdownPropagatingExecutor(
+                    Executors.newCachedThreadPool(new CustomizableThreadFactory("chat-")));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("虚拟线程执行器创建失败", e);
+        }
+    }
+
+    /**
+     * 从对话识别目的地，候选词取已入库片段的 city / region（BM25 索引已在启动时从向量库重建）
+     */
     @Bean
-    public ContentRetriever contentRetriever(EmbeddingStore<TextSegment> embeddingStore, EmbeddingModel embeddingModel) {
-        return EmbeddingStoreContentRetriever.builder()
-                .embeddingStore(embeddingStore)
-                .embeddingModel(embeddingModel)
-                .maxResults(3)
-                .minScore(0.5)
-                .build();
+    public ConversationFilterExtractor conversationFilterExtractor(Bm25Index bm25Index) {
+        Set<String> cities = new HashSet<>(filterCities);
+        cities.addAll(bm25Index.distinctValues(IngestionPipeline.CITY_KEY));
+        return new ConversationFilterExtractor(cities, bm25Index.distinctValues(IngestionPipeline.REGION_KEY),
+                filterFromConversation, memoryMaxSessions);
     }
 
+    /**
+     * 检索路由：闲聊和纯工具问题跳过检索，其余按问题复杂度决定片段数；识别到的目的地作为过滤条件下推，
+     * 提到已知城市 / 区域的问题不按纯工具问题处理
+     */
     @Bean
-    public ChatMemoryProvider chatMemoryProvider() {
-        RedisChatMemoryStore redisStore = RedisChatMemoryStore.builder()
-                .host(redisHost)
-                .port(redisPort)
-                .build();
+    public RuleBasedQueryRouter queryRouter(SegmentStore embeddingStore, EmbeddingModel embeddingModel,
+                                            Bm25Index bm25Index, StageMetrics stageMetrics,
+                                            ConversationFilterExtractor filterExtractor,
+                                            @Qualifier("retrievalExecutor") ExecutorService retrievalExecutor) {
+        IntFunction<ContentRetriever> retrievers = maxResults -> {
+            if (!hybridRetrieval) {
+                return EmbeddingStoreContentRetriever.builder()
+                        .embeddingStore(embeddingStore)
+                        .embeddingModel(embeddingModel)
+                        .maxResults(maxResults)
+                        .minScore(retrievalMinScore)
+                        .dynamicFilter(filterExtractor::extract)
+                        .build();
+            }
+            // BM25 + 向量并行检索，RRF 融合
+            return new HybridContentRetriever(embeddingStore, embeddingModel, bm25Index, retrievalExecutor, stageMetrics,
+                    filterExtractor::extract, maxResults, retrievalMinScore,
+                    Math.max(retrievalCandidates, maxResults), retrievalRrfK);
+        };
+        return new RuleBasedQueryRouter(retrievers, routerEnabled, retrievalMaxResults, routerDeepMaxResults,
+                routerKnowledgeKeywords, routerMaxToolQueryChars, routerDeepQueryChars,
+                filterExtractor::mentionsPlace, stageMetrics);
+    }
+
+    /**
+     * V1 对话的语义答案缓存（默认关闭）
+     */
+    @Bean
+    public SemanticAnswerCache answerCache(EmbeddingModel embeddingModel, RuleBasedQueryRouter queryRouter) {
+        return new SemanticAnswerCache(embeddingModel, queryRouter, answerCacheEnabled,
+                answerCacheSimilarityThreshold, answerCacheTtl, answerCacheMaxEntries);
+    }
 
-        return memoryId -> MessageWindowChatMemory.builder()
-                .id(memoryId)
-                .maxMessages(20)
-                .chatMemoryStore(redisStore)
+    /**
+     * 聊天模型的 token 估算器（Ollama 不提供分词接口，按字符类别估算）
+     */
+    @Bean
+    public Tokenizer chatTokenizer() {
+        return new EstimatingTokenizer();
+    }
+
+    /**
+     * 检索增强：检索结果去重、合并相邻片段后按 token 预算注入提示词
+     */
+    @Bean
+    public RetrievalAugmentor retrievalAugmentor(RuleBasedQueryRouter queryRouter, Tokenizer chatTokenizer) {
+        return DefaultRetrievalAugmentor.builder()
+                .queryRouter(queryRouter)
+                .contentInjector(new ContextPackingContentInjector(chatTokenizer,
+                        contextTokenBudget, contextDuplicateThreshold))
                 .build();
     }
+
+    /**
+     * V2 顾问服务可用的工具，同一轮的多个调用并发执行
+     */
+    @Bean(destroyMethod = "close")
+    public ParallelToolExecutor consultantTools(WeatherTool weatherTool, CalculatorTool calculatorTool, TimeTool timeTool,
+                                                StageMetrics stageMetrics) {
+        return new ParallelToolExecutor(List.of(weatherTool, calculatorTool, timeTool), toolParallelism, toolTimeout,
+                stageMetrics);
+    }
+
+    /**
+     * 对话记忆存储：本地近缓存 + 异步批量回写 Redis（只追加的 List），复用 spring.data.redis 连接
+     */
+    @Bean(destroyMethod = "close")
+    public NearCacheChatMemoryStore chatMemoryStore(RedisConnectionFactory redisConnectionFactory,
+                                                    StageMetrics stageMetrics) {
+        return new NearCacheChatMemoryStore(redisConnectionFactory, stageMetrics,
+                memoryMaxSessions, memoryFlushInterval, memoryTtl);
+    }
+
+    /**
+     * 对话记忆：最近几轮保留原文，更早的轮次异步折叠为摘要，提示词按 token 预算组装
+     */
+    @Bean
+    public ChatMemoryProvider chatMemoryProvider(NearCacheChatMemoryStore chatMemoryStore,
+                                                 ConversationSummarizer conversationSummarizer,
+                                                 Tokenizer chatTokenizer) {
+        return memoryId -> new SummarizingChatMemory(memoryId, chatMemoryStore, conversationSummarizer,
+                chatTokenizer, memoryTokenBudget, memoryKeepRecentTurns, memoryMaxMessages);
+    }
 }
\ No newline at end of file
@@ -1,17 +1,22 @@
 package org.example.consultantrag.controller;
 
+import org.example.consultantrag.cache.SemanticAnswerCache;
 import org.example.consultantrag.service.ConsultantService;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api")
 public class ChatController {
 
     private final ConsultantService consultantService;
+    private final SemanticAnswerCache answerCache;
 
-    public ChatController(ConsultantService consultantService) {
+    public ChatController(ConsultantService consultantService, SemanticAnswerCache answerCache) {
         this.consultantService = consultantService;
+        this.answerCache = answerCache;
     }
 
     // 前端 fetch 用的是 POST，这里必须是 PostMapping
@@ -19,4 +24,10 @@ public class ChatController {
     public Flux<String> chat(@RequestParam String memoryId, @RequestBody String message) {
         return consultantService.chat(memoryId, message);
     }
+
+    // 语义答案缓存命中统计
+    @GetMapping("/chat/cache/stats")
+    public Map<String, Object> answerCacheStats() {
+        return answerCache.stats();
+    }
 }
\ No newline at end of file
@@ -1,44 +1,139 @@
 package org.example.consultantrag.controller;
 
+import org.example.consultantrag.admission.AdmissionController;
+import org.example.consultantrag.admission.AdmissionRejectedException;
+import org.example.consultantrag.memory.NearCacheChatMemoryStore;
+import org.example.consultantrag.metrics.StageBreakdown;
+import org.example.consultantrag.metrics.StageMetrics;
 import org.example.consultantrag.service.ConsultantServiceV2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * 修改后的控制器：
- * 1. 返回值从 Flux<String> 改为 ResponseEntity<String>
- * 2. 移除 SSE (text/event-stream) 媒体类型，改回普通的 JSON 或纯文本
+ * 1. /chat 返回 ResponseEntity<String>，生成结束后一次性返回完整回复（纯文本）
+ * 2. /chat/stream 以 SSE (text/event-stream) 逐 token 下发回复，同样支持工具调用
+ *    （OllamaToolStreamClient 直接调用 Ollama 流式接口），工具执行期间下发 tool 状态事件
+ * 3. 生成请求先经过准入控制，再在 chatExecutor（虚拟线程）上执行，Tomcat 线程立即释放
+ * 4. 开启 rag.metrics.stage-breakdown 时，/chat 通过 Server-Timing 响应头、/chat/stream 通过 timing 事件返回各阶段耗时
  */
 @RestController
 @RequestMapping("/api/v2")
 public class ChatControllerV2 {
 
     private final ConsultantServiceV2 consultantServiceV2;
+    private final AdmissionController admissionController;
+    private final ExecutorService chatExecutor;
+    private final String ollamaBaseUrl;
+    private final NearCacheChatMemoryStore chatMemoryStore;
+    private final StageMetrics stageMetrics;
 
-    public ChatControllerV2(ConsultantServiceV2 consultantServiceV2) {
+    public ChatControllerV2(ConsultantServiceV2 consultantServiceV2,
+                            AdmissionController admissionController,
+                            NearCacheChatMemoryStore chatMemoryStore,
+                            StageMetrics stageMetrics,
+                            @Qualifier("chatExecutor") ExecutorService chatExecutor,
+                            @Value("${ollama.base-url:http://localhost:11434}") String ollamaBaseUrl) {
         this.consultantServiceV2 = consultantServiceV2;
+        this.admissionController = admissionController;
+        this.chatExecutor = chatExecutor;
+        this.ollamaBaseUrl = ollamaBaseUrl;
+        this.chatMemoryStore = chatMemoryStore;
+        this.stageMetrics = stageMetrics;
     }
 
     /**
-     * 同步聊天接口（支持工具调用）
-     * * 注意：因为 Ollama + LangChain4j 目前在流式模式下不支持 Tools，
-     * 我们这里改为同步阻塞调用。
+     * 同步聊天接口（支持工具调用），生成结束后一次性返回完整回复；流式输出见 /chat/stream
+     * 排队中的请求不占用线程；队列已满时返回 429 + Retry-After。
      */
     @PostMapping("/chat")
-    public ResponseEntity<String> chat(@RequestParam String memoryId, @RequestBody String message) {
-        try {
-            // 调用 Service，此时 Service 的 chat 方法返回值应为 String
-            String response = consultantServiceV2.chat(memoryId, message);
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            // 捕获异常并返回错误信息，方便调试
-            return ResponseEntity.internalServerError()
-                    .body("服务出错: " + e.getMessage());
+    public CompletableFuture<ResponseEntity<String>> chat(@RequestParam String memoryId, @RequestBody String message) {
+        return admissionController.acquire(ollamaBaseUrl, memoryId)
+                .thenApplyAsync(permit -> {
+                    StageBreakdown breakdown = stageMetrics.beginBreakdown();
+                    try {
+                        // 调用 Service，此时 Service 的 chat 方法返回值应为 String
+                        String response = consultantServiceV2.chat(memoryId, message);
+                        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+                        if (breakdown != null) ok.header("Server-Timing", breakdown.toServerTiming());
+                        return ok.body(response);
+                    } finally {
+                        StageBreakdown.end();
+                        permit.release();
+                    }
+                }, chatExecutor)
+                .exceptionally(this::errorResponse);
+    }
+
+    /**
+     * 流式聊天接口（支持工具调用，SSE）
+     *
+     * 事件类型：token（文本分块）、tool（工具状态）、timing（阶段耗时，可选）、done（结束）、error（出错）。
+     * 准入队列已满时直接返回 429；排队期间客户端断开会自动放弃排队。
+     */
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<Object>>> chatStream(@RequestParam String memoryId,
+                                                                    @RequestBody String message) {
+        CompletableFuture<AdmissionController.Permit> admission = admissionController.acquire(ollamaBaseUrl, memoryId);
+        if (admission.isCompletedExceptionally()) {
+            ResponseEntity<String> rejected = admission.thenApply(permit -> ResponseEntity.ok(""))
+                    .exceptionally(this::errorResponse).join();
+            return ResponseEntity.status(rejected.getStatusCode()).headers(rejected.getHeaders())
+                    .body(Flux.just(ServerSentEvent.builder((Object) rejected.getBody()).event("error").build()));
+        }
+
+        Flux<ServerSentEvent<Object>> events = Mono.fromFuture(admission)
+                .flatMapMany(permit -> consultantServiceV2.chatStream(memoryId, message)
+                        .doFinally(signal -> permit.release()))
+                .map(event -> ServerSentEvent.builder(event.data()).event(event.type()).build())
+                .onErrorResume(e -> Flux.just(ServerSentEvent.builder((Object) errorResponse(e).getBody())
+                        .event("error").build()));
+        return ResponseEntity.ok(events);
+    }
+
+    private ResponseEntity<String> errorResponse(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof AdmissionRejectedException rejected) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.getRetryAfterSeconds()))
+                    .body(rejected.getMessage());
         }
+        // 捕获异常并返回错误信息，方便调试
+        return ResponseEntity.internalServerError()
+                .body("服务出错: " + cause.getMessage());
+    }
+
+    /**
+     * 各模型后端的在途 / 排队情况
+     */
+    @GetMapping("/admission/stats")
+    public Map<String, Object> admissionStats() {
+        return admissionController.stats();
+    }
+
+    /**
+     * 对话记忆近缓存命中率与 Redis 写入量
+     */
+    @GetMapping("/memory/stats")
+    public Map<String, Object> memoryStats() {
+        return chatMemoryStore.stats();
     }
 
     @GetMapping("/test")
     public String test() {
         return "ConsultantServiceV2 同步模式已启动，现支持 Function Calling！";
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,13 @@
 package org.example.consultantrag.controller;
 
 import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.example.consultantrag.embedding.CachingEmbeddingModel;
+import org.example.consultantrag.ingest.DocumentAttributes;
+import org.example.consultantrag.ingest.IngestionJob;
+import org.example.consultantrag.retrieval.RuleBasedQueryRouter;
 import org.example.consultantrag.service.RagService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,7 +15,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -21,8 +30,22 @@ public class RagController {
     @Autowired
     private RagService ragService;
 
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private RuleBasedQueryRouter queryRouter;
+
+    /**
+     * 上传文档：文件落盘后交给异步入库流水线，立即返回任务 ID
+     *
+     * city / region / scene（indoor、outdoor）可选，写入该文档全部片段的元数据，检索时可按其过滤
+     */
     @PostMapping("/upload")
-    public Map<String, Object> uploadFile(@RequestParam("file") MultipartFile file) {
+    public Map<String, Object> uploadFile(@RequestParam("file") MultipartFile file,
+                                          @RequestParam(value = "city", required = false) String city,
+                                          @RequestParam(value = "region", required = false) String region,
+                                          @RequestParam(value = "scene", required = false) String scene) {
         Map<String, Object> response = new HashMap<>();
 
         if (file.isEmpty()) {
@@ -35,11 +58,12 @@ public class RagController {
             String fileName = file.getOriginalFilename();
             logger.info("接收上传文件: {}", fileName);
 
-            int count = ragService.addDocument(file.getInputStream(), fileName);
+            IngestionJob job = ragService.submitDocument(file, DocumentAttributes.of(city, region, scene));
 
             response.put("success", true);
-            response.put("segmentsAdded", count);
-            response.put("message", "处理成功，添加了 " + count + " 个知识片段");
+            response.put("jobId", job.getJobId());
+            response.put("status", job.getStatus().name());
+            response.put("message", "文件已接收，正在后台处理");
         } catch (Exception e) {
             logger.error("文件上传处理失败", e);
             response.put("success", false);
@@ -49,16 +73,195 @@ public class RagController {
         return response;
     }
 
+    /**
+     * 查询入库任务进度
+     */
+    @GetMapping("/jobs/{jobId}")
+    public Map<String, Object> getJob(@PathVariable String jobId) {
+        IngestionJob job = ragService.getIngestionJob(jobId);
+
+        Map<String, Object> response = new HashMap<>();
+        if (job == null) {
+            response.put("success", false);
+            response.put("message", "任务不存在或已过期: " + jobId);
+            return response;
+        }
+
+        response.put("success", true);
+        response.putAll(job.toMap());
+        return response;
+    }
+
+    /**
+     * Embedding 缓存命中统计
+     */
+    @GetMapping("/embedding-cache/stats")
+    public Map<String, Object> embeddingCacheStats() {
+        Map<String, Object> response = new HashMap<>();
+        if (embeddingModel instanceof CachingEmbeddingModel cachingModel) {
+            response.put("success", true);
+            response.putAll(cachingModel.stats());
+        } else {
+            response.put("success", false);
+            response.put("message", "未启用 Embedding 缓存");
+        }
+        return response;
+    }
+
+    /**
+     * 检索路由判定统计（跳过检索的比例、平均检索片段数）
+     */
+    @GetMapping("/router/stats")
+    public Map<String, Object> routerStats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.putAll(queryRouter.stats());
+        return response;
+    }
+
+    /**
+     * 召回评估：对比当前检索（量化 / HNSW）与精确检索的结果重合度
+     */
+    @SuppressWarnings("unchecked")
+    @PostMapping("/search/recall")
+    public Map<String, Object> evaluateRecall(@RequestBody Map<String, Object> request) {
+        List<String> queries = (List<String>) request.get("queries");
+        int maxResults = request.containsKey("maxResults") ? (int) request.get("maxResults") : 5;
+
+        Map<String, Object> response = new HashMap<>();
+        if (queries == null || queries.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "queries 不能为空");
+            return response;
+        }
+
+        response.put("success", true);
+        response.putAll(ragService.evaluateRecall(queries, maxResults));
+        return response;
+    }
+
+    /**
+     * 降维评估：各检索维度（截断 + 归一化）重排前后的召回率、向量内存与检索耗时
+     */
+    @SuppressWarnings("unchecked")
+    @PostMapping("/search/recall/dimensions")
+    public Map<String, Object> evaluateDimensions(@RequestBody Map<String, Object> request) {
+        List<String> queries = (List<String>) request.get("queries");
+        int maxResults = request.containsKey("maxResults") ? (int) request.get("maxResults") : 5;
+        List<Integer> dimensions = request.containsKey("dimensions")
+                ? (List<Integer>) request.get("dimensions")
+                : List.of(128, 256, 512, 1024, 2048);
+        double oversampling = request.containsKey("oversampling")
+                ? ((Number) request.get("oversampling")).doubleValue() : 4.0;
+        int maxPoints = request.containsKey("maxPoints") ? (int) request.get("maxPoints") : 5000;
+
+        Map<String, Object> response = new HashMap<>();
+        if (queries == null || queries.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "queries 不能为空");
+            return response;
+        }
+
+        try {
+            response.putAll(ragService.evaluateDimensions(queries, maxResults, dimensions, oversampling, maxPoints));
+            response.put("success", true);
+        } catch (RuntimeException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 语义检索；filter 可选，如 {"city": "杭州", "scene": "indoor", "uploaded_after": "2026-01-01T00:00:00Z"}
+     */
+    @SuppressWarnings("unchecked")
     @PostMapping("/search")
     public Map<String, Object> searchDocuments(@RequestBody Map<String, Object> request) {
         String query = (String) request.get("query");
         int maxResults = request.containsKey("maxResults") ? (int) request.get("maxResults") : 5;
 
-        List<TextSegment> results = ragService.searchRelevantDocuments(query, maxResults);
-
         Map<String, Object> response = new HashMap<>();
+        Filter filter;
+        try {
+            filter = ragService.buildFilter((Map<String, Object>) request.get("filter"));
+        } catch (RuntimeException e) {
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return response;
+        }
+
+        List<TextSegment> results = ragService.searchRelevantDocuments(query, maxResults, filter);
+
         response.put("success", true);
         response.put("results", results.stream().map(TextSegment::text).toList());
         return response;
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量语义检索：全部查询只向量化一次（embedAll），向量库检索作为一批提交
+     *
+     * 请求：{"queries": ["西湖门票", {"query": "灵隐寺开放时间", "maxResults": 3, "filter": {"city": "杭州"}}],
+     *       "maxResults": 5, "filter": {...}}
+     * 顶层的 maxResults / filter 为默认值，单个查询中给出时以单个查询为准。
+     * 返回与 queries 顺序一致的结果，每条匹配带 id、score、text 和 metadata。
+     */
+    @SuppressWarnings("unchecked")
+    @PostMapping("/search/batch")
+    public Map<String, Object> searchDocumentsBatch(@RequestBody Map<String, Object> request) {
+        Map<String, Object> response = new HashMap<>();
+        List<Object> queries = (List<Object>) request.get("queries");
+        if (queries == null || queries.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "queries 不能为空");
+            return response;
+        }
+
+        List<Map<String, Object>> results;
+        try {
+            int defaultMaxResults = request.containsKey("maxResults") ? (int) request.get("maxResults") : 5;
+            Filter defaultFilter = ragService.buildFilter((Map<String, Object>) request.get("filter"));
+
+            List<RagService.BatchQuery> batch = new ArrayList<>(queries.size());
+            for (Object item : queries) {
+                Map<String, Object> query = item instanceof Map ? (Map<String, Object>) item : Map.of("query", item);
+                Object text = query.get("query");
+                if (!(text instanceof String string) || string.isBlank()) {
+                    throw new RuntimeException("query 不能为空: " + item);
+                }
+                int maxResults = query.containsKey("maxResults") ? (int) query.get("maxResults") : defaultMaxResults;
+                Filter filter = query.containsKey("filter")
+                        ? ragService.buildFilter((Map<String, Object>) query.get("filter"))
+                        : defaultFilter;
+                batch.add(new RagService.BatchQuery(string, maxResults, filter));
+            }
+
+            List<List<EmbeddingMatch<TextSegment>>> matches = ragService.searchBatch(batch);
+            results = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("query", batch.get(i).query());
+                result.put("matches", matches.get(i).stream().map(this::toMatchMap).toList());
+                results.add(result);
+            }
+        } catch (RuntimeException e) {
+            logger.error("批量检索失败: {}", e.getMessage());
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return response;
+        }
+
+        response.put("success", true);
+        response.put("results", results);
+        return response;
+    }
+
+    private Map<String, Object> toMatchMap(EmbeddingMatch<TextSegment> match) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", match.embeddingId());
+        map.put("score", match.score());
+        map.put("text", match.embedded() == null ? null : match.embedded().text());
+        map.put("metadata", match.embedded() == null ? Map.of() : match.embedded().metadata().toMap());
+        return map;
+    }
+}
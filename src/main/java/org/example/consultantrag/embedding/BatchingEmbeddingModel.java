@@ -0,0 +1,194 @@
+package org.example.consultantrag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 把并发的小批量 embed 调用合并成一次 embedAll 请求的 EmbeddingModel 装饰器
+ *
+ * - 第一个到达的调用成为本批次的“领队”，最多等待 maxWait；期间到达的调用加入同一批次
+ * - 批次凑满 maxBatchSize 时由凑满它的调用立即发出，不再等待
+ * - 批次内相同文本只请求一次；本身已达到 maxBatchSize 的调用（如入库批次）直接透传
+ *
+ * 不额外占用线程：请求由领队或凑满批次的调用线程发出，其余调用等待各自的 Future。
+ * 等待使用 ReentrantLock / Condition，在虚拟线程上不会钉住载体线程。
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchClosed = lock.newCondition();
+    private Batch open;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedSegments = new AtomicLong();
+    private final AtomicLong passThrough = new AtomicLong();
+
+    private static final class Batch {
+        final List<TextSegment> segments = new ArrayList<>();
+        final List<CompletableFuture<List<Embedding>>> waiters = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        boolean closed;
+    }
+
+    public BatchingEmbeddingModel(EmbeddingModel delegate, int maxBatchSize, Duration maxWait) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        calls.incrementAndGet();
+        if (segments.isEmpty()) return Response.from(List.of());
+        if (segments.size() >= maxBatchSize) {
+            passThrough.incrementAndGet();
+            return delegate.embedAll(segments);
+        }
+
+        CompletableFuture<List<Embedding>> result = new CompletableFuture<>();
+        List<Batch> ready = new ArrayList<>(2);
+        Batch led = null;
+
+        lock.lock();
+        try {
+            // 放不下时先关闭当前批次，由本调用发出，再开新批次
+            if (open != null && open.segments.size() + segments.size() > maxBatchSize) {
+                ready.add(close(open));
+            }
+            if (open == null) {
+                open = new Batch();
+                led = open;
+            }
+            Batch batch = open;
+            batch.offsets.add(batch.segments.size());
+            batch.segments.addAll(segments);
+            batch.waiters.add(result);
+            if (batch.segments.size() >= maxBatchSize) {
+                ready.add(close(batch));
+                led = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        ready.forEach(this::dispatch);
+        if (led != null && awaitOrClose(led)) dispatch(led);
+
+        try {
+            return Response.from(result.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * 合并效果统计，供监控接口使用
+     */
+    public Map<String, Object> stats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("calls", calls.get());
+        stats.put("batches", batchCount);
+        stats.put("passThrough", passThrough.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) batchedSegments.get() / batchCount);
+        return stats;
+    }
+
+    /**
+     * 领队等待批次被凑满；超时仍未关闭则由领队关闭并负责发出
+     */
+    private boolean awaitOrClose(Batch batch) {
+        lock.lock();
+        try {
+            long remaining = maxWaitNanos;
+            while (!batch.closed && remaining > 0) {
+                remaining = batchClosed.awaitNanos(remaining);
+            }
+            if (batch.closed) return false;
+            close(batch);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close(batch);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有 lock
+    private Batch close(Batch batch) {
+        batch.closed = true;
+        if (open == batch) open = null;
+        batchClosed.signalAll();
+        return batch;
+    }
+
+    private void dispatch(Batch batch) {
+        // 批次内相同文本只请求一次
+        Map<String, Integer> unique = new LinkedHashMap<>();
+        List<TextSegment> toEmbed = new ArrayList<>();
+        int[] positions = new int[batch.segments.size()];
+        for (int i = 0; i < batch.segments.size(); i++) {
+            TextSegment segment = batch.segments.get(i);
+            Integer position = unique.get(segment.text());
+            if (position == null) {
+                position = toEmbed.size();
+                unique.put(segment.text(), position);
+                toEmbed.add(segment);
+            }
+            positions[i] = position;
+        }
+
+        List<Embedding> embedded;
+        try {
+            long start = System.nanoTime();
+            embedded = delegate.embedAll(toEmbed).content();
+            batches.incrementAndGet();
+            batchedSegments.addAndGet(toEmbed.size());
+            logger.debug("合并 embed 请求: {} 个调用, {} 条文本, 耗时 {}ms", batch.waiters.size(), toEmbed.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            batch.waiters.forEach(waiter -> waiter.completeExceptionally(e));
+            return;
+        }
+
+        for (int w = 0; w < batch.waiters.size(); w++) {
+            int from = batch.offsets.get(w);
+            int to = w + 1 < batch.offsets.size() ? batch.offsets.get(w + 1) : batch.segments.size();
+            List<Embedding> slice = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                slice.add(embedded.get(positions[i]));
+            }
+            batch.waiters.get(w).complete(slice);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.example.consultantrag.embedding;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 带内容哈希缓存的 EmbeddingModel 装饰器
+ *
+ * 缓存键 = SHA-256(模型名 + 规范化文本)，分两级：
+ * 1. 进程内 LRU，按条目数限制
+ * 2. 可选的 Redis 层（复用 spring.data.redis 连接），多实例共享，带 TTL
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String REDIS_KEY_PREFIX = "embedding:";
+
+    private final EmbeddingModel delegate;
+    private final String modelName;
+    private final Map<String, float[]> localCache;
+    private final RedisTemplate<String, byte[]> redisTemplate;
+    private final Duration redisTtl;
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong redisHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param redisTemplate 为 null 时只使用进程内缓存
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, int maxEntries,
+                                 RedisTemplate<String, byte[]> redisTemplate, Duration redisTtl) {
+        this.delegate = delegate;
+        this.modelName = modelName;
+        this.redisTemplate = redisTemplate;
+        this.redisTtl = redisTtl;
+        this.localCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        int size = segments.size();
+        Embedding[] results = new Embedding[size];
+        String[] keys = new String[size];
+
+        // 1. 进程内缓存
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            keys[i] = cacheKey(segments.get(i).text());
+            float[] cached = getLocal(keys[i]);
+            if (cached != null) {
+                results[i] = Embedding.from(cached.clone());
+                localHits.incrementAndGet();
+            } else {
+                pending.add(i);
+            }
+        }
+
+        // 2. Redis 缓存（一次 MGET）
+        if (!pending.isEmpty() && redisTemplate != null) {
+            pending = lookupRedis(pending, keys, results);
+        }
+
+        // 3. 真正调用模型，同一批次内的重复文本只算一次
+        if (!pending.isEmpty()) {
+            Map<String, Integer> firstIndexByKey = new LinkedHashMap<>();
+            for (int i : pending) {
+                firstIndexByKey.putIfAbsent(keys[i], i);
+            }
+            List<TextSegment> toEmbed = firstIndexByKey.values().stream().map(segments::get).toList();
+            List<Embedding> embedded = delegate.embedAll(toEmbed).content();
+            misses.addAndGet(toEmbed.size());
+
+            Map<String, Embedding> byKey = new LinkedHashMap<>();
+            int j = 0;
+            for (String key : firstIndexByKey.keySet()) {
+                byKey.put(key, embedded.get(j++));
+            }
+            for (int i : pending) {
+                results[i] = byKey.get(keys[i]);
+            }
+            byKey.forEach((key, embedding) -> putLocal(key, embedding.vector().clone()));
+            storeRedis(byKey);
+        }
+
+        return Response.from(List.of(results));
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * 命中统计，供监控接口使用
+     */
+    public Map<String, Object> stats() {
+        long local = localHits.get();
+        long redis = redisHits.get();
+        long miss = misses.get();
+        long total = local + redis + miss;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localHits", local);
+        stats.put("redisHits", redis);
+        stats.put("misses", miss);
+        stats.put("hitRate", total == 0 ? 0.0 : (double) (local + redis) / total);
+        synchronized (localCache) {
+            stats.put("localEntries", localCache.size());
+        }
+        stats.put("redisEnabled", redisTemplate != null);
+        if (delegate instanceof BatchingEmbeddingModel batching) {
+            stats.put("batching", batching.stats());
+        }
+        return stats;
+    }
+
+    private List<Integer> lookupRedis(List<Integer> pending, String[] keys, Embedding[] results) {
+        try {
+            List<String> redisKeys = pending.stream().map(i -> REDIS_KEY_PREFIX + keys[i]).toList();
+            List<byte[]> values = redisTemplate.opsForValue().multiGet(redisKeys);
+            if (values == null) return pending;
+
+            List<Integer> stillPending = new ArrayList<>();
+            for (int n = 0; n < pending.size(); n++) {
+                int i = pending.get(n);
+                byte[] value = values.get(n);
+                if (value != null) {
+                    float[] vector = decode(value);
+                    results[i] = Embedding.from(vector);
+                    putLocal(keys[i], vector.clone());
+                    redisHits.incrementAndGet();
+                } else {
+                    stillPending.add(i);
+                }
+            }
+            return stillPending;
+        } catch (Exception e) {
+            // Redis 不可用时降级为只用进程内缓存
+            logger.warn("Embedding 缓存读取 Redis 失败: {}", e.getMessage());
+            return pending;
+        }
+    }
+
+    private void storeRedis(Map<String, Embedding> byKey) {
+        if (redisTemplate == null) return;
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byKey.forEach((key, embedding) -> connection.stringCommands().setEx(
+                        (REDIS_KEY_PREFIX + key).getBytes(StandardCharsets.UTF_8),
+                        redisTtl.toSeconds(),
+                        encode(embedding.vector())));
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("Embedding 缓存写入 Redis 失败: {}", e.getMessage());
+        }
+    }
+
+    private float[] getLocal(String key) {
+        synchronized (localCache) {
+            return localCache.get(key);
+        }
+    }
+
+    private void putLocal(String key, float[] vector) {
+        synchronized (localCache) {
+            localCache.put(key, vector);
+        }
+    }
+
+    private String cacheKey(String text) {
+        String normalized = WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFKC)).replaceAll(" ").trim();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    private static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
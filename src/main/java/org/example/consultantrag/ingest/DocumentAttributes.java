@@ -0,0 +1,68 @@
+package org.example.consultantrag.ingest;
+
+import dev.langchain4j.data.document.Metadata;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 上传时指定的文档级属性，写入该文档每个片段的元数据，检索时可按这些字段过滤
+ *
+ * 各字段均可为空；scene 只接受 indoor / outdoor（也接受“室内”“户外 / 室外”）。
+ */
+public record DocumentAttributes(String city, String region, String scene) {
+
+    public static final String INDOOR = "indoor";
+    public static final String OUTDOOR = "outdoor";
+
+    public static final DocumentAttributes NONE = new DocumentAttributes(null, null, null);
+
+    /**
+     * 去掉首尾空白，空串视为未指定，并校验 scene 取值
+     */
+    public static DocumentAttributes of(String city, String region, String scene) {
+        return new DocumentAttributes(normalize(city), normalize(region), normalizeScene(scene));
+    }
+
+    public boolean isEmpty() {
+        return city == null && region == null && scene == null;
+    }
+
+    /**
+     * 写入片段元数据（未指定的字段不写）
+     */
+    public Metadata applyTo(Metadata metadata) {
+        toMap().forEach(metadata::put);
+        return metadata;
+    }
+
+    /**
+     * 参与片段 ID 计算的指纹：属性变化时重新上传会覆盖写入新的元数据，而不是被当成未变化的片段跳过
+     */
+    public String fingerprint() {
+        return toMap().toString();
+    }
+
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        if (city != null) map.put(IngestionPipeline.CITY_KEY, city);
+        if (region != null) map.put(IngestionPipeline.REGION_KEY, region);
+        if (scene != null) map.put(IngestionPipeline.SCENE_KEY, scene);
+        return map;
+    }
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.strip();
+    }
+
+    private static String normalizeScene(String scene) {
+        String value = normalize(scene);
+        if (value == null) return null;
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case INDOOR, "室内" -> INDOOR;
+            case OUTDOOR, "户外", "室外" -> OUTDOOR;
+            default -> throw new IllegalArgumentException("scene 只能是 indoor 或 outdoor: " + value);
+        };
+    }
+}
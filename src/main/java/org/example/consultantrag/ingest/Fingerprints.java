@@ -0,0 +1,49 @@
+package org.example.consultantrag.ingest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * 文档 / 片段指纹工具
+ */
+public final class Fingerprints {
+
+    private Fingerprints() {
+    }
+
+    /**
+     * 内容的 SHA-256 十六进制串
+     */
+    public static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 由任意字符串派生的确定性 UUID（Qdrant 点 ID 只接受 UUID 或整数）
+     */
+    public static String uuid(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * 文档的稳定 ID：只由文件名决定，文件内容修改后 ID 不变，便于比对新旧片段
+     */
+    public static String documentId(String fileName) {
+        return uuid("document:" + fileName);
+    }
+
+    /**
+     * 片段的确定性点 ID：文档 ID + 片段内容哈希 + 同一内容在文档内的出现序号
+     */
+    public static String chunkId(String documentId, String chunkHash, int occurrence) {
+        return uuid(documentId + ":" + chunkHash + ":" + occurrence);
+    }
+}
@@ -0,0 +1,169 @@
+package org.example.consultantrag.ingest;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 增量分块：文本分段到达，攒够一个窗口后在段落 / 行边界切开，窗口内交给原有的分块器
+ *
+ * 内存中只保留不到两个窗口的文本；片段的 index 元数据在整篇文档内连续编号（上下文拼接依赖它判断相邻片段）。
+ * 窗口边界处的两个片段之间没有 overlap，窗口远大于片段长度，影响很小。
+ *
+ * 使用 SentenceSplitter 时直接在缓冲区上切分（不复制窗口文本），片段的 start_offset / end_offset
+ * 换算为整篇文档内的偏移；提取时带页码的（PDF），再按偏移记录 page_start / page_end。
+ */
+public class IncrementalSplitter {
+
+    public static final String PAGE_START_KEY = "page_start";
+    public static final String PAGE_END_KEY = "page_end";
+    private static final String INDEX_KEY = "index";
+
+    private final DocumentSplitter splitter;
+    private final int windowChars;
+    private final Consumer<TextSegment> sink;
+
+    private final StringBuilder buffer = new StringBuilder();
+    private long windowStart;
+    private long totalChars;
+    private int nextIndex;
+    private long splitNanos;
+
+    // 各页在文档中的起始偏移，只保留当前窗口用得到的部分
+    private long[] pageOffsets = new long[16];
+    private int[] pageNumbers = new int[16];
+    private int pageCount;
+
+    /**
+     * @param windowChars 每次交给 splitter 的文本长度，应为片段长度的若干倍
+     */
+    public IncrementalSplitter(DocumentSplitter splitter, int windowChars, Consumer<TextSegment> sink) {
+        this.splitter = splitter;
+        this.windowChars = windowChars;
+        this.sink = sink;
+    }
+
+    public void accept(String text) {
+        accept(text, 0);
+    }
+
+    /**
+     * @param page 文本所在页码（从 1 开始），没有分页信息时为 0
+     */
+    public void accept(String text, int page) {
+        if (page > 0 && (pageCount == 0 || pageNumbers[pageCount - 1] != page)) addPage(totalChars, page);
+        buffer.append(text);
+        totalChars += text.length();
+        while (buffer.length() >= windowChars) {
+            int cut = boundary();
+            emit(cut);
+            buffer.delete(0, cut);
+            windowStart += cut;
+            prunePages();
+        }
+    }
+
+    /**
+     * 文本结束，处理剩余内容
+     */
+    public void finish() {
+        emit(buffer.length());
+        windowStart += buffer.length();
+        buffer.setLength(0);
+    }
+
+    public long totalChars() {
+        return totalChars;
+    }
+
+    public int segmentCount() {
+        return nextIndex;
+    }
+
+    /**
+     * 累计花在 splitter 上的时间（不含交给下游的时间）
+     */
+    public long splitNanos() {
+        return splitNanos;
+    }
+
+    private void emit(int length) {
+        if (length == 0) return;
+        long start = System.nanoTime();
+        List<TextSegment> segments;
+        if (splitter instanceof SentenceSplitter sentenceSplitter) {
+            segments = sentenceSplitter.split(buffer, 0, length, new Metadata());
+        } else {
+            String window = buffer.substring(0, length);
+            segments = window.isBlank() ? List.of() : splitter.split(Document.from(window));
+        }
+        splitNanos += System.nanoTime() - start;
+
+        for (TextSegment segment : segments) {
+            Metadata metadata = segment.metadata().copy().put(INDEX_KEY, String.valueOf(nextIndex++));
+            Long startOffset = metadata.getLong(SentenceSplitter.START_OFFSET_KEY);
+            Long endOffset = metadata.getLong(SentenceSplitter.END_OFFSET_KEY);
+            if (startOffset != null && endOffset != null) {
+                long documentStart = windowStart + startOffset;
+                long documentEnd = windowStart + endOffset;
+                metadata.put(SentenceSplitter.START_OFFSET_KEY, documentStart)
+                        .put(SentenceSplitter.END_OFFSET_KEY, documentEnd);
+                if (pageCount > 0) {
+                    metadata.put(PAGE_START_KEY, pageAt(documentStart))
+                            .put(PAGE_END_KEY, pageAt(documentEnd - 1));
+                }
+            }
+            sink.accept(TextSegment.from(segment.text(), metadata));
+        }
+    }
+
+    /**
+     * 窗口后半段中最后一个空行之后的位置；没有空行时找换行，再没有时找句末标点，都没有就在窗口处硬切
+     */
+    private int boundary() {
+        int from = windowChars / 2;
+        int paragraph = buffer.lastIndexOf("\n\n", windowChars);
+        if (paragraph >= from) return paragraph + 2;
+        int line = buffer.lastIndexOf("\n", windowChars);
+        if (line >= from) return line + 1;
+        for (int i = windowChars - 1; i >= from; i--) {
+            if ("。！？；.!?".indexOf(buffer.charAt(i)) >= 0) return i + 1;
+        }
+        return windowChars;
+    }
+
+    private void addPage(long offset, int page) {
+        if (pageCount == pageOffsets.length) {
+            pageOffsets = Arrays.copyOf(pageOffsets, pageCount * 2);
+            pageNumbers = Arrays.copyOf(pageNumbers, pageCount * 2);
+        }
+        pageOffsets[pageCount] = offset;
+        pageNumbers[pageCount] = page;
+        pageCount++;
+    }
+
+    /**
+     * 丢弃窗口起点之前的页，保留覆盖窗口起点的那一页
+     */
+    private void prunePages() {
+        int drop = 0;
+        while (drop + 1 < pageCount && pageOffsets[drop + 1] <= windowStart) drop++;
+        if (drop == 0) return;
+        System.arraycopy(pageOffsets, drop, pageOffsets, 0, pageCount - drop);
+        System.arraycopy(pageNumbers, drop, pageNumbers, 0, pageCount - drop);
+        pageCount -= drop;
+    }
+
+    private int pageAt(long offset) {
+        int page = pageNumbers[0];
+        for (int i = 1; i < pageCount && pageOffsets[i] <= offset; i++) {
+            page = pageNumbers[i];
+        }
+        return page;
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.consultantrag.ingest;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次文档入库任务的状态与进度
+ *
+ * 由 IngestionPipeline 在各阶段线程中更新，控制器只读取快照。
+ */
+public class IngestionJob {
+
+    public enum Status {
+        QUEUED,     // 已提交，等待解析线程
+        PARSING,    // 流式提取 + 分块，尚未提交批次
+        EMBEDDING,  // 已提交第一批，向量化 / 入库中（提取可能仍在进行）
+        COMPLETED,
+        FAILED
+    }
+
+    private final String jobId;
+    private final String fileName;
+    private final DocumentAttributes attributes;
+    private final Instant createdAt = Instant.now();
+
+    private volatile String documentId;
+    private volatile Status status = Status.QUEUED;
+    private volatile String error;
+    private volatile Instant finishedAt;
+
+    private final AtomicInteger totalSegments = new AtomicInteger();
+    private final AtomicInteger embeddedSegments = new AtomicInteger();
+    private final AtomicInteger storedSegments = new AtomicInteger();
+    private final AtomicInteger unchangedSegments = new AtomicInteger();
+    private final AtomicInteger deletedSegments = new AtomicInteger();
+    private final AtomicInteger totalBatches = new AtomicInteger();
+    private final AtomicInteger storedBatches = new AtomicInteger();
+
+    private final CompletableFuture<Integer> completion = new CompletableFuture<>();
+
+    public IngestionJob(String jobId, String fileName) {
+        this(jobId, fileName, DocumentAttributes.NONE);
+    }
+
+    public IngestionJob(String jobId, String fileName, DocumentAttributes attributes) {
+        this.jobId = jobId;
+        this.fileName = fileName;
+        this.attributes = attributes;
+    }
+
+    void markStatus(Status status) {
+        this.status = status;
+    }
+
+    void setDocumentId(String documentId) {
+        this.documentId = documentId;
+    }
+
+    void segmentsUnchanged(int count) {
+        unchangedSegments.addAndGet(count);
+    }
+
+    void segmentsDeleted(int count) {
+        deletedSegments.addAndGet(count);
+    }
+
+    void addSegments(int count) {
+        totalSegments.addAndGet(count);
+        totalBatches.incrementAndGet();
+    }
+
+    void batchEmbedded(int count) {
+        embeddedSegments.addAndGet(count);
+    }
+
+    void batchStored(int count) {
+        storedSegments.addAndGet(count);
+        storedBatches.incrementAndGet();
+    }
+
+    void complete() {
+        if (completion.isDone()) return;
+        status = Status.COMPLETED;
+        finishedAt = Instant.now();
+        completion.complete(storedSegments.get());
+    }
+
+    void fail(Throwable e) {
+        if (completion.isDone()) return;
+        status = Status.FAILED;
+        error = e.getMessage();
+        finishedAt = Instant.now();
+        completion.completeExceptionally(e);
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public DocumentAttributes getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * 任务创建（文件上传）时间，写入片段的 uploaded_at
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public int getStoredSegments() {
+        return storedSegments.get();
+    }
+
+    /**
+     * 任务结束时完成的 Future，值为入库片段数
+     */
+    public CompletableFuture<Integer> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * 供接口返回的进度快照
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("jobId", jobId);
+        map.put("fileName", fileName);
+        if (documentId != null) {
+            map.put("documentId", documentId);
+        }
+        if (!attributes.isEmpty()) {
+            map.put("attributes", attributes.toMap());
+        }
+        map.put("status", status.name());
+        map.put("totalSegments", totalSegments.get());
+        map.put("embeddedSegments", embeddedSegments.get());
+        map.put("storedSegments", storedSegments.get());
+        map.put("unchangedSegments", unchangedSegments.get());
+        map.put("deletedSegments", deletedSegments.get());
+        map.put("totalBatches", totalBatches.get());
+        map.put("storedBatches", storedBatches.get());
+        map.put("createdAt", createdAt.toString());
+        if (finishedAt != null) {
+            map.put("finishedAt", finishedAt.toString());
+        }
+        if (error != null) {
+            map.put("error", error);
+        }
+        return map;
+    }
+}
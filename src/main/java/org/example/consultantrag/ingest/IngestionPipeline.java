@@ -0,0 +1,472 @@
+package org.example.consultantrag.ingest;
+
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.retrieval.Bm25Index;
+import org.example.consultantrag.retrieval.ConversationFilterExtractor;
+import org.example.consultantrag.store.SegmentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * 分阶段的异步入库流水线：解析 -> 分块 -> 分批向量化 -> 写入向量库
+ *
+ * - 解析/分块在 parse 线程池中执行，每个任务占用一个线程；PDF 逐页、其他格式按 SAX 回调流式提取，
+ *   文本边到达边分块，单个任务的堆占用与文件大小无关
+ * - 默认按句分块（SentenceSplitter），片段带原文偏移与 PDF 页码，长度可按字符或 token 计
+ * - 分块结果按 batch-size 切成批次，交给有界的 embed 线程池并发向量化
+ * - 向量化完成的批次再交给 upsert 线程池写入 Qdrant
+ * - 每个任务最多有 max-pending-batches 个批次在途，超过则阻塞分块线程（背压）
+ *
+ * 增量入库：文档 ID 由文件名决定，片段点 ID 由内容哈希决定。
+ * 重复上传时只向量化新增/修改的片段，全部写入成功后再删除已消失的旧片段。
+ * 同一文档的任务串行执行（按文档 ID 分段加锁）；任务失败时删除本次新写入的片段，文档保持上一版本。
+ * BM25 词法索引与向量库同步写入 / 删除。
+ * 片段元数据：文件名、文档 ID、写入时间（uploaded_at，毫秒时间戳，内容未变的片段保留首次写入的时间），
+ * 以及上传时指定的城市 / 区域 / 室内外标签。
+ * 解析、分块、每批向量化和写入的耗时记入 rag_stage_seconds。
+ */
+@Component
+public class IngestionPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    // 增量分块的窗口约容纳多少个片段
+    private static final int SEGMENTS_PER_WINDOW = 16;
+    // 按 token 计长度时，窗口字符数按每 token 至多 4 个字符（英文）换算
+    private static final int MAX_CHARS_PER_TOKEN = 4;
+    // 文档锁分段数，不同文档落在同一分段时只是多排一会队
+    private static final int DOCUMENT_LOCK_STRIPES = 64;
+
+    // 片段元数据键；除 chunk_hash 外都在 Qdrant 上建了 payload 索引，可用于检索过滤
+    public static final String FILE_NAME_KEY = "file_name";
+    public static final String DOCUMENT_ID_KEY = "document_id";
+    public static final String CITY_KEY = "city";
+    public static final String REGION_KEY = "region";
+    public static final String SCENE_KEY = "scene";
+    public static final String UPLOADED_AT_KEY = "uploaded_at";
+    static final String CHUNK_HASH_KEY = "chunk_hash";
+
+    @Autowired
+    private SegmentStore embeddingStore;
+
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private Bm25Index bm25Index;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    private Tokenizer tokenizer;
+
+    @Autowired
+    private ConversationFilterExtractor filterExtractor;
+
+    private final String splitterType;
+    private final int maxSegmentSize;
+    private final int maxOverlap;
+    private final boolean sizeInTokens;
+    private final int batchSize;
+    private final int maxPendingBatches;
+    private final Duration jobRetention;
+
+    private final ThreadPoolExecutor parseExecutor;
+    private final ExecutorService embedExecutor;
+    private final ExecutorService upsertExecutor;
+
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final ReentrantLock[] documentLocks = new ReentrantLock[DOCUMENT_LOCK_STRIPES];
+
+    public IngestionPipeline(@Value("${rag.ingest.batch-size:32}") int batchSize,
+                             @Value("${rag.ingest.max-pending-batches:4}") int maxPendingBatches,
+                             @Value("${rag.ingest.parallel-jobs:2}") int parallelJobs,
+                             @Value("${rag.ingest.queue-capacity:16}") int queueCapacity,
+                             @Value("${rag.ingest.embed-workers:4}") int embedWorkers,
+                             @Value("${rag.ingest.upsert-workers:2}") int upsertWorkers,
+                             @Value("${rag.ingest.job-retention:PT1H}") Duration jobRetention,
+                             @Value("${rag.ingest.splitter:sentence}") String splitterType,
+                             @Value("${rag.ingest.max-segment-size:500}") int maxSegmentSize,
+                             @Value("${rag.ingest.max-overlap:50}") int maxOverlap,
+                             @Value("${rag.ingest.size-unit:chars}") String sizeUnit) {
+        this.splitterType = splitterType;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxOverlap = maxOverlap;
+        this.sizeInTokens = "tokens".equalsIgnoreCase(sizeUnit);
+        this.batchSize = batchSize;
+        this.maxPendingBatches = maxPendingBatches;
+        this.jobRetention = jobRetention;
+
+        this.parseExecutor = new ThreadPoolExecutor(parallelJobs, parallelJobs, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("ingest-parse-"));
+        this.embedExecutor = Executors.newFixedThreadPool(embedWorkers, new CustomizableThreadFactory("ingest-embed-"));
+        this.upsertExecutor = Executors.newFixedThreadPool(upsertWorkers, new CustomizableThreadFactory("ingest-upsert-"));
+        for (int i = 0; i < documentLocks.length; i++) {
+            documentLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 提交入库任务，立即返回任务对象
+     *
+     * @param file     已落盘的上传文件，任务结束后删除
+     * @param fileName 原始文件名
+     */
+    public IngestionJob submit(Path file, String fileName) {
+        return submit(file, fileName, DocumentAttributes.NONE);
+    }
+
+    /**
+     * 提交入库任务，attributes 写入该文档每个片段的元数据
+     */
+    public IngestionJob submit(Path file, String fileName, DocumentAttributes attributes) {
+        purgeExpiredJobs();
+
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), fileName, attributes);
+        jobs.put(job.getJobId(), job);
+
+        try {
+            parseExecutor.execute(() -> run(job, file));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            deleteQuietly(file);
+            throw new RuntimeException("入库队列已满，请稍后重试");
+        }
+
+        logger.info("入库任务已提交: jobId={}, file={}", job.getJobId(), fileName);
+        return job;
+    }
+
+    public IngestionJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private void run(IngestionJob job, Path file) {
+        try {
+            job.markStatus(IngestionJob.Status.PARSING);
+            ingest(job, file);
+        } catch (Exception e) {
+            logger.error("入库任务失败: jobId={}, {}", job.getJobId(), e.getMessage());
+            job.fail(e);
+        } finally {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * 流式入库：边提取边分块，片段凑满一批就提交向量化，整篇文本和全部片段不会同时留在内存里
+     *
+     * 在途批次达到上限时 acquire 阻塞的是提取线程本身，PDF 不再往下读页，Tika 不再往下解析。
+     * 从读取已有片段 ID 到删除旧片段持有文档锁：同名文件并发上传时后一个任务等前一个结束，
+     * 否则两者读到同一份旧 ID，各自写入后两个版本的片段会同时留在库里。
+     */
+    private void ingest(IngestionJob job, Path file) throws IOException {
+        String documentId = Fingerprints.documentId(job.getFileName());
+        job.setDocumentId(documentId);
+
+        ReentrantLock lock = documentLocks[Math.floorMod(documentId.hashCode(), documentLocks.length)];
+        if (!lock.tryLock()) {
+            logger.info("文档 {} 有任务正在入库，等待其结束: jobId={}", job.getFileName(), job.getJobId());
+            try {
+                lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("入库任务被中断", e);
+            }
+        }
+        try {
+            ingestLocked(job, file, documentId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ingestLocked(IngestionJob job, Path file, String documentId) throws IOException {
+        logger.info(">>> 正在解析文件: {}", job.getFileName());
+        Set<String> existingIds = embeddingStore.findIds(metadataKey(DOCUMENT_ID_KEY).isEqualTo(documentId));
+
+        SegmentBatcher batcher = new SegmentBatcher(job, documentId, existingIds);
+        try {
+            extractAndSplit(job, file, batcher);
+        } catch (IOException | RuntimeException e) {
+            batcher.rollback(e);
+            throw e;
+        }
+        batcher.finish();
+    }
+
+    private void extractAndSplit(IngestionJob job, Path file, SegmentBatcher batcher) throws IOException {
+        int windowChars = maxSegmentSize * SEGMENTS_PER_WINDOW * (sizeInTokens ? MAX_CHARS_PER_TOKEN : 1);
+        IncrementalSplitter splitter = new IncrementalSplitter(newSplitter(), windowChars, batcher::add);
+
+        // parse 只统计提取本身，扣除回调里分块、提交批次（含背压等待）的时间
+        long[] downstreamNanos = new long[1];
+        long start = System.nanoTime();
+        try {
+            StreamingTextExtractor.extract(file, (text, page) -> {
+                long callbackStart = System.nanoTime();
+                splitter.accept(text, page);
+                downstreamNanos[0] += System.nanoTime() - callbackStart;
+            });
+        } finally {
+            stageMetrics.record("parse", System.nanoTime() - start - downstreamNanos[0]);
+        }
+        splitter.finish();
+        stageMetrics.record("split", splitter.splitNanos());
+
+        if (splitter.segmentCount() == 0) {
+            throw new RuntimeException("文件内容为空或无法提取文本（不支持纯图片/扫描件）");
+        }
+        logger.info("文本提取成功，总字数: {}", splitter.totalChars());
+    }
+
+    /**
+     * sentence：按句分块，识别中文句末标点，记录原文偏移与页码；recursive：LangChain4j 递归分块
+     */
+    private DocumentSplitter newSplitter() {
+        if ("recursive".equalsIgnoreCase(splitterType)) {
+            return sizeInTokens
+                    ? DocumentSplitters.recursive(maxSegmentSize, maxOverlap, tokenizer)
+                    : DocumentSplitters.recursive(maxSegmentSize, maxOverlap);
+        }
+        return new SentenceSplitter(maxSegmentSize, maxOverlap, sizeInTokens ? tokenizer : null);
+    }
+
+    /**
+     * 单个任务的批次组装：比对已有片段，只把变化的片段凑批提交，在途批次数受信号量限制
+     *
+     * 每个片段只保留 ID 等少量状态（去重计数、待删除的旧 ID、本次写入的新 ID），文本随批次写入后即可回收。
+     * 批次失败先记在 failure 里，等在途批次结束、回滚本次写入的新片段后才把任务标记为失败，
+     * 任务状态变为 FAILED 时库中只剩上一版本。
+     */
+    private final class SegmentBatcher {
+
+        private final IngestionJob job;
+        private final String documentId;
+        private final Set<String> existingIds;
+        private final Set<String> staleIds;
+        private final String attributesFingerprint;
+        private final long uploadedAt;
+        // 内容哈希前 64 位 -> 出现次数；大文档的片段数可达数十万，不保存完整哈希串
+        private final Map<Long, Integer> occurrences = new HashMap<>();
+        private final Semaphore permits = new Semaphore(maxPendingBatches);
+        private final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        // 已提交批次的片段 ID（都不在 existingIds 中），失败时据此回滚
+        private final List<String> submittedIds = new ArrayList<>();
+        private volatile Throwable failure;
+
+        private List<String> pendingIds;
+        private List<TextSegment> pendingSegments;
+        private int total;
+        private int changed;
+
+        SegmentBatcher(IngestionJob job, String documentId, Set<String> existingIds) {
+            this.job = job;
+            this.documentId = documentId;
+            this.existingIds = existingIds;
+            this.staleIds = new HashSet<>(existingIds);
+            this.attributesFingerprint = job.getAttributes().isEmpty() ? null : job.getAttributes().fingerprint();
+            this.uploadedAt = job.getCreatedAt().toEpochMilli();
+            resetPending();
+        }
+
+        void add(TextSegment segment) {
+            if (failure != null) {
+                // 某个批次已失败，中断提取
+                throw new IllegalStateException("入库任务已失败，停止解析");
+            }
+            String chunkHash = Fingerprints.sha256(segment.text());
+            long hashKey = Long.parseUnsignedLong(chunkHash.substring(0, 16), 16);
+            int occurrence = occurrences.merge(hashKey, 1, Integer::sum) - 1;
+            // 属性参与 ID 计算：改了城市等标签重新上传时整篇覆盖写入；未指定属性时 ID 与此前一致
+            String id = Fingerprints.chunkId(documentId,
+                    attributesFingerprint == null ? chunkHash : chunkHash + ":" + attributesFingerprint, occurrence);
+            total++;
+            staleIds.remove(id);
+
+            if (existingIds.contains(id)) {
+                job.segmentsUnchanged(1);
+                return;
+            }
+            changed++;
+            pendingIds.add(id);
+            pendingSegments.add(TextSegment.from(segment.text(), job.getAttributes().applyTo(segment.metadata().copy()
+                    .put(FILE_NAME_KEY, job.getFileName())
+                    .put(DOCUMENT_ID_KEY, documentId)
+                    .put(CHUNK_HASH_KEY, chunkHash)
+                    .put(UPLOADED_AT_KEY, uploadedAt))));
+            if (pendingSegments.size() >= batchSize) submitPending();
+        }
+
+        /**
+         * 提交剩余片段，等待全部批次写入后删除已消失的旧片段
+         */
+        void finish() {
+            if (!pendingSegments.isEmpty() && failure == null) submitPending();
+            logger.info("文档 {}: 共 {} 个片段，需要向量化 {} 个", job.getFileName(), total, changed);
+
+            awaitBatches();
+            if (failure != null) {
+                rollback(failure);
+                return;
+            }
+
+            // 新片段全部写入后再清理旧片段，避免检索出现空窗
+            if (!staleIds.isEmpty()) {
+                long start = System.nanoTime();
+                embeddingStore.removeAll(staleIds);
+                stageMetrics.record("vector_delete", System.nanoTime() - start);
+                bm25Index.removeAll(staleIds);
+                job.segmentsDeleted(staleIds.size());
+            }
+
+            logger.info("成功添加 {} 个片段到 Qdrant 数据库，删除 {} 个过期片段", job.getStoredSegments(), staleIds.size());
+            filterExtractor.register(job.getAttributes().city(), job.getAttributes().region());
+            job.complete();
+        }
+
+        /**
+         * 等在途批次结束后删除本次写入的新片段（旧片段此前未删除），再把任务标记为失败；
+         * 回滚也失败时在错误信息里说明文档处于新旧混合状态
+         */
+        void rollback(Throwable cause) {
+            if (upsertExecutor.isShutdown()) {
+                // 应用关闭中，在途批次可能永远不会结束
+                logger.warn("入库线程池已关闭，跳过回滚: 文档 {}", job.getFileName());
+                job.fail(cause);
+                return;
+            }
+            awaitBatches();
+            // 提取线程因批次失败中断时，报告批次的原始错误
+            Throwable reason = failure != null ? failure : cause;
+            if (submittedIds.isEmpty()) {
+                job.fail(reason);
+                return;
+            }
+            try {
+                embeddingStore.removeAll(submittedIds);
+                bm25Index.removeAll(submittedIds);
+                logger.info("文档 {} 入库失败，已删除本次写入的 {} 个片段", job.getFileName(), submittedIds.size());
+                job.fail(reason);
+            } catch (RuntimeException e) {
+                logger.error("文档 {} 回滚失败: {}", job.getFileName(), e.getMessage());
+                job.fail(new RuntimeException(reason.getMessage()
+                        + "；删除本次写入的片段失败，文档可能同时包含新旧版本的片段，请重新上传: " + e.getMessage(), reason));
+            }
+        }
+
+        private void awaitBatches() {
+            try {
+                CompletableFuture.allOf(batches.toArray(CompletableFuture<?>[]::new)).join();
+            } catch (Exception ignored) {
+                // 失败已在 whenComplete 中记录到 failure
+            }
+        }
+
+        private void submitPending() {
+            List<String> batchIds = pendingIds;
+            List<TextSegment> batch = pendingSegments;
+            resetPending();
+            submittedIds.addAll(batchIds);
+
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("入库任务被中断", e);
+            }
+            job.markStatus(IngestionJob.Status.EMBEDDING);
+            job.addSegments(batch.size());
+
+            CompletableFuture<Void> future = CompletableFuture
+                    .supplyAsync(() -> embedBatch(job, batch), embedExecutor)
+                    .thenAcceptAsync(embeddings -> storeBatch(job, batchIds, embeddings, batch), upsertExecutor)
+                    .whenComplete((ignored, e) -> {
+                        permits.release();
+                        if (e != null && failure == null) {
+                            failure = e.getCause() != null ? e.getCause() : e;
+                        }
+                    });
+            batches.add(future);
+        }
+
+        private void resetPending() {
+            pendingIds = new ArrayList<>(batchSize);
+            pendingSegments = new ArrayList<>(batchSize);
+        }
+    }
+
+    private List<Embedding> embedBatch(IngestionJob job, List<TextSegment> batch) {
+        List<Embedding> embeddings = stageMetrics.time("embed_batch", () -> embeddingModel.embedAll(batch).content());
+        if (embeddings.size() != batch.size()) {
+            throw new RuntimeException("向量数量与片段数量不一致: " + embeddings.size() + " != " + batch.size());
+        }
+        job.batchEmbedded(batch.size());
+        return embeddings;
+    }
+
+    private void storeBatch(IngestionJob job, List<String> ids, List<Embedding> embeddings, List<TextSegment> batch) {
+        long start = System.nanoTime();
+        embeddingStore.upsertAll(ids, embeddings, batch);
+        stageMetrics.record("vector_upsert", System.nanoTime() - start);
+        bm25Index.upsertAll(ids, batch);
+        job.batchStored(batch.size());
+    }
+
+    private void purgeExpiredJobs() {
+        Instant threshold = Instant.now().minus(jobRetention);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(threshold));
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("临时文件删除失败: {}", file);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parseExecutor.shutdownNow();
+        embedExecutor.shutdownNow();
+        upsertExecutor.shutdownNow();
+    }
+}
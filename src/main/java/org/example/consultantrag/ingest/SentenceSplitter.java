@@ -0,0 +1,227 @@
+package org.example.consultantrag.ingest;
+
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.Tokenizer;
+import org.example.consultantrag.retrieval.EstimatingTokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按句分块：一次扫描切出句子边界（只记录偏移，不创建子串），再按长度上限把整句装进片段
+ *
+ * - 句末：。！？；!?; 以及后跟空白的英文句号，句末紧跟的右引号 / 右括号归入本句
+ * - 空行视为段落边界：片段已过半时在段落处结束，重叠也不跨段落
+ * - 单句超过上限时依次在换行、逗号 / 顿号 / 冒号、空白处切开，都没有时硬切
+ * - 重叠只取上一片段末尾的整句，总长不超过 maxOverlap，检索到相邻片段时不会出现半句重复
+ * - 长度按字符计，或按 Tokenizer 估算的 token 计（EstimatingTokenizer 直接在原文区间上计数）
+ *
+ * 片段元数据：index（文档内序号）、start_offset / end_offset（片段在原文中的字符区间，左闭右开）。
+ */
+public class SentenceSplitter implements DocumentSplitter {
+
+    public static final String START_OFFSET_KEY = "start_offset";
+    public static final String END_OFFSET_KEY = "end_offset";
+    private static final String INDEX_KEY = "index";
+
+    private static final String TERMINATORS = "。！？；!?;";
+    private static final String CLOSING = "”’」』）》】\")]";
+    private static final String SOFT_DELIMITERS = "，、：,:";
+
+    private final int maxSegmentSize;
+    private final int maxOverlap;
+    private final Tokenizer tokenizer;
+
+    /**
+     * 按字符计算长度
+     */
+    public SentenceSplitter(int maxSegmentSize, int maxOverlap) {
+        this(maxSegmentSize, maxOverlap, null);
+    }
+
+    /**
+     * @param tokenizer 为 null 时按字符计算长度，否则按估算的 token 数
+     */
+    public SentenceSplitter(int maxSegmentSize, int maxOverlap, Tokenizer tokenizer) {
+        if (maxSegmentSize <= 0) throw new IllegalArgumentException("片段长度上限必须大于 0");
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxOverlap = Math.max(0, maxOverlap);
+        this.tokenizer = tokenizer;
+    }
+
+    @Override
+    public List<TextSegment> split(Document document) {
+        String text = document.text();
+        return split(text, 0, text.length(), document.metadata());
+    }
+
+    /**
+     * 切分 text[from, to)，偏移相对 from 计算；StringBuilder 等缓冲区可直接传入，不必先复制成字符串
+     */
+    public List<TextSegment> split(CharSequence text, int from, int to, Metadata metadata) {
+        Sentences sentences = sentences(text, from, to);
+        List<TextSegment> segments = new ArrayList<>();
+
+        int first = 0;
+        while (first < sentences.count) {
+            // 长度按输出的原文区间计算，包含句间空白
+            int size = sentences.size[first];
+            int last = first + 1;
+            while (last < sentences.count) {
+                // 已过半时不跨段落
+                if (sentences.paragraphEnd[last - 1] && size * 2 >= maxSegmentSize) break;
+                int extended = size(text, sentences.start[first], sentences.end[last]);
+                if (extended > maxSegmentSize) break;
+                size = extended;
+                last++;
+            }
+
+            int start = sentences.start[first];
+            int end = sentences.end[last - 1];
+            segments.add(TextSegment.from(text.subSequence(start, end).toString(), metadata.copy()
+                    .put(INDEX_KEY, String.valueOf(segments.size()))
+                    .put(START_OFFSET_KEY, (long) (start - from))
+                    .put(END_OFFSET_KEY, (long) (end - from))));
+            if (last >= sentences.count) break;
+
+            // 从片段末尾往回取整句作为重叠，至少前进一句
+            int next = last;
+            while (next - 1 > first && !sentences.paragraphEnd[next - 1]
+                    && size(text, sentences.start[next - 1], sentences.end[last - 1]) <= maxOverlap) {
+                next--;
+            }
+            first = next;
+        }
+        return segments;
+    }
+
+    private Sentences sentences(CharSequence text, int from, int to) {
+        Sentences sentences = new Sentences();
+        int i = from;
+        while (i < to) {
+            while (i < to && Character.isWhitespace(text.charAt(i))) i++;
+            if (i >= to) break;
+
+            int start = i;
+            int end = -1;
+            boolean paragraph = false;
+            while (i < to) {
+                char c = text.charAt(i);
+                if (c == '\n' && isParagraphBreak(text, i, to)) {
+                    end = i;
+                    paragraph = true;
+                    break;
+                }
+                i++;
+                if (TERMINATORS.indexOf(c) >= 0 || (c == '.' && (i >= to || Character.isWhitespace(text.charAt(i))))) {
+                    while (i < to && CLOSING.indexOf(text.charAt(i)) >= 0) i++;
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) end = i;
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+            if (end > start) addSentence(sentences, text, start, end, paragraph);
+        }
+        return sentences;
+    }
+
+    /**
+     * 超长的句子切成不超过上限的几段，只有最后一段保留段落标记
+     */
+    private void addSentence(Sentences sentences, CharSequence text, int start, int end, boolean paragraph) {
+        int size = size(text, start, end);
+        while (size > maxSegmentSize) {
+            int cut = cutPosition(text, start, end);
+            int pieceEnd = cut;
+            while (pieceEnd > start && Character.isWhitespace(text.charAt(pieceEnd - 1))) pieceEnd--;
+            sentences.add(start, pieceEnd, size(text, start, pieceEnd), false);
+
+            start = cut;
+            while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+            if (start >= end) return;
+            size = size(text, start, end);
+        }
+        sentences.add(start, end, size, paragraph);
+    }
+
+    /**
+     * 不超过上限的最远位置之前，优先在后半段的换行、逗号类标点、空白处切开
+     */
+    private int cutPosition(CharSequence text, int start, int end) {
+        // 二分查找满足 size(start, limit) <= maxSegmentSize 的最大 limit
+        int low = start + 1;
+        int high = end - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (size(text, start, mid) <= maxSegmentSize) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        int limit = low;
+        int floor = start + (limit - start) / 2;
+
+        for (int i = limit; i > floor; i--) {
+            if (text.charAt(i - 1) == '\n') return i;
+        }
+        for (int i = limit; i > floor; i--) {
+            if (SOFT_DELIMITERS.indexOf(text.charAt(i - 1)) >= 0) return i;
+        }
+        for (int i = limit; i > floor; i--) {
+            if (Character.isWhitespace(text.charAt(i - 1))) return i;
+        }
+        // 硬切时不拆开代理对
+        if (limit > start + 1 && Character.isHighSurrogate(text.charAt(limit - 1))) limit--;
+        return limit;
+    }
+
+    private int size(CharSequence text, int start, int end) {
+        if (tokenizer == null) return end - start;
+        if (tokenizer instanceof EstimatingTokenizer estimating) return estimating.estimateTokenCount(text, start, end);
+        return tokenizer.estimateTokenCountInText(text.subSequence(start, end).toString());
+    }
+
+    /**
+     * 换行之后（忽略空格 / 制表符）紧跟另一个换行，即空行
+     */
+    private static boolean isParagraphBreak(CharSequence text, int newline, int to) {
+        for (int i = newline + 1; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') return true;
+            if (c != ' ' && c != '\t' && c != '\r') return false;
+        }
+        return true;
+    }
+
+    /**
+     * 句子区间与长度，按原始类型数组存放
+     */
+    private static final class Sentences {
+        int count;
+        int[] start = new int[64];
+        int[] end = new int[64];
+        int[] size = new int[64];
+        boolean[] paragraphEnd = new boolean[64];
+
+        void add(int sentenceStart, int sentenceEnd, int sentenceSize, boolean paragraph) {
+            if (count == start.length) {
+                int capacity = count * 2;
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+                size = Arrays.copyOf(size, capacity);
+                paragraphEnd = Arrays.copyOf(paragraphEnd, capacity);
+            }
+            start[count] = sentenceStart;
+            end[count] = sentenceEnd;
+            size[count] = sentenceSize;
+            paragraphEnd[count] = paragraph;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.example.consultantrag.ingest;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * 流式文本提取：边解析边把文本分段交给下游，不在内存中拼出整篇文档
+ *
+ * - PDF：PDFBox 逐页提取，解析用的缓冲只落在临时文件里（MemoryUsageSetting.setupTempFileOnly）
+ * - 其他格式：Tika 自动识别格式，SAX 回调的文本经 Writer 直接转发
+ *
+ * 注意：DOCX / XLSX 等 OOXML 格式由 POI 解析，压缩包本身仍会整体读入内存，只省掉了全文字符串。
+ */
+public final class StreamingTextExtractor {
+
+    private static final byte[] PDF_MAGIC = {'%', 'P', 'D', 'F', '-'};
+
+    /**
+     * 接收提取出的文本；page 为所在页码（从 1 开始），没有分页信息的格式为 0
+     */
+    @FunctionalInterface
+    public interface TextSink {
+        void accept(String text, int page);
+    }
+
+    private StreamingTextExtractor() {
+    }
+
+    /**
+     * 提取文本并按到达顺序交给 sink；PDF 每页调用一次，其他格式按 SAX 回调的粒度调用
+     */
+    public static void extract(Path file, TextSink sink) throws IOException {
+        if (isPdf(file)) {
+            extractPdf(file, sink);
+        } else {
+            extractWithTika(file, sink);
+        }
+    }
+
+    private static boolean isPdf(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return Arrays.equals(in.readNBytes(PDF_MAGIC.length), PDF_MAGIC);
+        }
+    }
+
+    private static void extractPdf(Path file, TextSink sink) throws IOException {
+        try (PDDocument document = PDDocument.load(file.toFile(), MemoryUsageSetting.setupTempFileOnly())) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= document.getNumberOfPages(); page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                // getText 以换行结尾，页与页按普通换行衔接，跨页的句子不会被当成段落切开
+                sink.accept(stripper.getText(document), page);
+            }
+        }
+    }
+
+    private static void extractWithTika(Path file, TextSink sink) throws IOException {
+        Writer writer = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                sink.accept(new String(buffer, offset, length), 0);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        try (InputStream in = Files.newInputStream(file)) {
+            new AutoDetectParser().parse(in, new BodyContentHandler(writer), new Metadata(), new ParseContext());
+        } catch (TikaException | SAXException e) {
+            throw new IOException("文件解析失败: " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.consultantrag.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import org.example.consultantrag.admission.AdmissionController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+
+/**
+ * 把早期对话折叠进滚动摘要
+ *
+ * - 在 chatExecutor 上异步执行，不占用对话请求的时间
+ * - 同一会话同时最多一个摘要任务；本次没赶上的轮次在下一轮结束后一并折叠
+ * - 经准入控制的后台通道执行：只占用空闲的生成名额、有用户请求排队时不启动，且同时最多
+ *   rag.admission.max-background-in-flight 个；排队超时或队列满时跳过本次，下一轮结束后重试
+ */
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private static final Pattern THINK_BLOCK = Pattern.compile("(?s)<think>.*?</think>");
+
+    private static final String INSTRUCTION = """
+            你负责维护一段对话的滚动摘要。请把【新增对话】合并进【已有摘要】，输出新的摘要：
+            - 保留用户的目标、偏好、已确认的事实和结论（地点、日期、数字等要准确）
+            - 工具结果只保留与后续对话相关的关键数据，不要照抄原文
+            - 不要编造对话中没有的内容
+            - 使用中文，直接输出摘要正文，不超过 %d 字
+            """;
+
+    private final ChatLanguageModel chatModel;
+    private final NearCacheChatMemoryStore store;
+    private final AdmissionController admissionController;
+    private final ExecutorService executor;
+    private final String ollamaBaseUrl;
+    private final int maxSummaryChars;
+    private final int maxToolResultChars;
+
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    public ConversationSummarizer(ChatLanguageModel ollamaChatModel,
+                                  NearCacheChatMemoryStore store,
+                                  AdmissionController admissionController,
+                                  @Qualifier("chatExecutor") ExecutorService executor,
+                                  @Value("${ollama.base-url:http://localhost:11434}") String ollamaBaseUrl,
+                                  @Value("${rag.memory.summary.max-chars:400}") int maxSummaryChars,
+                                  @Value("${rag.memory.summary.max-tool-result-chars:300}") int maxToolResultChars) {
+        this.chatModel = ollamaChatModel;
+        this.store = store;
+        this.admissionController = admissionController;
+        this.executor = executor;
+        this.ollamaBaseUrl = ollamaBaseUrl;
+        this.maxSummaryChars = maxSummaryChars;
+        this.maxToolResultChars = maxToolResultChars;
+    }
+
+    /**
+     * 异步把 folded（会话中最早的若干轮）折叠进摘要；该会话已有任务在执行时直接返回
+     */
+    public void summarizeAsync(String memoryId, List<ChatMessage> folded) {
+        if (folded.isEmpty() || !running.add(memoryId)) return;
+
+        admissionController.acquireBackground(ollamaBaseUrl)
+                .thenAcceptAsync(permit -> {
+                    try {
+                        summarize(memoryId, folded);
+                    } finally {
+                        permit.release();
+                    }
+                }, executor)
+                .whenComplete((ignored, e) -> {
+                    running.remove(memoryId);
+                    if (e != null) {
+                        logger.warn("会话摘要失败，下一轮结束后重试: memoryId={}, {}", memoryId, e.getMessage());
+                    }
+                });
+    }
+
+    private void summarize(String memoryId, List<ChatMessage> folded) {
+        long start = System.currentTimeMillis();
+        String previous = store.getSummary(memoryId);
+
+        StringBuilder prompt = new StringBuilder("【已有摘要】\n")
+                .append(previous == null || previous.isBlank() ? "（无）" : previous)
+                .append("\n\n【新增对话】\n");
+        for (ChatMessage message : folded) {
+            appendMessage(prompt, message);
+        }
+
+        String summary = chatModel.generate(
+                SystemMessage.from(INSTRUCTION.formatted(maxSummaryChars)),
+                UserMessage.from(prompt.toString())).content().text();
+        summary = THINK_BLOCK.matcher(summary == null ? "" : summary).replaceAll("").strip();
+        if (summary.isEmpty()) {
+            logger.warn("会话摘要为空，跳过: memoryId={}", memoryId);
+            return;
+        }
+
+        boolean applied = store.fold(memoryId, folded, summary);
+        logger.debug("会话摘要{}: memoryId={}, 折叠 {} 条消息, 摘要 {} 字, 耗时 {}ms", applied ? "完成" : "已过期",
+                memoryId, folded.size(), summary.length(), System.currentTimeMillis() - start);
+    }
+
+    private void appendMessage(StringBuilder prompt, ChatMessage message) {
+        if (message instanceof UserMessage) {
+            UserMessage userMessage = (UserMessage) SummarizingChatMemory.withoutRetrievedContext(message);
+            String text = userMessage.hasSingleText() ? userMessage.singleText() : userMessage.contents().toString();
+            prompt.append("用户：").append(text).append('\n');
+        } else if (message instanceof AiMessage aiMessage) {
+            if (aiMessage.hasToolExecutionRequests()) {
+                aiMessage.toolExecutionRequests().forEach(request -> prompt.append("助手调用工具 ")
+                        .append(request.name()).append("：").append(request.arguments()).append('\n'));
+            }
+            if (aiMessage.text() != null && !aiMessage.text().isBlank()) {
+                prompt.append("助手：").append(THINK_BLOCK.matcher(aiMessage.text()).replaceAll("").strip()).append('\n');
+            }
+        } else if (message instanceof ToolExecutionResultMessage result) {
+            String text = result.text();
+            if (text.length() > maxToolResultChars) {
+                text = text.substring(0, maxToolResultChars) + "…";
+            }
+            prompt.append("工具 ").append(result.toolName()).append(" 返回：").append(text).append('\n');
+        }
+    }
+}
@@ -0,0 +1,630 @@
+package org.example.consultantrag.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带本地近缓存、异步回写的 Redis 对话记忆存储
+ *
+ * 存储结构（{id} 为哈希标签，集群模式下同一会话的键落在同一槽位）：
+ * - chat:memory:{id}         List，每条非系统消息一个 JSON 元素，只追加 + 从头部裁剪
+ * - chat:memory:{id}:system  String，系统消息
+ * - chat:memory:{id}:summary String，已折叠进摘要的早期对话（见 SummarizingChatMemory）
+ *
+ * 读写流程：
+ * 1. getMessages 优先命中本地缓存；未命中时一次管道读取 LRANGE + GET（系统消息与摘要）
+ * 2. updateMessages 只更新本地缓存并标记为脏，不访问 Redis
+ * 3. 后台按 flushInterval 把所有脏会话合并成一个管道写入：与上次写入的内容对比，
+ *    只发送 LTRIM（窗口滑出的消息）+ RPUSH（新增消息），每轮对话的写入量与窗口大小无关
+ * 4. 写入后通过 Pub/Sub 广播会话 ID，其他节点丢弃对应的本地缓存，下次读取时重新加载
+ *
+ * 增量只在 Redis 中的列表与本节点上次写入的内容一致时才能套用，因此 LTRIM + RPUSH 放在一个 Lua 脚本里，
+ * 先校验 LLEN 等于上次写入的条数。不一致（其他节点在此期间写过同一会话，或键已过期）时不套用增量，
+ * 改为 DEL 后整体重写三个键，以本节点的窗口为准（后写者胜），不会出现重复或交错的历史。
+ *
+ * Redis 读取（memory_load）与批量回写（memory_flush）的耗时记入 rag_stage_seconds。
+ *
+ * 注意：回写存在 flushInterval 量级的窗口，同一会话的请求在此期间落到其他节点时可能读到旧数据；
+ * 两个节点同时修改同一会话时，先写入的一方的新消息会被后写入的一方覆盖。
+ * 实现 SmartLifecycle：容器关闭时在 Redis 连接工厂停止之前写完剩余的脏会话。
+ */
+public class NearCacheChatMemoryStore implements ChatMemoryStore, SmartLifecycle, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCacheChatMemoryStore.class);
+
+    private static final String KEY_PREFIX = "chat:memory:";
+    private static final String INVALIDATION_CHANNEL = "chat:memory:invalidate";
+
+    // KEYS[1] 列表键；ARGV: 期望长度、头部裁剪条数、过期秒数（0 不设置）、追加的消息...
+    // 长度与期望不符时不做任何修改并返回 0
+    private static final String APPLY_DELTA_SCRIPT = """
+            local len = redis.call('LLEN', KEYS[1])
+            if len ~= tonumber(ARGV[1]) then return 0 end
+            local trim = tonumber(ARGV[2])
+            if trim >= len and len > 0 then
+              redis.call('DEL', KEYS[1])
+            elseif trim > 0 then
+              redis.call('LTRIM', KEYS[1], trim, -1)
+            end
+            if #ARGV > 3 then redis.call('RPUSH', KEYS[1], unpack(ARGV, 4)) end
+            local ttl = tonumber(ARGV[3])
+            if ttl > 0 and redis.call('EXISTS', KEYS[1]) == 1 then redis.call('EXPIRE', KEYS[1], ttl) end
+            return 1
+            """;
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ScheduledExecutorService flusher;
+    private final Duration ttl;
+    private final StageMetrics stageMetrics;
+    private final String nodeId = UUID.randomUUID().toString();
+    private volatile boolean running = true;
+
+    // 按访问顺序淘汰的本地缓存；被淘汰的脏会话仍保留在 dirty 中直到写入完成
+    private final Map<String, Session> sessions;
+    private final Map<String, Session> dirty = new ConcurrentHashMap<>();
+
+    private final AtomicLong localHits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong rewrites = new AtomicLong();
+
+    /**
+     * @param maxSessions   本地缓存的会话数上限
+     * @param flushInterval 回写间隔
+     * @param ttl           Redis 键过期时间，每次写入时刷新
+     */
+    public NearCacheChatMemoryStore(RedisConnectionFactory connectionFactory, StageMetrics stageMetrics,
+                                    int maxSessions, Duration flushInterval, Duration ttl) {
+        this.ttl = ttl;
+        this.stageMetrics = stageMetrics;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.sessions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Session> eldest) {
+                return size() > maxSessions;
+            }
+        };
+
+        this.listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.addMessageListener((message, pattern) ->
+                onInvalidation(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(INVALIDATION_CHANNEL));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("chat-memory-flush-"));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        String id = memoryId.toString();
+        Session session = cached(id);
+        if (session != null) {
+            localHits.incrementAndGet();
+            synchronized (session) {
+                return session.current;
+            }
+        }
+
+        session = load(id);
+        synchronized (sessions) {
+            Session existing = sessions.putIfAbsent(id, session);
+            if (existing != null) session = existing;
+        }
+        synchronized (session) {
+            return session.current;
+        }
+    }
+
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        String id = memoryId.toString();
+        // 未读先写（如被淘汰后直接写入）：先加载 Redis 中的现状作为对比基准
+        Session session = session(id);
+        synchronized (session) {
+            session.current = List.copyOf(messages);
+            session.deleted = false;
+        }
+        dirty.put(id, session);
+    }
+
+    @Override
+    public void deleteMessages(Object memoryId) {
+        String id = memoryId.toString();
+        Session session = cached(id);
+        if (session == null) {
+            session = dirty.getOrDefault(id, new Session(id, List.of(), List.of(), null));
+        }
+        synchronized (session) {
+            session.current = List.of();
+            session.summary = null;
+            session.deleted = true;
+        }
+        dirty.put(id, session);
+    }
+
+    /**
+     * 会话的滚动摘要，没有时返回 null
+     */
+    public String getSummary(Object memoryId) {
+        Session session = session(memoryId.toString());
+        synchronized (session) {
+            return session.summary;
+        }
+    }
+
+    /**
+     * 把最早的若干条消息折叠进摘要：只有当前消息（不含系统消息）仍以 folded 开头时才生效，
+     * 保证与摘要期间新追加的消息互不覆盖
+     *
+     * @return 是否折叠成功
+     */
+    public boolean fold(Object memoryId, List<ChatMessage> folded, String summary) {
+        String id = memoryId.toString();
+        Session session = session(id);
+        synchronized (session) {
+            List<ChatMessage> remaining = new ArrayList<>();
+            int matched = 0;
+            for (ChatMessage message : session.current) {
+                if (message instanceof SystemMessage || matched == folded.size()) {
+                    remaining.add(message);
+                } else if (message.equals(folded.get(matched))) {
+                    matched++;
+                } else {
+                    return false;
+                }
+            }
+            if (matched < folded.size()) return false;
+            session.current = List.copyOf(remaining);
+            session.summary = summary;
+            session.deleted = false;
+        }
+        dirty.put(id, session);
+        return true;
+    }
+
+    /**
+     * 把所有脏会话合并成一个管道写入 Redis，并广播失效通知
+     */
+    public void flush() {
+        if (dirty.isEmpty()) return;
+
+        List<Session> batch = new ArrayList<>();
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (String id : new ArrayList<>(dirty.keySet())) {
+            Session session = dirty.remove(id);
+            if (session == null) continue;
+            synchronized (session) {
+                batch.add(session);
+                snapshots.add(new Snapshot(session.current, session.summary, session.deleted));
+            }
+        }
+        if (batch.isEmpty()) return;
+
+        AtomicLong batchCommands = new AtomicLong();
+        AtomicLong batchBytes = new AtomicLong();
+        long start = System.nanoTime();
+        List<Session> conflicts = new ArrayList<>();
+        List<Snapshot> conflictSnapshots = new ArrayList<>();
+        try {
+            List<Object> results;
+            try {
+                results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection redis = (StringRedisConnection) connection;
+                    // 列表增量脚本排在最前，结果按顺序对应 batch 中未删除的会话
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!snapshots.get(i).deleted()) {
+                            applyListDelta(redis, batch.get(i), snapshots.get(i), batchBytes);
+                            batchCommands.incrementAndGet();
+                        }
+                    }
+                    StringBuilder ids = new StringBuilder(nodeId);
+                    for (int i = 0; i < batch.size(); i++) {
+                        Session session = batch.get(i);
+                        if (snapshots.get(i).deleted()) {
+                            redis.del(listKey(session.id), systemKey(session.id), summaryKey(session.id));
+                            batchCommands.incrementAndGet();
+                        } else {
+                            writeDelta(redis, session, snapshots.get(i), batchCommands, batchBytes);
+                        }
+                        ids.append('\n').append(session.id);
+                    }
+                    redis.publish(INVALIDATION_CHANNEL, ids.toString());
+                    batchCommands.incrementAndGet();
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                // 写入失败：未被新写入覆盖的会话重新标记为脏，下次重试
+                batch.forEach(session -> dirty.putIfAbsent(session.id, session));
+                throw e;
+            }
+
+            int result = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Session session = batch.get(i);
+                Snapshot snapshot = snapshots.get(i);
+                if (!snapshot.deleted() && !Long.valueOf(1).equals(results.get(result++))) {
+                    conflicts.add(session);
+                    conflictSnapshots.add(snapshot);
+                    continue;
+                }
+                markPersisted(session, snapshot);
+            }
+
+            if (!conflicts.isEmpty()) {
+                try {
+                    rewrite(conflicts, conflictSnapshots, batchCommands, batchBytes);
+                } catch (RuntimeException e) {
+                    // persisted 保持不变，重试时校验仍不通过，会再次整体重写
+                    conflicts.forEach(session -> dirty.putIfAbsent(session.id, session));
+                    throw e;
+                }
+                for (int i = 0; i < conflicts.size(); i++) {
+                    markPersisted(conflicts.get(i), conflictSnapshots.get(i));
+                }
+                rewrites.addAndGet(conflicts.size());
+                logger.debug("{} 个会话的 Redis 列表与本地记录不一致，已整体重写", conflicts.size());
+            }
+        } finally {
+            stageMetrics.record("memory_flush", System.nanoTime() - start);
+        }
+
+        flushes.incrementAndGet();
+        commands.addAndGet(batchCommands.get());
+        bytesWritten.addAndGet(batchBytes.get());
+    }
+
+    /**
+     * 近缓存命中率与 Redis 写入量，供监控接口使用
+     */
+    public Map<String, Object> stats() {
+        long hits = localHits.get();
+        long loaded = loads.get();
+        long flushCount = flushes.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localHits", hits);
+        stats.put("loads", loaded);
+        stats.put("hitRate", hits + loaded == 0 ? 0.0 : (double) hits / (hits + loaded));
+        synchronized (sessions) {
+            stats.put("cachedSessions", sessions.size());
+        }
+        stats.put("dirtySessions", dirty.size());
+        stats.put("flushes", flushCount);
+        stats.put("commands", commands.get());
+        stats.put("bytesWritten", bytesWritten.get());
+        stats.put("avgBytesPerFlush", flushCount == 0 ? 0 : bytesWritten.get() / flushCount);
+        stats.put("invalidations", invalidations.get());
+        stats.put("rewrites", rewrites.get());
+        return stats;
+    }
+
+    /**
+     * 构造时已开始回写，无需再启动
+     */
+    @Override
+    public void start() {
+    }
+
+    /**
+     * 依赖 RedisConnectionFactory，容器会先停止本 Bean 再停止连接工厂，保证最后一次回写能连上 Redis
+     */
+    @Override
+    public void stop() {
+        close();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void close() {
+        if (!running) return;
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn("关闭时写入对话记忆失败，{} 个会话未保存: {}", dirty.size(), e.getMessage());
+        }
+        listenerContainer.stop();
+    }
+
+    /**
+     * 列表增量：校验 Redis 中的条数与上次写入一致后，LTRIM 窗口滑出的消息、RPUSH 新增消息（一个脚本内完成）
+     */
+    private void applyListDelta(StringRedisConnection redis, Session session, Snapshot snapshot,
+                                AtomicLong batchBytes) {
+        List<ChatMessage> persisted;
+        synchronized (session) {
+            persisted = session.persisted;
+        }
+        List<ChatMessage> oldMessages = withoutSystem(persisted);
+        List<ChatMessage> newMessages = withoutSystem(snapshot.messages());
+        int trimmed = headTrim(oldMessages, newMessages);
+        int kept = oldMessages.size() - trimmed;
+
+        List<String> keysAndArgs = new ArrayList<>();
+        keysAndArgs.add(listKey(session.id));
+        keysAndArgs.add(String.valueOf(oldMessages.size()));
+        keysAndArgs.add(String.valueOf(trimmed));
+        keysAndArgs.add(String.valueOf(ttl.toSeconds()));
+        for (ChatMessage message : newMessages.subList(kept, newMessages.size())) {
+            String json = ChatMessageSerializer.messageToJson(message);
+            keysAndArgs.add(json);
+            batchBytes.addAndGet(json.length());
+        }
+        redis.eval(APPLY_DELTA_SCRIPT, ReturnType.INTEGER, 1, keysAndArgs.toArray(String[]::new));
+    }
+
+    /**
+     * 列表校验不通过的会话：删除后按本节点的内容整体重写列表、系统消息与摘要，并再次广播失效
+     */
+    private void rewrite(List<Session> sessions, List<Snapshot> snapshots,
+                         AtomicLong batchCommands, AtomicLong batchBytes) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            StringBuilder ids = new StringBuilder(nodeId);
+            for (int i = 0; i < sessions.size(); i++) {
+                String id = sessions.get(i).id;
+                Snapshot snapshot = snapshots.get(i);
+                redis.del(listKey(id), systemKey(id), summaryKey(id));
+                batchCommands.incrementAndGet();
+
+                String[] messages = withoutSystem(snapshot.messages()).stream()
+                        .map(ChatMessageSerializer::messageToJson)
+                        .toArray(String[]::new);
+                if (messages.length > 0) {
+                    redis.rPush(listKey(id), messages);
+                    batchCommands.incrementAndGet();
+                    for (String json : messages) {
+                        batchBytes.addAndGet(json.length());
+                    }
+                }
+                SystemMessage system = systemMessage(snapshot.messages());
+                if (system != null) {
+                    String json = ChatMessageSerializer.messageToJson(system);
+                    redis.set(systemKey(id), json);
+                    batchCommands.incrementAndGet();
+                    batchBytes.addAndGet(json.length());
+                }
+                if (snapshot.summary() != null) {
+                    redis.set(summaryKey(id), snapshot.summary());
+                    batchCommands.incrementAndGet();
+                    batchBytes.addAndGet(snapshot.summary().length());
+                }
+                if (!ttl.isZero()) {
+                    redis.expire(listKey(id), ttl.toSeconds());
+                    redis.expire(systemKey(id), ttl.toSeconds());
+                    redis.expire(summaryKey(id), ttl.toSeconds());
+                    batchCommands.addAndGet(3);
+                }
+                ids.append('\n').append(id);
+            }
+            redis.publish(INVALIDATION_CHANNEL, ids.toString());
+            batchCommands.incrementAndGet();
+            return null;
+        });
+    }
+
+    private static void markPersisted(Session session, Snapshot snapshot) {
+        synchronized (session) {
+            session.persisted = snapshot.messages();
+            session.persistedSummary = snapshot.summary();
+        }
+    }
+
+    /**
+     * 对比上次写入的内容：系统消息、摘要变化时 SET，并刷新过期时间（列表的增量见 applyListDelta）
+     */
+    private void writeDelta(StringRedisConnection redis, Session session, Snapshot snapshot,
+                            AtomicLong batchCommands, AtomicLong batchBytes) {
+        List<ChatMessage> persisted;
+        String persistedSummary;
+        synchronized (session) {
+            persisted = session.persisted;
+            persistedSummary = session.persistedSummary;
+        }
+        String systemKey = systemKey(session.id);
+        String summaryKey = summaryKey(session.id);
+
+        if (!Objects.equals(persistedSummary, snapshot.summary())) {
+            if (snapshot.summary() == null) {
+                redis.del(summaryKey);
+            } else {
+                redis.set(summaryKey, snapshot.summary());
+                batchBytes.addAndGet(snapshot.summary().length());
+            }
+            batchCommands.incrementAndGet();
+        }
+
+        SystemMessage oldSystem = systemMessage(persisted);
+        SystemMessage newSystem = systemMessage(snapshot.messages());
+        if (!Objects.equals(oldSystem, newSystem)) {
+            if (newSystem == null) {
+                redis.del(systemKey);
+            } else {
+                String json = ChatMessageSerializer.messageToJson(newSystem);
+                redis.set(systemKey, json);
+                batchBytes.addAndGet(json.length());
+            }
+            batchCommands.incrementAndGet();
+        }
+
+        if (!ttl.isZero()) {
+            redis.expire(systemKey, ttl.toSeconds());
+            redis.expire(summaryKey, ttl.toSeconds());
+            batchCommands.addAndGet(2);
+        }
+    }
+
+    /**
+     * 找出最小的 d，使 oldMessages 去掉头部 d 条后恰好是 newMessages 的前缀（d = size 时总成立，即整体重写）
+     */
+    private static int headTrim(List<ChatMessage> oldMessages, List<ChatMessage> newMessages) {
+        int size = oldMessages.size();
+        for (int d = 0; d < size; d++) {
+            int kept = size - d;
+            if (kept <= newMessages.size()
+                    && oldMessages.subList(d, size).equals(newMessages.subList(0, kept))) {
+                return d;
+            }
+        }
+        return size;
+    }
+
+    private Session cached(String id) {
+        synchronized (sessions) {
+            Session session = sessions.get(id);
+            if (session != null) return session;
+            // 已被淘汰但尚未写入的会话，重新放回缓存，避免读到 Redis 中的旧数据
+            session = dirty.get(id);
+            if (session != null) sessions.put(id, session);
+            return session;
+        }
+    }
+
+    private Session session(String id) {
+        Session session = cached(id);
+        if (session != null) return session;
+        session = load(id);
+        synchronized (sessions) {
+            Session existing = sessions.putIfAbsent(id, session);
+            return existing != null ? existing : session;
+        }
+    }
+
+    private Session load(String id) {
+        loads.incrementAndGet();
+        List<Object> results = stageMetrics.time("memory_load", () ->
+                redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection redis = (StringRedisConnection) connection;
+                    redis.lRange(listKey(id), 0, -1);
+                    redis.get(systemKey(id));
+                    redis.get(summaryKey(id));
+                    return null;
+                }));
+
+        List<ChatMessage> messages = new ArrayList<>();
+        Object system = results.get(1);
+        if (system instanceof String json) {
+            messages.add(ChatMessageDeserializer.messageFromJson(json));
+        }
+        if (results.get(0) instanceof List<?> list) {
+            for (Object json : list) {
+                messages.add(ChatMessageDeserializer.messageFromJson((String) json));
+            }
+        }
+        List<ChatMessage> loaded = List.copyOf(messages);
+        String summary = results.get(2) instanceof String text ? text : null;
+        return new Session(id, loaded, loaded, summary);
+    }
+
+    private void onInvalidation(String body) {
+        String[] lines = body.split("\n");
+        if (lines.length == 0 || nodeId.equals(lines[0])) return;
+        synchronized (sessions) {
+            for (int i = 1; i < lines.length; i++) {
+                // 本节点还有未写入的修改时保留缓存，以本节点的写入为准
+                if (!dirty.containsKey(lines[i]) && sessions.remove(lines[i]) != null) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.warn("对话记忆写入 Redis 失败，稍后重试: {}", e.getMessage());
+        }
+    }
+
+    private static SystemMessage systemMessage(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage system) return system;
+        }
+        return null;
+    }
+
+    private static List<ChatMessage> withoutSystem(List<ChatMessage> messages) {
+        return messages.stream().filter(message -> !(message instanceof SystemMessage)).toList();
+    }
+
+    private static String listKey(String id) {
+        return KEY_PREFIX + "{" + id + "}";
+    }
+
+    private static String systemKey(String id) {
+        return KEY_PREFIX + "{" + id + "}:system";
+    }
+
+    private static String summaryKey(String id) {
+        return KEY_PREFIX + "{" + id + "}:summary";
+    }
+
+    private record Snapshot(List<ChatMessage> messages, String summary, boolean deleted) {
+    }
+
+    /**
+     * 单个会话：current / summary 为最新内容，persisted / persistedSummary 为最近一次成功写入 Redis 的内容
+     */
+    private static final class Session {
+        final String id;
+        List<ChatMessage> current;
+        List<ChatMessage> persisted;
+        String summary;
+        String persistedSummary;
+        boolean deleted;
+
+        Session(String id, List<ChatMessage> current, List<ChatMessage> persisted, String summary) {
+            this.id = id;
+            this.current = current;
+            this.persisted = persisted;
+            this.summary = summary;
+            this.persistedSummary = summary;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.example.consultantrag.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.Tokenizer;
+import org.example.consultantrag.retrieval.ContextPackingContentInjector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按 token 预算组装提示词的对话记忆，早期对话折叠为滚动摘要
+ *
+ * - 存储中只保留尚未折叠的消息，摘要与会话一起存放在 Redis（见 NearCacheChatMemoryStore）
+ * - 每轮对话结束（AI 给出不含工具调用的回复）后，最近 keepRecentTurns 轮之前的对话交给
+ *   ConversationSummarizer 在请求线程之外异步折叠，工具的冗长输出也随之进入摘要
+ * - messages() 输出：系统消息（附摘要） + 预算内尽可能多的最近轮次，当前轮总是完整保留；
+ *   非当前轮的用户消息去掉检索注入的参考内容
+ *
+ * 因此无论会话多长，提示词大小都受 tokenBudget 约束（当前轮自身超出时除外）。
+ */
+public class SummarizingChatMemory implements ChatMemory {
+
+    private static final String SUMMARY_HEADER = "\n\n以下是与该用户之前对话的摘要，回答时可参考：\n";
+
+    private final Object id;
+    private final NearCacheChatMemoryStore store;
+    private final ConversationSummarizer summarizer;
+    private final Tokenizer tokenizer;
+    private final int tokenBudget;
+    private final int keepRecentTurns;
+    private final int maxMessages;
+
+    /**
+     * @param tokenBudget     系统消息、摘要与历史消息合计的 token 上限
+     * @param keepRecentTurns 保持原文、不参与折叠的最近轮数
+     * @param maxMessages     存储中未折叠消息的硬上限，摘要跟不上时丢弃最早的轮次
+     */
+    public SummarizingChatMemory(Object id, NearCacheChatMemoryStore store, ConversationSummarizer summarizer,
+                                 Tokenizer tokenizer, int tokenBudget, int keepRecentTurns, int maxMessages) {
+        this.id = id;
+        this.store = store;
+        this.summarizer = summarizer;
+        this.tokenizer = tokenizer;
+        this.tokenBudget = tokenBudget;
+        this.keepRecentTurns = keepRecentTurns;
+        this.maxMessages = maxMessages;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+        if (message instanceof SystemMessage systemMessage) {
+            SystemMessage existing = systemMessage(messages);
+            if (systemMessage.equals(existing)) return;
+            messages.remove(existing);
+            messages.add(0, systemMessage);
+        } else {
+            messages.add(message);
+        }
+        messages = enforceCapacity(messages);
+        store.updateMessages(id, messages);
+
+        if (message instanceof AiMessage aiMessage && !aiMessage.hasToolExecutionRequests()) {
+            List<List<ChatMessage>> turns = turns(messages);
+            if (turns.size() > keepRecentTurns) {
+                List<ChatMessage> folded = new ArrayList<>();
+                turns.subList(0, turns.size() - keepRecentTurns).forEach(folded::addAll);
+                summarizer.summarizeAsync(id.toString(), folded);
+            }
+        }
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        List<ChatMessage> stored = store.getMessages(id);
+        SystemMessage systemMessage = systemMessage(stored);
+        String summary = store.getSummary(id);
+
+        String systemText = systemMessage == null ? "" : systemMessage.text();
+        if (summary != null && !summary.isBlank()) {
+            systemText = systemText + SUMMARY_HEADER + summary;
+        }
+        SystemMessage header = systemText.isBlank() ? null : SystemMessage.from(systemText.strip());
+
+        // 从最新一轮往前取，当前轮无论多长都保留
+        List<List<ChatMessage>> turns = turns(stored);
+        int remaining = tokenBudget - (header == null ? 0 : tokenizer.estimateTokenCountInMessage(header));
+        int first = turns.size();
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            List<ChatMessage> turn = i == turns.size() - 1 ? turns.get(i) : withoutRetrievedContext(turns.get(i));
+            int tokens = tokenizer.estimateTokenCountInMessages(turn);
+            if (i < turns.size() - 1 && tokens > remaining) break;
+            remaining -= tokens;
+            first = i;
+        }
+
+        List<ChatMessage> messages = new ArrayList<>();
+        if (header != null) messages.add(header);
+        for (int i = first; i < turns.size(); i++) {
+            messages.addAll(i == turns.size() - 1 ? turns.get(i) : withoutRetrievedContext(turns.get(i)));
+        }
+        return messages;
+    }
+
+    @Override
+    public void clear() {
+        store.deleteMessages(id);
+    }
+
+    /**
+     * 去掉检索注入的参考内容，只保留用户原始问题
+     */
+    static ChatMessage withoutRetrievedContext(ChatMessage message) {
+        if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+            String text = userMessage.singleText();
+            int marker = text.indexOf(ContextPackingContentInjector.CONTEXT_MARKER);
+            if (marker >= 0) {
+                return userMessage.name() == null
+                        ? UserMessage.from(text.substring(0, marker))
+                        : UserMessage.from(userMessage.name(), text.substring(0, marker));
+            }
+        }
+        return message;
+    }
+
+    /**
+     * 按用户消息切分轮次（不含系统消息）；开头不以用户消息起始的残留消息单独算一轮
+     */
+    static List<List<ChatMessage>> turns(List<ChatMessage> messages) {
+        List<List<ChatMessage>> turns = new ArrayList<>();
+        List<ChatMessage> current = null;
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage) continue;
+            if (current == null || message instanceof UserMessage) {
+                current = new ArrayList<>();
+                turns.add(current);
+            }
+            current.add(message);
+        }
+        return turns;
+    }
+
+    private static List<ChatMessage> withoutRetrievedContext(List<ChatMessage> turn) {
+        return turn.stream().map(SummarizingChatMemory::withoutRetrievedContext).toList();
+    }
+
+    /**
+     * 超过硬上限时按整轮丢弃最早的消息，避免留下没有对应工具调用的工具结果
+     */
+    private List<ChatMessage> enforceCapacity(List<ChatMessage> messages) {
+        List<List<ChatMessage>> turns = turns(messages);
+        int count = turns.stream().mapToInt(List::size).sum();
+        int drop = 0;
+        while (count > maxMessages && drop < turns.size() - 1) {
+            count -= turns.get(drop++).size();
+        }
+        if (drop == 0) return messages;
+
+        List<ChatMessage> kept = new ArrayList<>();
+        SystemMessage systemMessage = systemMessage(messages);
+        if (systemMessage != null) kept.add(systemMessage);
+        turns.subList(drop, turns.size()).forEach(kept::addAll);
+        return kept;
+    }
+
+    private static SystemMessage systemMessage(List<ChatMessage> messages) {
+        for (ChatMessage message : messages) {
+            if (message instanceof SystemMessage systemMessage) return systemMessage;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+package org.example.consultantrag.metrics;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 包装线程池：提交的任务在执行线程上沿用提交线程的 {@link StageBreakdown}
+ *
+ * CompletableFuture.supplyAsync / thenApplyAsync 等最终都经过 execute，因此只需包装这一处。
+ */
+public class BreakdownPropagatingExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+
+    public BreakdownPropagatingExecutor(ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(StageBreakdown.wrap(command));
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,121 @@
+package org.example.consultantrag.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个请求的各阶段耗时明细
+ *
+ * 通过 ThreadLocal 绑定到处理请求的线程；提交到 chatExecutor / retrievalExecutor / 工具线程池的任务
+ * 由 {@link #wrap} 带上同一个明细，因此并行阶段（记忆加载、BM25、工具）也会记入。
+ * 同名阶段多次出现（如多轮生成、多个工具）时累加耗时和次数。
+ */
+public final class StageBreakdown {
+
+    private static final ThreadLocal<StageBreakdown> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+
+    private static final class Stage {
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+    }
+
+    /**
+     * 为当前线程开始记录一个新的明细
+     */
+    public static StageBreakdown begin() {
+        StageBreakdown breakdown = new StageBreakdown();
+        CURRENT.set(breakdown);
+        return breakdown;
+    }
+
+    /**
+     * 当前线程绑定的明细，没有时返回 null
+     */
+    public static StageBreakdown current() {
+        return CURRENT.get();
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * 让任务在执行线程上沿用提交时的明细
+     */
+    public static Runnable wrap(Runnable task) {
+        StageBreakdown breakdown = CURRENT.get();
+        if (breakdown == null) return task;
+        return () -> {
+            StageBreakdown previous = CURRENT.get();
+            CURRENT.set(breakdown);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        StageBreakdown breakdown = CURRENT.get();
+        if (breakdown == null) return task;
+        return () -> {
+            StageBreakdown previous = CURRENT.get();
+            CURRENT.set(breakdown);
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    void add(String stage, long nanos) {
+        Stage entry = stages.computeIfAbsent(stage, name -> new Stage());
+        entry.nanos.addAndGet(nanos);
+        entry.count.incrementAndGet();
+    }
+
+    /**
+     * Server-Timing 响应头格式：stage;dur=毫秒, ...，末尾附带请求总耗时 total
+     */
+    public String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        stages.forEach((name, stage) -> header.append(name)
+                .append(";dur=").append(millis(stage.nanos.get()))
+                .append(";desc=\"x").append(stage.count.get()).append("\", "));
+        return header.append("total;dur=").append(millis(System.nanoTime() - startNanos)).toString();
+    }
+
+    /**
+     * 以 { stage: { millis, count } } 形式返回，供 SSE 结尾的 timing 事件使用
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        stages.forEach((name, stage) -> result.put(name, Map.of(
+                "millis", Double.parseDouble(millis(stage.nanos.get())),
+                "count", stage.count.get())));
+        result.put("total", Map.of("millis", Double.parseDouble(millis(System.nanoTime() - startNanos)), "count", 1));
+        return result;
+    }
+
+    private static void restore(StageBreakdown previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
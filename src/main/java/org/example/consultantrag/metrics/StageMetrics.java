@@ -0,0 +1,152 @@
+package org.example.consultantrag.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 各处理阶段的耗时指标（Micrometer，经 /actuator/prometheus 导出）
+ *
+ * - rag_stage_seconds{stage}：解析、分块、向量化、写入 / 检索向量库、BM25、会话记忆读写等
+ * - rag_tool_seconds{tool, outcome}：每次工具调用
+ * - rag_llm_ttft_seconds / rag_llm_duration_seconds{mode}：首 token 时间与整轮生成时间
+ * - rag_llm_tokens_per_second{mode}：首 token 之后的输出速度
+ * - rag_router_decisions_total{route} / rag_router_chunks：检索路由的判定次数与每轮检索的片段数（跳过检索记 0）
+ *
+ * 全部发布百分位直方图，P95 / P99 在 Prometheus 端用 histogram_quantile 聚合。
+ * 当前线程绑定了 {@link StageBreakdown} 时同时记入请求明细。
+ */
+@Component
+public class StageMetrics {
+
+    private final MeterRegistry registry;
+    private final boolean breakdownEnabled;
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public StageMetrics(MeterRegistry registry,
+                        @Value("${rag.metrics.stage-breakdown:false}") boolean breakdownEnabled) {
+        this.registry = registry;
+        this.breakdownEnabled = breakdownEnabled;
+    }
+
+    /**
+     * 开启请求明细时为当前线程开始记录，否则返回 null；调用方结束时需调用 StageBreakdown.end()
+     */
+    public StageBreakdown beginBreakdown() {
+        return breakdownEnabled ? StageBreakdown.begin() : null;
+    }
+
+    /**
+     * 执行并记录一个阶段的耗时（异常时同样记录）
+     */
+    public <T> T time(String stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - start);
+        }
+    }
+
+    public void record(String stage, long nanos) {
+        timer("rag.stage", "stage", stage).record(nanos, TimeUnit.NANOSECONDS);
+        addToBreakdown(stage, nanos);
+    }
+
+    public void recordTool(String tool, long nanos, boolean success) {
+        timer("rag.tool", "tool", tool, "outcome", success ? "success" : "error").record(nanos, TimeUnit.NANOSECONDS);
+        addToBreakdown("tool_" + tool, nanos);
+    }
+
+    /**
+     * 记录一次检索路由判定
+     *
+     * @param maxResults 本轮检索的片段数，跳过检索时为 0
+     */
+    public void recordRoute(String route, int maxResults) {
+        counters.computeIfAbsent(route, key -> Counter.builder("rag.router.decisions")
+                .tag("route", route)
+                .register(registry)).increment();
+        summary("rag.router.chunks").record(maxResults);
+    }
+
+    /**
+     * 开始计时一轮模型生成
+     *
+     * @param mode stream / sync，非流式生成没有首 token 时间
+     */
+    public Generation startGeneration(String mode) {
+        return new Generation(mode, StageBreakdown.current());
+    }
+
+    /**
+     * 一轮生成的计时器；流式回调可能在其它线程上触发，因此创建时即记下所属的请求明细
+     */
+    public final class Generation {
+
+        private final String mode;
+        private final StageBreakdown breakdown;
+        private final long startNanos = System.nanoTime();
+        private volatile long firstTokenNanos;
+
+        private Generation(String mode, StageBreakdown breakdown) {
+            this.mode = mode;
+            this.breakdown = breakdown;
+        }
+
+        public void onToken() {
+            if (firstTokenNanos == 0) {
+                firstTokenNanos = System.nanoTime();
+                long ttft = firstTokenNanos - startNanos;
+                timer("rag.llm.ttft", "mode", mode).record(ttft, TimeUnit.NANOSECONDS);
+                if (breakdown != null) breakdown.add("llm_ttft", ttft);
+            }
+        }
+
+        /**
+         * @param outputTokens 输出 token 数（模型未返回用量时传流式分块数，null 时不记录速度）
+         */
+        public void finish(Integer outputTokens) {
+            long end = System.nanoTime();
+            long total = end - startNanos;
+            timer("rag.llm.duration", "mode", mode).record(total, TimeUnit.NANOSECONDS);
+            if (breakdown != null) breakdown.add("llm", total);
+
+            if (outputTokens == null || outputTokens == 0) return;
+            // 流式生成只统计首 token 之后的解码速度，排除排队和 prompt 处理时间
+            long decodeNanos = firstTokenNanos == 0 ? total : end - firstTokenNanos;
+            if (decodeNanos <= 0) return;
+            summary("rag.llm.tokens.per.second", "mode", mode)
+                    .record(outputTokens / (decodeNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        }
+    }
+
+    private void addToBreakdown(String stage, long nanos) {
+        StageBreakdown breakdown = StageBreakdown.current();
+        if (breakdown != null) breakdown.add(stage, nanos);
+    }
+
+    private Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(name + String.join(",", tags), key -> Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private DistributionSummary summary(String name, String... tags) {
+        return summaries.computeIfAbsent(name + String.join(",", tags), key -> DistributionSummary.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+}
@@ -0,0 +1,175 @@
+package org.example.consultantrag.ollama;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.request.json.JsonSchemaElementHelper;
+import dev.langchain4j.model.output.Response;
+import dev.langchain4j.model.output.TokenUsage;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * 直接调用 Ollama /api/chat 的流式客户端，支持在流式模式下传入工具
+ *
+ * LangChain4j 0.36 的 OllamaStreamingChatModel 不支持工具调用，而 Ollama 接口本身支持：
+ * 流式返回时文本逐块下发，工具调用出现在某个分块的 message.tool_calls 中。
+ * 这里逐块回调文本，结束时把文本和工具调用合并成一个 AiMessage 返回，
+ * 最后一个分块（done=true）中的 prompt_eval_count / eval_count 作为 token 用量一并返回。
+ */
+public class OllamaToolStreamClient {
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final WebClient webClient;
+    private final String modelName;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public OllamaToolStreamClient(String baseUrl, String modelName, Duration timeout) {
+        this.modelName = modelName;
+        this.webClient = WebClient.builder()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create().responseTimeout(timeout)))
+                .build();
+    }
+
+    /**
+     * 流式生成一轮回复（阻塞直到本轮结束）
+     *
+     * @param onToken   每个文本分块的回调
+     * @param cancelled 返回 true 时停止读取（客户端断开）
+     * @return 本轮完整的 AiMessage（可能包含工具调用）与 token 用量（Ollama 未返回时为 null）
+     */
+    public Response<AiMessage> chat(List<ChatMessage> messages, List<ToolSpecification> tools,
+                          Consumer<String> onToken, BooleanSupplier cancelled) {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("model", modelName);
+        request.put("messages", messages.stream().map(this::toOllamaMessage).toList());
+        if (tools != null && !tools.isEmpty()) {
+            request.put("tools", tools.stream().map(OllamaToolStreamClient::toOllamaTool).toList());
+        }
+        request.put("stream", true);
+
+        StringBuilder text = new StringBuilder();
+        List<ToolExecutionRequest> toolRequests = new ArrayList<>();
+        AtomicReference<TokenUsage> tokenUsage = new AtomicReference<>();
+
+        webClient.post()
+                .uri("/api/chat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(request)
+                .retrieve()
+                .bodyToFlux(String.class)
+                .takeUntil(line -> cancelled.getAsBoolean())
+                .doOnNext(line -> {
+                    if (line.isBlank()) return;
+                    JsonNode chunk = readTree(line);
+                    if (chunk.hasNonNull("error")) {
+                        throw new RuntimeException("Ollama 返回错误: " + chunk.get("error").asText());
+                    }
+                    JsonNode message = chunk.path("message");
+                    String content = message.path("content").asText("");
+                    if (!content.isEmpty()) {
+                        text.append(content);
+                        onToken.accept(content);
+                    }
+                    for (JsonNode call : message.path("tool_calls")) {
+                        JsonNode function = call.path("function");
+                        toolRequests.add(ToolExecutionRequest.builder()
+                                .id(UUID.randomUUID().toString())
+                                .name(function.path("name").asText())
+                                .arguments(function.path("arguments").toString())
+                                .build());
+                    }
+                    if (chunk.path("done").asBoolean(false) && chunk.has("eval_count")) {
+                        tokenUsage.set(new TokenUsage(chunk.path("prompt_eval_count").asInt(0),
+                                chunk.path("eval_count").asInt(0)));
+                    }
+                })
+                .blockLast();
+
+        AiMessage aiMessage;
+        if (toolRequests.isEmpty()) {
+            aiMessage = AiMessage.from(text.toString());
+        } else {
+            aiMessage = text.isEmpty() ? AiMessage.from(toolRequests) : AiMessage.from(text.toString(), toolRequests);
+        }
+        return Response.from(aiMessage, tokenUsage.get());
+    }
+
+    private Map<String, Object> toOllamaMessage(ChatMessage message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (message instanceof SystemMessage systemMessage) {
+            result.put("role", "system");
+            result.put("content", systemMessage.text());
+        } else if (message instanceof UserMessage userMessage) {
+            result.put("role", "user");
+            result.put("content", userMessage.singleText());
+        } else if (message instanceof AiMessage aiMessage) {
+            result.put("role", "assistant");
+            result.put("content", aiMessage.text() == null ? "" : aiMessage.text());
+            if (aiMessage.hasToolExecutionRequests()) {
+                result.put("tool_calls", aiMessage.toolExecutionRequests().stream()
+                        .map(request -> Map.of("function", Map.of(
+                                "name", request.name(),
+                                "arguments", readMap(request.arguments()))))
+                        .toList());
+            }
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            result.put("role", "tool");
+            result.put("content", resultMessage.text());
+        } else {
+            throw new IllegalArgumentException("不支持的消息类型: " + message.type());
+        }
+        return result;
+    }
+
+    private static Map<String, Object> toOllamaTool(ToolSpecification specification) {
+        Map<String, Object> parameters = specification.parameters() == null
+                ? Map.of("type", "object", "properties", Map.of())
+                : JsonSchemaElementHelper.toMap(specification.parameters());
+        Map<String, Object> function = new LinkedHashMap<>();
+        function.put("name", specification.name());
+        function.put("description", specification.description());
+        function.put("parameters", parameters);
+        return Map.of("type", "function", "function", function);
+    }
+
+    private JsonNode readTree(String json) {
+        try {
+            return objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Ollama 响应解析失败: " + e.getOriginalMessage());
+        }
+    }
+
+    private Map<String, Object> readMap(String json) {
+        if (json == null || json.isBlank()) return Map.of();
+        try {
+            return objectMapper.readValue(json, MAP_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("工具参数解析失败: " + e.getOriginalMessage());
+        }
+    }
+}
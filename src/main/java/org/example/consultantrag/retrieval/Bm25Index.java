@@ -0,0 +1,187 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.filter.Filter;
+import jakarta.annotation.PostConstruct;
+import org.example.consultantrag.store.SegmentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存中的 BM25 倒排索引，与向量库使用相同的点 ID
+ *
+ * 入库流水线写入 / 删除向量的同时更新本索引；启动时从向量库全量重建，
+ * 因此不单独持久化。分词规则见 {@link TextTokenizer}。
+ */
+@Component
+public class Bm25Index {
+
+    private static final Logger logger = LoggerFactory.getLogger(Bm25Index.class);
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    public record ScoredSegment(String id, double score, TextSegment segment) {
+    }
+
+    private record Doc(TextSegment segment, Map<String, Integer> termFrequencies, int length) {
+    }
+
+    @Autowired
+    private SegmentStore embeddingStore;
+
+    private final Map<String, Doc> docs = new HashMap<>();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private long totalLength;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        try {
+            embeddingStore.forEachSegment((id, segment) -> {
+                ids.add(id);
+                segments.add(segment);
+            });
+        } catch (Exception e) {
+            // 向量库不可用时不阻塞启动，混合检索退化为纯向量检索，新入库的文档仍会被索引
+            logger.warn("BM25 索引重建失败: {}", e.getMessage());
+            return;
+        }
+        upsertAll(ids, segments);
+        logger.info("BM25 索引已重建: {} 个片段，耗时 {}ms", ids.size(), System.currentTimeMillis() - start);
+    }
+
+    public void upsertAll(List<String> ids, List<TextSegment> segments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                remove(ids.get(i));
+                add(ids.get(i), segments.get(i));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            ids.forEach(this::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已索引片段中某个元数据字段的全部取值（启动时收集城市等候选词用）
+     */
+    public Set<String> distinctValues(String key) {
+        lock.readLock().lock();
+        try {
+            Set<String> values = new HashSet<>();
+            for (Doc doc : docs.values()) {
+                String value = doc.segment().metadata().getString(key);
+                if (value != null) values.add(value);
+            }
+            return values;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索
+     *
+     * @param filter 元数据过滤，可为 null
+     * @return 按分数降序，最多 maxResults 个
+     */
+    public List<ScoredSegment> search(String query, int maxResults, Filter filter) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(TextTokenizer.tokenize(query)));
+        if (terms.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            if (docs.isEmpty()) return List.of();
+            int docCount = docs.size();
+            double avgLength = (double) totalLength / docCount;
+
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : terms) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting == null) continue;
+                double idf = Math.log(1 + (docCount - posting.size() + 0.5) / (posting.size() + 0.5));
+                posting.forEach((id, tf) -> {
+                    double norm = tf + K1 * (1 - B + B * docs.get(id).length() / avgLength);
+                    scores.merge(id, idf * tf * (K1 + 1) / norm, Double::sum);
+                });
+            }
+
+            PriorityQueue<ScoredSegment> top = new PriorityQueue<>(Comparator.comparingDouble(ScoredSegment::score));
+            scores.forEach((id, score) -> {
+                TextSegment segment = docs.get(id).segment();
+                if (filter != null && !filter.test(segment.metadata())) return;
+                top.add(new ScoredSegment(id, score, segment));
+                if (top.size() > maxResults) {
+                    top.poll();
+                }
+            });
+
+            List<ScoredSegment> result = new ArrayList<>(top);
+            result.sort(Comparator.comparingDouble(ScoredSegment::score).reversed());
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void add(String id, TextSegment segment) {
+        List<String> tokens = TextTokenizer.tokenize(segment.text());
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        tokens.forEach(token -> termFrequencies.merge(token, 1, Integer::sum));
+
+        docs.put(id, new Doc(segment, termFrequencies, tokens.size()));
+        totalLength += tokens.size();
+        termFrequencies.forEach((term, tf) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, tf));
+    }
+
+    private void remove(String id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) return;
+        totalLength -= doc.length();
+        doc.termFrequencies().keySet().forEach(term -> {
+            Map<String, Integer> posting = postings.get(term);
+            posting.remove(id);
+            if (posting.isEmpty()) {
+                postings.remove(term);
+            }
+        });
+    }
+}
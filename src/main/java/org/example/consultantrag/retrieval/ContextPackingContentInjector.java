@@ -0,0 +1,308 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.Tokenizer;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.injector.ContentInjector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 检索结果注入提示词前的整理：去重、合并相邻片段、按 token 预算装箱
+ *
+ * 1. 近似重复：与排名更高的片段词集 Jaccard 相似度超过阈值的直接丢弃
+ * 2. 合并：同一文档中原文区间重叠或首尾相接的片段拼成一段，去掉分块时重叠的部分
+ *    - 片段带 start_offset / end_offset 时按偏移判断，且要求 uploaded_at 相同：增量入库后未变化的片段保留旧偏移，
+ *      与新片段不在同一坐标系下，不能按偏移拼接
+ *    - 没有偏移的片段（recursive 分块）只在 index 连续且前一段结尾与后一段开头的重叠文本确实一致时合并；
+ *      index 在增量入库后不保证相邻，不单独作为合并依据
+ * 3. 装箱：按排名依次放入，超出 token 预算的跳过；第一段就超预算时截断
+ *
+ * 提示词格式与 LangChain4j 默认的 DefaultContentInjector 保持一致。
+ */
+public class ContextPackingContentInjector implements ContentInjector {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContextPackingContentInjector.class);
+
+    /**
+     * 用户问题与检索内容之间的分隔（与 DefaultContentInjector 的提示词格式一致）
+     */
+    public static final String CONTEXT_MARKER = "\n\nAnswer using the following information:\n";
+
+    private static final String DOCUMENT_ID_KEY = "document_id";
+    private static final String INDEX_KEY = "index";
+    private static final String UPLOADED_AT_KEY = "uploaded_at";
+    private static final String START_OFFSET_KEY = "start_offset";
+    private static final String END_OFFSET_KEY = "end_offset";
+    private static final int MAX_OVERLAP_SEARCH = 200;
+    private static final int MIN_OVERLAP = 8;
+
+    private final Tokenizer tokenizer;
+    private final int tokenBudget;
+    private final double duplicateThreshold;
+
+    private static final class Chunk {
+        final int rank;
+        final String documentId;
+        final int firstIndex;
+        int lastIndex;
+        String text;
+        long startOffset = -1;
+        long endOffset = -1;
+        long uploadedAt = -1;
+
+        Chunk(int rank, String documentId, int index, String text) {
+            this.rank = rank;
+            this.documentId = documentId;
+            this.firstIndex = index;
+            this.lastIndex = index;
+            this.text = text;
+        }
+
+        boolean hasOffsets() {
+            return startOffset >= 0 && endOffset >= startOffset;
+        }
+    }
+
+    /**
+     * @param tokenBudget        注入内容的 token 上限（不含系统提示词和用户问题）
+     * @param duplicateThreshold 近似重复判定阈值（0~1）
+     */
+    public ContextPackingContentInjector(Tokenizer tokenizer, int tokenBudget, double duplicateThreshold) {
+        this.tokenizer = tokenizer;
+        this.tokenBudget = tokenBudget;
+        this.duplicateThreshold = duplicateThreshold;
+    }
+
+    /**
+     * 只处理用户消息，其他类型的消息原样返回
+     */
+    @Override
+    public ChatMessage inject(List<Content> contents, ChatMessage chatMessage) {
+        if (contents.isEmpty() || !(chatMessage instanceof UserMessage userMessage)) return chatMessage;
+
+        List<String> packed = pack(contents);
+        if (packed.isEmpty()) return userMessage;
+
+        String text = userMessage.singleText() + CONTEXT_MARKER + String.join("\n\n", packed);
+        return userMessage.name() == null ? UserMessage.from(text) : UserMessage.from(userMessage.name(), text);
+    }
+
+    /**
+     * 0.36.x 中仍是抽象方法，必须实现；委托给 inject(List, ChatMessage)
+     */
+    @Deprecated
+    @Override
+    public UserMessage inject(List<Content> contents, UserMessage userMessage) {
+        return (UserMessage) inject(contents, (ChatMessage) userMessage);
+    }
+
+    List<String> pack(List<Content> contents) {
+        List<Chunk> chunks = merge(deduplicate(contents));
+        chunks.sort(Comparator.comparingInt(chunk -> chunk.rank));
+
+        List<String> packed = new ArrayList<>();
+        int used = 0;
+        int inputTokens = 0;
+        for (Chunk chunk : chunks) {
+            int tokens = tokenizer.estimateTokenCountInText(chunk.text);
+            inputTokens += tokens;
+            if (used + tokens <= tokenBudget) {
+                packed.add(chunk.text);
+                used += tokens;
+            } else if (packed.isEmpty()) {
+                // 排名第一的片段本身超预算：截断而不是整段丢弃
+                String truncated = truncate(chunk.text, tokenBudget);
+                packed.add(truncated);
+                used += tokenizer.estimateTokenCountInText(truncated);
+            }
+        }
+
+        logger.debug("上下文装箱: {} 个片段 -> {} 段，约 {} -> {} tokens（预算 {}）",
+                contents.size(), packed.size(), inputTokens, used, tokenBudget);
+        return packed;
+    }
+
+    private List<Chunk> deduplicate(List<Content> contents) {
+        List<Chunk> kept = new ArrayList<>();
+        List<Set<String>> keptTerms = new ArrayList<>();
+        for (int rank = 0; rank < contents.size(); rank++) {
+            TextSegment segment = contents.get(rank).textSegment();
+            Set<String> terms = new HashSet<>(TextTokenizer.tokenize(segment.text()));
+            boolean duplicate = false;
+            for (Set<String> other : keptTerms) {
+                if (jaccard(terms, other) >= duplicateThreshold) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (duplicate) continue;
+
+            Metadata metadata = segment.metadata();
+            Chunk chunk = new Chunk(rank, metadataString(metadata, DOCUMENT_ID_KEY), parseIndex(metadata), segment.text());
+            chunk.startOffset = parseOffset(metadata, START_OFFSET_KEY);
+            chunk.endOffset = parseOffset(metadata, END_OFFSET_KEY);
+            chunk.uploadedAt = parseOffset(metadata, UPLOADED_AT_KEY);
+            kept.add(chunk);
+            keptTerms.add(terms);
+        }
+        return kept;
+    }
+
+    /**
+     * 同一文档（且同一次上传）内按原文起始偏移排序，区间重叠或相接的片段合并成一段；没有偏移的片段按 index 排序，
+     * 只在重叠文本一致时合并。合并后的排名取其中最靠前的
+     */
+    private List<Chunk> merge(List<Chunk> chunks) {
+        Map<String, List<Chunk>> groups = new LinkedHashMap<>();
+        List<Chunk> result = new ArrayList<>();
+        for (Chunk chunk : chunks) {
+            if (chunk.documentId == null) {
+                result.add(chunk);
+            } else if (chunk.hasOffsets()) {
+                groups.computeIfAbsent(chunk.documentId + "@" + chunk.uploadedAt, key -> new ArrayList<>()).add(chunk);
+            } else if (chunk.firstIndex >= 0) {
+                groups.computeIfAbsent(chunk.documentId + "#", key -> new ArrayList<>()).add(chunk);
+            } else {
+                result.add(chunk);
+            }
+        }
+
+        for (List<Chunk> group : groups.values()) {
+            boolean byOffset = group.get(0).hasOffsets();
+            group.sort(byOffset
+                    ? Comparator.<Chunk>comparingLong(chunk -> chunk.startOffset).thenComparingLong(chunk -> chunk.endOffset)
+                    : Comparator.comparingInt(chunk -> chunk.firstIndex));
+            Chunk current = group.get(0);
+            int bestRank = current.rank;
+            for (int i = 1; i < group.size(); i++) {
+                Chunk next = group.get(i);
+                String joined = byOffset ? joinByOffset(current, next) : joinByIndex(current, next);
+                if (joined != null) {
+                    current.text = joined;
+                    current.lastIndex = Math.max(current.lastIndex, next.lastIndex);
+                    current.endOffset = Math.max(current.endOffset, next.endOffset);
+                    bestRank = Math.min(bestRank, next.rank);
+                } else {
+                    result.add(withRank(current, bestRank));
+                    current = next;
+                    bestRank = next.rank;
+                }
+            }
+            result.add(withRank(current, bestRank));
+        }
+        return result;
+    }
+
+    private static Chunk withRank(Chunk chunk, int rank) {
+        if (chunk.rank == rank) return chunk;
+        Chunk ranked = new Chunk(rank, chunk.documentId, chunk.firstIndex, chunk.text);
+        ranked.lastIndex = chunk.lastIndex;
+        ranked.startOffset = chunk.startOffset;
+        ranked.endOffset = chunk.endOffset;
+        ranked.uploadedAt = chunk.uploadedAt;
+        return ranked;
+    }
+
+    /**
+     * 区间 [start, end) 重叠或相接时拼接：重叠部分须与文本一致，被前一段完全包含时保留前一段；不能合并时返回 null
+     */
+    private static String joinByOffset(Chunk first, Chunk second) {
+        if (second.startOffset > first.endOffset) return null;
+        if (second.endOffset <= first.endOffset) {
+            return second.text.isEmpty() || first.text.contains(second.text) ? first.text : null;
+        }
+        long overlap = first.endOffset - second.startOffset;
+        if (overlap == 0) return first.text + second.text;
+
+        int length = (int) overlap;
+        if (length > second.text.length() || length > first.text.length()
+                || !first.text.regionMatches(first.text.length() - length, second.text, 0, length)) {
+            return null;
+        }
+        return first.text + second.text.substring(length);
+    }
+
+    /**
+     * 没有偏移时：index 连续，且前一段结尾与后一段开头有至少 MIN_OVERLAP 个字符的重叠（分块时的 overlap）
+     */
+    private static String joinByIndex(Chunk first, Chunk second) {
+        if (second.firstIndex != first.lastIndex + 1) return null;
+        return joinOverlapping(first.text, second.text);
+    }
+
+    /**
+     * 去掉前一段结尾与后一段开头重复的部分（分块时的 overlap）；找不到重叠时返回 null
+     */
+    static String joinOverlapping(String first, String second) {
+        int max = Math.min(MAX_OVERLAP_SEARCH, Math.min(first.length(), second.length()));
+        for (int length = max; length >= MIN_OVERLAP; length--) {
+            if (first.regionMatches(first.length() - length, second, 0, length)) {
+                return first + second.substring(length);
+            }
+        }
+        return null;
+    }
+
+    private String truncate(String text, int budget) {
+        int low = 0;
+        int high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (tokenizer.estimateTokenCountInText(text.substring(0, mid)) <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return text.substring(0, low);
+    }
+
+    private static double jaccard(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) return 0;
+        int intersection = 0;
+        for (String term : a.size() < b.size() ? a : b) {
+            if ((a.size() < b.size() ? b : a).contains(term)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+
+    private static long parseOffset(Metadata metadata, String key) {
+        Object value = metadata.toMap().get(key);
+        if (value instanceof Number number) return number.longValue();
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String metadataString(Metadata metadata, String key) {
+        Object value = metadata.toMap().get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static int parseIndex(Metadata metadata) {
+        String index = metadataString(metadata, INDEX_KEY);
+        if (index == null) return -1;
+        try {
+            return Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.example.consultantrag.ingest.IngestionPipeline;
+import org.example.consultantrag.store.IsMissing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+
+/**
+ * 从对话中识别目的地（城市 / 区域），生成下推到向量检索与 BM25 的元数据过滤条件
+ *
+ * - 候选词来自已入库文档的 city / region 取值（启动时从 BM25 索引收集，入库完成时追加）与配置的城市列表，
+ *   "杭州市" 同时匹配 "杭州"
+ * - 本轮问题提到目的地时使用本轮的；没提到时沿用会话中最近一次提到的（追问“那门票多少钱”仍限定在该城市）
+ * - 过滤条件为“属于这些城市 / 区域，或未标注”，通用文档照常参与检索，只排除其他目的地的片段
+ *
+ * 检索与记忆加载并行，拿不到本轮的会话记忆，因此按会话 ID 记住最近一次的过滤条件（LRU，上限 maxSessions）。
+ */
+public class ConversationFilterExtractor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationFilterExtractor.class);
+
+    private static final String ADMINISTRATIVE_SUFFIXES = "市省区县";
+
+    private final boolean enabled;
+
+    // 别名 -> 原始取值；入库时整体替换（写少读多）
+    private volatile Map<String, String> cityAliases = Map.of();
+    private volatile Map<String, String> regionAliases = Map.of();
+
+    private final Map<Object, Filter> lastFilters;
+
+    /**
+     * @param enabled     false 时不从对话推断过滤条件
+     * @param maxSessions 记住最近过滤条件的会话数上限
+     */
+    public ConversationFilterExtractor(Collection<String> cities, Collection<String> regions,
+                                       boolean enabled, int maxSessions) {
+        this.enabled = enabled;
+        this.lastFilters = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Filter> eldest) {
+                return size() > maxSessions;
+            }
+        };
+        register(cities, regions);
+        logger.info("目的地过滤: 已知城市 {} 个，区域 {} 个",
+                new HashSet<>(cityAliases.values()).size(), new HashSet<>(regionAliases.values()).size());
+    }
+
+    /**
+     * 新入库文档的城市 / 区域加入候选词
+     */
+    public void register(String city, String region) {
+        register(city == null ? List.of() : List.of(city), region == null ? List.of() : List.of(region));
+    }
+
+    private synchronized void register(Collection<String> cities, Collection<String> regions) {
+        cityAliases = withAliases(cityAliases, cities);
+        regionAliases = withAliases(regionAliases, regions);
+    }
+
+    /**
+     * 本轮检索使用的过滤条件；没有识别到目的地时返回 null（检索全部）
+     */
+    public Filter extract(Query query) {
+        if (!enabled) return null;
+
+        Object memoryId = query.metadata() == null ? null : query.metadata().chatMemoryId();
+        Filter filter = fromText(query.text());
+        if (filter == null && query.metadata() != null) {
+            filter = fromHistory(query.metadata().chatMemory());
+        }
+
+        if (memoryId == null) return filter;
+        synchronized (lastFilters) {
+            if (filter != null) {
+                lastFilters.put(memoryId, filter);
+                return filter;
+            }
+            return lastFilters.get(memoryId);
+        }
+    }
+
+    /**
+     * 问题中提到的城市 / 区域；两者都有时同时满足
+     */
+    public Filter fromText(String text) {
+        if (text == null || text.isBlank()) return null;
+        String normalized = text.toLowerCase(Locale.ROOT);
+        Filter city = keyFilter(IngestionPipeline.CITY_KEY, find(normalized, cityAliases));
+        Filter region = keyFilter(IngestionPipeline.REGION_KEY, find(normalized, regionAliases));
+        if (city == null) return region;
+        return region == null ? city : Filter.and(city, region);
+    }
+
+    /**
+     * 问题中是否提到已知的城市 / 区域（不受 enabled 影响，供检索路由判断问题是否与目的地相关）
+     */
+    public boolean mentionsPlace(String text) {
+        if (text == null || text.isBlank()) return false;
+        String normalized = text.toLowerCase(Locale.ROOT);
+        return !find(normalized, cityAliases).isEmpty() || !find(normalized, regionAliases).isEmpty();
+    }
+
+    private Filter fromHistory(List<ChatMessage> messages) {
+        if (messages == null) return null;
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+                Filter filter = fromText(userMessage.singleText());
+                if (filter != null) return filter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 等于其中之一，或未标注该字段
+     */
+    private static Filter keyFilter(String key, List<String> values) {
+        if (values.isEmpty()) return null;
+        Filter match = values.size() == 1
+                ? metadataKey(key).isEqualTo(values.get(0))
+                : metadataKey(key).isIn(values);
+        return Filter.or(match, new IsMissing(key));
+    }
+
+    private static List<String> find(String text, Map<String, String> aliases) {
+        Set<String> values = new LinkedHashSet<>();
+        aliases.forEach((alias, value) -> {
+            if (text.contains(alias)) values.add(value);
+        });
+        return new ArrayList<>(values);
+    }
+
+    private static Map<String, String> withAliases(Map<String, String> current, Collection<String> values) {
+        Map<String, String> aliases = new HashMap<>(current);
+        for (String value : values) {
+            if (value == null || value.isBlank()) continue;
+            String name = value.strip();
+            String alias = name.toLowerCase(Locale.ROOT);
+            aliases.put(alias, name);
+            // "杭州市" 也按 "杭州" 匹配；去掉后缀只剩一个字的不加
+            if (alias.length() > 2 && ADMINISTRATIVE_SUFFIXES.indexOf(alias.charAt(alias.length() - 1)) >= 0) {
+                aliases.putIfAbsent(alias.substring(0, alias.length() - 1), name);
+            }
+        }
+        return Map.copyOf(aliases);
+    }
+}
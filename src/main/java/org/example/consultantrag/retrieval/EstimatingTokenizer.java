@@ -0,0 +1,102 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.Tokenizer;
+
+/**
+ * 按字符类别估算 token 数
+ *
+ * Ollama 不对外提供分词接口，这里按 Qwen 系列 BPE 词表的经验比例估算：
+ * 汉字约 1.4 字 / token，英文与数字约 4 字符 / token，标点和空白各算 1 个。
+ * 估算结果略偏大，用于上下文预算时宁可少放一点也不超限。
+ */
+public class EstimatingTokenizer implements Tokenizer {
+
+    private static final double CJK_CHARS_PER_TOKEN = 1.4;
+    private static final double LATIN_CHARS_PER_TOKEN = 4.0;
+    private static final int TOKENS_PER_MESSAGE = 4;
+
+    @Override
+    public int estimateTokenCountInText(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        return estimateTokenCount(text, 0, text.length());
+    }
+
+    /**
+     * 估算 text[start, end) 的 token 数，不创建子串（分块时逐句调用）
+     */
+    public int estimateTokenCount(CharSequence text, int start, int end) {
+        int cjk = 0;
+        int latin = 0;
+        int other = 0;
+        for (int i = start; i < end; ) {
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint);
+            Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+            if (script == Character.UnicodeScript.HAN
+                    || script == Character.UnicodeScript.HIRAGANA
+                    || script == Character.UnicodeScript.KATAKANA) {
+                cjk++;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                latin++;
+            } else if (codePoint != ' ') {
+                other++;
+            }
+        }
+        return (int) Math.ceil(cjk / CJK_CHARS_PER_TOKEN + latin / LATIN_CHARS_PER_TOKEN) + other;
+    }
+
+    @Override
+    public int estimateTokenCountInMessage(ChatMessage message) {
+        String text;
+        if (message instanceof SystemMessage systemMessage) {
+            text = systemMessage.text();
+        } else if (message instanceof UserMessage userMessage) {
+            text = userMessage.hasSingleText() ? userMessage.singleText() : userMessage.contents().toString();
+        } else if (message instanceof AiMessage aiMessage) {
+            int tokens = aiMessage.hasToolExecutionRequests()
+                    ? estimateTokenCountInToolExecutionRequests(aiMessage.toolExecutionRequests()) : 0;
+            return TOKENS_PER_MESSAGE + tokens + estimateTokenCountInText(aiMessage.text());
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            text = resultMessage.toolName() + resultMessage.text();
+        } else {
+            text = message.toString();
+        }
+        return TOKENS_PER_MESSAGE + estimateTokenCountInText(text);
+    }
+
+    @Override
+    public int estimateTokenCountInMessages(Iterable<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimateTokenCountInMessage(message);
+        }
+        return tokens;
+    }
+
+    @Override
+    public int estimateTokenCountInToolSpecifications(Iterable<ToolSpecification> toolSpecifications) {
+        int tokens = 0;
+        for (ToolSpecification specification : toolSpecifications) {
+            tokens += estimateTokenCountInText(specification.name())
+                    + estimateTokenCountInText(specification.description())
+                    + estimateTokenCountInText(String.valueOf(specification.parameters()));
+        }
+        return tokens;
+    }
+
+    @Override
+    public int estimateTokenCountInToolExecutionRequests(Iterable<ToolExecutionRequest> toolExecutionRequests) {
+        int tokens = 0;
+        for (ToolExecutionRequest request : toolExecutionRequests) {
+            tokens += estimateTokenCountInText(request.name()) + estimateTokenCountInText(request.arguments());
+        }
+        return tokens;
+    }
+}
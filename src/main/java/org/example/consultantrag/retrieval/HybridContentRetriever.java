@@ -0,0 +1,143 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.store.SegmentStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * 混合检索：BM25 与向量检索并行执行，用倒数排名融合（RRF）合并结果
+ *
+ * RRF 分数 = Σ 1 / (rrfK + 排名)，只看名次不看原始分数，两路分数无需归一化。
+ * 景点名、开放时间、区县等精确词由 BM25 命中，语义相近的表述由向量检索命中，
+ * 两路都靠前的片段排在最前，因此较小的 maxResults 也能保证前几条的准确率。
+ * 查询向量化、向量检索、BM25 三段分别计时。
+ *
+ * filterProvider 按本轮问题（及会话）给出元数据过滤条件，同时下推到向量检索和 BM25：
+ * Qdrant 借助 payload 索引只在匹配的片段中搜索，目的地越多、单次检索扫描的比例越小。
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private static final Logger logger = LoggerFactory.getLogger(HybridContentRetriever.class);
+
+    private final SegmentStore embeddingStore;
+    private final EmbeddingModel embeddingModel;
+    private final Bm25Index bm25Index;
+    private final Executor executor;
+    private final StageMetrics stageMetrics;
+    private final Function<Query, Filter> filterProvider;
+    private final int maxResults;
+    private final double minScore;
+    private final int candidates;
+    private final int rrfK;
+
+    /**
+     * @param maxResults 融合后返回的片段数
+     * @param minScore   向量检索的最低相关度（BM25 一路只要命中即参与融合）
+     * @param candidates 每一路参与融合的候选数
+     * @param rrfK       RRF 平滑常数，越大排名靠后的结果权重越高
+     */
+    public HybridContentRetriever(SegmentStore embeddingStore, EmbeddingModel embeddingModel, Bm25Index bm25Index,
+                                  Executor executor, StageMetrics stageMetrics,
+                                  int maxResults, double minScore, int candidates, int rrfK) {
+        this(embeddingStore, embeddingModel, bm25Index, executor, stageMetrics, null,
+                maxResults, minScore, candidates, rrfK);
+    }
+
+    /**
+     * @param filterProvider 按查询生成过滤条件，返回 null 表示不过滤；为 null 时始终检索全部
+     */
+    public HybridContentRetriever(SegmentStore embeddingStore, EmbeddingModel embeddingModel, Bm25Index bm25Index,
+                                  Executor executor, StageMetrics stageMetrics, Function<Query, Filter> filterProvider,
+                                  int maxResults, double minScore, int candidates, int rrfK) {
+        this.embeddingStore = embeddingStore;
+        this.embeddingModel = embeddingModel;
+        this.bm25Index = bm25Index;
+        this.executor = executor;
+        this.stageMetrics = stageMetrics;
+        this.filterProvider = filterProvider;
+        this.maxResults = maxResults;
+        this.minScore = minScore;
+        this.candidates = Math.max(candidates, maxResults);
+        this.rrfK = rrfK;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        Filter filter = filterProvider == null ? null : filterProvider.apply(query);
+        if (filter != null) {
+            logger.debug("检索过滤: {}", filter);
+        }
+
+        CompletableFuture<List<Bm25Index.ScoredSegment>> lexical = CompletableFuture
+                .supplyAsync(() -> stageMetrics.time("bm25_search",
+                        () -> bm25Index.search(query.text(), candidates, filter)), executor);
+
+        List<EmbeddingMatch<TextSegment>> semantic = vectorSearch(query.text(), filter);
+
+        List<Bm25Index.ScoredSegment> keyword;
+        try {
+            keyword = lexical.join();
+        } catch (CompletionException e) {
+            logger.warn("BM25 检索失败，仅使用向量检索结果: {}", e.getCause().getMessage());
+            keyword = List.of();
+        }
+
+        return fuse(semantic, keyword);
+    }
+
+    private List<EmbeddingMatch<TextSegment>> vectorSearch(String text, Filter filter) {
+        Embedding queryEmbedding = stageMetrics.time("query_embed", () -> embeddingModel.embed(text).content());
+        EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                .queryEmbedding(queryEmbedding)
+                .maxResults(candidates)
+                .minScore(minScore)
+                .filter(filter)
+                .build();
+        return stageMetrics.time("vector_search", () -> embeddingStore.search(request)).matches();
+    }
+
+    private List<Content> fuse(List<EmbeddingMatch<TextSegment>> semantic, List<Bm25Index.ScoredSegment> keyword) {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, TextSegment> segments = new HashMap<>();
+        for (int rank = 0; rank < semantic.size(); rank++) {
+            EmbeddingMatch<TextSegment> match = semantic.get(rank);
+            if (match.embedded() == null) continue;
+            scores.merge(match.embeddingId(), 1.0 / (rrfK + rank + 1), Double::sum);
+            segments.putIfAbsent(match.embeddingId(), match.embedded());
+        }
+        for (int rank = 0; rank < keyword.size(); rank++) {
+            Bm25Index.ScoredSegment match = keyword.get(rank);
+            scores.merge(match.id(), 1.0 / (rrfK + rank + 1), Double::sum);
+            segments.putIfAbsent(match.id(), match.segment());
+        }
+
+        List<Map.Entry<String, Double>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+
+        logger.debug("混合检索: 向量 {} 条，BM25 {} 条，融合后 {} 条", semantic.size(), keyword.size(), ranked.size());
+        return ranked.stream()
+                .limit(maxResults)
+                .map(entry -> Content.from(segments.get(entry.getKey())))
+                .toList();
+    }
+}
@@ -0,0 +1,209 @@
+package org.example.consultantrag.retrieval;
+
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * 按规则判断本轮是否需要检索知识库、检索多少片段
+ *
+ * - 寒暄 / 致谢等闲聊：不检索
+ * - 只问当前时间 / 日期 / 天气或纯计算的短问题，且没提到任何地点、景点和知识库关键词：不检索，交给工具
+ * - 其余问题检索；长问题、对比 / 多问类问题检索更多片段
+ *
+ * “故宫几点关门”“北京明天下雨去哪玩”这类问题虽然带时间 / 天气词，答案（开放时间、室内备选）在知识库里，照常检索。
+ * 跳过检索即省掉一次查询向量化和一次向量检索。判定结果按类别计数，同时记入 rag_router_* 指标。
+ */
+public class RuleBasedQueryRouter implements QueryRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleBasedQueryRouter.class);
+
+    public enum Route {
+        SMALL_TALK,
+        TOOL_ONLY,
+        RETRIEVE,
+        RETRIEVE_DEEP
+    }
+
+    public record Decision(Route route, int maxResults) {
+        public boolean retrieve() {
+            return maxResults > 0;
+        }
+    }
+
+    private static final Pattern SMALL_TALK = Pattern.compile(
+            "你好|您好|嗨|哈喽|hi|hello|hey|谢谢|多谢|感谢|thanks|thank you|thx|好的|好吧|好|ok|okay|嗯|哦|收到|"
+                    + "明白了|明白|知道了|懂了|再见|拜拜|bye|早上好|中午好|下午好|晚上好|晚安|在吗|辛苦了|不客气|没问题");
+    private static final Pattern PUNCTUATION_OR_SPACE = Pattern.compile("[\\p{P}\\p{S}\\s啊呀哈啦的了吧呢]+");
+
+    // 判定答案是否依赖当前时间（timeSensitive）用的宽口径
+    private static final Pattern WEATHER = Pattern.compile(
+            "天气|气温|温度|下雨|下雪|刮风|湿度|紫外线|weather|temperature|forecast");
+    private static final Pattern TIME = Pattern.compile(
+            "几点|现在时间|当前时间|日期|几号|星期几|周几|what time|what date|today");
+    // 判定纯工具问题用的窄口径：只问当前时间 / 日期 / 天气本身；“几点”“星期几”是询问开放时间的常见说法，不在其中
+    private static final Pattern CURRENT_TIME_QUESTION = Pattern.compile(
+            "现在时间|当前时间|现在是什么时间|今天几号|今天是几号|今天日期|今天是什么日子|"
+                    + "what time is it|current time|what date is it|today's date");
+    private static final Pattern WEATHER_QUESTION = Pattern.compile(
+            "天气|气温|下雨吗|会下雨|下雪吗|会下雪|weather|forecast");
+    // 景点类名词（知识库里的地点不一定都标注了城市 / 区域）
+    private static final Pattern ATTRACTION = Pattern.compile(
+            "宫|寺|庙|园|馆|山|湖|塔|街|楼|桥|岛|景区|景点|广场|古镇|故居|乐园");
+    private static final Pattern CALCULATION = Pattern.compile(
+            "\\d+(\\.\\d+)?\\s*[-+*/×÷^%]\\s*\\d+|计算|算一下|算算|等于多少|平方根|开方|次方");
+
+    // 答案随时间变化的说法（缓存等场景需要绕开）
+    private static final Pattern TIME_DEPENDENT = Pattern.compile(
+            "今天|明天|后天|昨天|今晚|现在|目前|最新|实时|本周|这周|下周|本月|today|tomorrow|\\bnow\\b|latest");
+
+    private static final Pattern DEEP = Pattern.compile(
+            "对比|比较|区别|差异|分别|优缺点|有哪些|步骤|流程|\\bvs\\b|以及");
+
+    private final IntFunction<ContentRetriever> retrieverFactory;
+    private final Map<Integer, ContentRetriever> retrievers = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final int defaultMaxResults;
+    private final int deepMaxResults;
+    private final List<String> knowledgeKeywords;
+    private final int maxToolQueryChars;
+    private final int deepQueryChars;
+    private final Predicate<String> placeMentioned;
+    private final StageMetrics stageMetrics;
+
+    private final Map<Route, AtomicLong> counts = new EnumMap<>(Route.class);
+    private final AtomicLong retrievedChunks = new AtomicLong();
+
+    /**
+     * @param retrieverFactory  按片段数构造检索器（同一片段数只构造一次）
+     * @param enabled           false 时所有问题都按默认片段数检索
+     * @param knowledgeKeywords 命中时即使像工具问题也照常检索（业务领域词）
+     * @param maxToolQueryChars 超过该长度的问题不判定为纯工具问题
+     * @param deepQueryChars    超过该长度的问题按 deepMaxResults 检索
+     */
+    public RuleBasedQueryRouter(IntFunction<ContentRetriever> retrieverFactory, boolean enabled,
+                                int defaultMaxResults, int deepMaxResults, List<String> knowledgeKeywords,
+                                int maxToolQueryChars, int deepQueryChars) {
+        this(retrieverFactory, enabled, defaultMaxResults, deepMaxResults, knowledgeKeywords,
+                maxToolQueryChars, deepQueryChars, null, null);
+    }
+
+    /**
+     * @param placeMentioned 问题是否提到已知的城市 / 区域（如 ConversationFilterExtractor::mentionsPlace），可为 null
+     * @param stageMetrics   判定结果记入 rag_router_decisions_total / rag_router_chunks，可为 null
+     */
+    public RuleBasedQueryRouter(IntFunction<ContentRetriever> retrieverFactory, boolean enabled,
+                                int defaultMaxResults, int deepMaxResults, List<String> knowledgeKeywords,
+                                int maxToolQueryChars, int deepQueryChars,
+                                Predicate<String> placeMentioned, StageMetrics stageMetrics) {
+        this.placeMentioned = placeMentioned == null ? text -> false : placeMentioned;
+        this.stageMetrics = stageMetrics;
+        this.retrieverFactory = retrieverFactory;
+        this.enabled = enabled;
+        this.defaultMaxResults = defaultMaxResults;
+        this.deepMaxResults = deepMaxResults;
+        this.knowledgeKeywords = knowledgeKeywords.stream()
+                .map(String::trim).filter(keyword -> !keyword.isEmpty())
+                .map(keyword -> keyword.toLowerCase(Locale.ROOT)).toList();
+        this.maxToolQueryChars = maxToolQueryChars;
+        this.deepQueryChars = deepQueryChars;
+        for (Route route : Route.values()) {
+            counts.put(route, new AtomicLong());
+        }
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        Decision decision = decide(query.text());
+        counts.get(decision.route()).incrementAndGet();
+        if (stageMetrics != null) {
+            stageMetrics.recordRoute(decision.route().name().toLowerCase(Locale.ROOT), decision.maxResults());
+        }
+        logger.debug("检索路由: {} (maxResults={}) <- {}", decision.route(), decision.maxResults(), query.text());
+        if (!decision.retrieve()) return List.of();
+
+        retrievedChunks.addAndGet(decision.maxResults());
+        return List.of(retrievers.computeIfAbsent(decision.maxResults(), retrieverFactory::apply));
+    }
+
+    /**
+     * 判定本轮的检索方式
+     */
+    public Decision decide(String text) {
+        if (!enabled) return new Decision(Route.RETRIEVE, defaultMaxResults);
+
+        String normalized = text == null ? "" : text.strip().toLowerCase(Locale.ROOT);
+        String remainder = PUNCTUATION_OR_SPACE.matcher(SMALL_TALK.matcher(normalized).replaceAll("")).replaceAll("");
+        if (remainder.isEmpty()) {
+            return new Decision(Route.SMALL_TALK, 0);
+        }
+
+        boolean toolIntent = WEATHER_QUESTION.matcher(normalized).find()
+                || CURRENT_TIME_QUESTION.matcher(normalized).find()
+                || CALCULATION.matcher(normalized).find();
+        if (toolIntent && normalized.length() <= maxToolQueryChars && !aboutKnowledge(normalized)) {
+            return new Decision(Route.TOOL_ONLY, 0);
+        }
+
+        long questions = normalized.chars().filter(c -> c == '?' || c == '？').count();
+        if (normalized.length() > deepQueryChars || questions > 1 || DEEP.matcher(normalized).find()) {
+            return new Decision(Route.RETRIEVE_DEEP, deepMaxResults);
+        }
+        return new Decision(Route.RETRIEVE, defaultMaxResults);
+    }
+
+    /**
+     * 提到知识库关键词、已知城市 / 区域或景点类名词
+     */
+    private boolean aboutKnowledge(String normalized) {
+        return knowledgeKeywords.stream().anyMatch(normalized::contains)
+                || placeMentioned.test(normalized)
+                || ATTRACTION.matcher(normalized).find();
+    }
+
+    /**
+     * 问题的答案是否依赖当前时间或实时数据（天气、时间、“今天 / 最新”等）
+     */
+    public boolean timeSensitive(String text) {
+        String normalized = text == null ? "" : text.toLowerCase(Locale.ROOT);
+        return WEATHER.matcher(normalized).find()
+                || TIME.matcher(normalized).find()
+                || TIME_DEPENDENT.matcher(normalized).find();
+    }
+
+    /**
+     * 各类判定的次数与跳过检索的比例
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = 0;
+        long skipped = 0;
+        for (Map.Entry<Route, AtomicLong> entry : counts.entrySet()) {
+            long count = entry.getValue().get();
+            stats.put(entry.getKey().name().toLowerCase(Locale.ROOT), count);
+            total += count;
+            if (entry.getKey() == Route.SMALL_TALK || entry.getKey() == Route.TOOL_ONLY) skipped += count;
+        }
+        long retrieved = total - skipped;
+        stats.put("total", total);
+        stats.put("skipRate", total == 0 ? 0.0 : (double) skipped / total);
+        stats.put("avgMaxResults", retrieved == 0 ? 0.0 : (double) retrievedChunks.get() / retrieved);
+        stats.put("enabled", enabled);
+        return stats;
+    }
+}
@@ -0,0 +1,39 @@
+package org.example.consultantrag.service;
+
+import java.util.Map;
+
+/**
+ * 流式对话中下发给前端的事件
+ *
+ * - token：回复文本分块
+ * - tool：工具调用状态（running / done）
+ * - timing：各阶段耗时明细（开启 rag.metrics.stage-breakdown 时，紧接在 done 之前）
+ * - done：回复结束
+ * - error：出错，随后结束
+ */
+public record ChatEvent(String type, Object data) {
+
+    public static ChatEvent token(String text) {
+        return new ChatEvent("token", text);
+    }
+
+    public static ChatEvent toolRunning(String name) {
+        return new ChatEvent("tool", Map.of("name", name, "state", "running"));
+    }
+
+    public static ChatEvent toolDone(String name, long millis) {
+        return new ChatEvent("tool", Map.of("name", name, "state", "done", "millis", millis));
+    }
+
+    public static ChatEvent timing(Map<String, Object> stages) {
+        return new ChatEvent("timing", stages);
+    }
+
+    public static ChatEvent done() {
+        return new ChatEvent("done", "");
+    }
+
+    public static ChatEvent error(String message) {
+        return new ChatEvent("error", message);
+    }
+}
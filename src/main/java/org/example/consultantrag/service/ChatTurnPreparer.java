@@ -0,0 +1,136 @@
+package org.example.consultantrag.service;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.rag.AugmentationRequest;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.query.Metadata;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 生成前的准备阶段编排（V1 / V2 共用）
+ *
+ * 加载会话记忆与检索（查询向量化 → 向量检索，并行的 BM25）是互不依赖的网络往返，
+ * 这里在 chatExecutor 上同时启动，生成前的等待时间从两者之和降为较慢的一方：
+ * - 记忆阶段超时或失败时整轮失败（没有记忆无法写回本轮对话）
+ * - 检索阶段超时或失败时降级为不带参考内容的原始问题，不影响回答
+ * 两个阶段（memory / retrieval）与整个准备阶段（prepare）的耗时记入 rag_stage_seconds。
+ */
+@Component
+public class ChatTurnPreparer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatTurnPreparer.class);
+
+    private final ChatMemoryProvider chatMemoryProvider;
+    private final RetrievalAugmentor retrievalAugmentor;
+    private final ExecutorService executor;
+    private final StageMetrics stageMetrics;
+    private final Duration memoryTimeout;
+    private final Duration retrievalTimeout;
+    private final SystemMessage systemMessage = SystemMessage.from(loadSystemPrompt());
+
+    public ChatTurnPreparer(ChatMemoryProvider chatMemoryProvider,
+                            RetrievalAugmentor retrievalAugmentor,
+                            @Qualifier("chatExecutor") ExecutorService executor,
+                            StageMetrics stageMetrics,
+                            @Value("${rag.pipeline.memory-timeout:PT2S}") Duration memoryTimeout,
+                            @Value("${rag.pipeline.retrieval-timeout:PT3S}") Duration retrievalTimeout) {
+        this.chatMemoryProvider = chatMemoryProvider;
+        this.retrievalAugmentor = retrievalAugmentor;
+        this.executor = executor;
+        this.stageMetrics = stageMetrics;
+        this.memoryTimeout = memoryTimeout;
+        this.retrievalTimeout = retrievalTimeout;
+    }
+
+    /**
+     * 准备完成的一轮对话
+     *
+     * @param chatMemory       已写入本轮用户消息的会话记忆
+     * @param augmentedMessage 注入检索内容后的用户消息（检索跳过或降级时为原始问题）
+     */
+    public record PreparedTurn(ChatMemory chatMemory, ChatMessage augmentedMessage) {
+    }
+
+    /**
+     * 并行加载会话记忆和检索知识库，两者都就绪后写入系统提示词与（增强后的）用户消息
+     */
+    public CompletableFuture<PreparedTurn> prepare(String memoryId, String message) {
+        long start = System.nanoTime();
+        UserMessage userMessage = UserMessage.from(message);
+
+        CompletableFuture<ChatMemory> memoryStage = CompletableFuture.supplyAsync(() -> {
+                    ChatMemory chatMemory = stageMetrics.time("memory", () -> {
+                        ChatMemory memory = chatMemoryProvider.get(memoryId);
+                        memory.messages();  // 触发加载，命中近缓存时不访问 Redis
+                        return memory;
+                    });
+                    logger.debug("记忆阶段完成: memoryId={}, 耗时 {}ms", memoryId, elapsedMillis(start));
+                    return chatMemory;
+                }, executor)
+                .orTimeout(memoryTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof TimeoutException) {
+                        throw new RuntimeException("会话记忆加载超时: " + memoryTimeout.toMillis() + "ms");
+                    }
+                    throw cause instanceof RuntimeException runtime ? runtime : new RuntimeException(cause);
+                });
+
+        // 查询改写等只用到当前问题，不必等待记忆加载
+        CompletableFuture<ChatMessage> retrievalStage = CompletableFuture.supplyAsync(() -> {
+                    ChatMessage augmented = stageMetrics.time("retrieval", () -> retrievalAugmentor.augment(
+                            new AugmentationRequest(userMessage, Metadata.from(userMessage, memoryId, List.of())))
+                            .chatMessage());
+                    logger.debug("检索阶段完成: memoryId={}, 耗时 {}ms", memoryId, elapsedMillis(start));
+                    return augmented;
+                }, executor)
+                .orTimeout(retrievalTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    logger.warn("检索{}，本轮不带参考内容回答: memoryId={}, {}",
+                            cause instanceof TimeoutException ? "超时" : "失败", memoryId, cause.toString());
+                    return userMessage;
+                });
+
+        return memoryStage.thenCombine(retrievalStage, (chatMemory, augmented) -> {
+            chatMemory.add(systemMessage);
+            chatMemory.add(augmented);
+            stageMetrics.record("prepare", System.nanoTime() - start);
+            logger.debug("生成前准备完成: memoryId={}, 耗时 {}ms", memoryId, elapsedMillis(start));
+            return new PreparedTurn(chatMemory, augmented);
+        });
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static String loadSystemPrompt() {
+        try {
+            return new ClassPathResource("system.txt").getContentAsString(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("system.txt 读取失败", e);
+        }
+    }
+}
@@ -1,21 +1,45 @@
 package org.example.consultantrag.service;
 
-import dev.langchain4j.service.MemoryId;
-import dev.langchain4j.service.SystemMessage;
-import dev.langchain4j.service.UserMessage;
-import dev.langchain4j.service.spring.AiService;
-import dev.langchain4j.service.spring.AiServiceWiringMode;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.StreamingResponseHandler;
+import dev.langchain4j.model.chat.StreamingChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.example.consultantrag.cache.SemanticAnswerCache;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
-@AiService(
-        wiringMode = AiServiceWiringMode.EXPLICIT,
-        chatModel = "ollamaChatModel",
-        streamingChatModel = "ollamaStreamingChatModel",
-        chatMemoryProvider = "chatMemoryProvider",
-        contentRetriever = "contentRetriever"
-        //chatMemory = "chatMemory"
-)
-public interface ConsultantService {
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 顾问服务（V1版本，流式输出）
+ *
+ * 生成前的会话记忆加载与知识库检索由 ChatTurnPreparer 并行执行，
+ * 检索超时时不带参考内容直接回答（LangChain4j 的 AiService 只能串行执行这些步骤，因此这里自行编排）。
+ * 开启语义答案缓存后，相近问题且检索内容相同时直接回放缓存的答案，不调用模型。
+ * 生成的首 token 时间、总耗时与输出速度记入 Micrometer（V1 为纯文本流，不返回请求级耗时明细）。
+ */
+@Service
+public class ConsultantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsultantService.class);
+
+    @Autowired
+    private StreamingChatLanguageModel ollamaStreamingChatModel;
+
+    @Autowired
+    private ChatTurnPreparer chatTurnPreparer;
+
+    @Autowired
+    private SemanticAnswerCache answerCache;
+
+    @Autowired
+    private StageMetrics stageMetrics;
 
     /**
      * 发送消息并获取流式回复
@@ -23,6 +47,60 @@ public interface ConsultantService {
      * @param message 用户消息
      * @return 响应式流（逐 token 返回）
      */
-    @SystemMessage(fromResource = "system.txt")
-    Flux<String> chat(@MemoryId String memoryId, @UserMessage String message);
-}
\ No newline at end of file
+    public Flux<String> chat(String memoryId, String message) {
+        return Flux.create(sink -> chatTurnPreparer.prepare(memoryId, message).whenComplete((turn, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                logger.error("对话准备失败: memoryId={}", memoryId, cause);
+                sink.error(cause);
+                return;
+            }
+            ChatMemory chatMemory = turn.chatMemory();
+
+            SemanticAnswerCache.Key cacheKey;
+            try {
+                cacheKey = answerCache.key(message, turn.augmentedMessage());
+            } catch (RuntimeException cacheError) {
+                logger.warn("答案缓存键计算失败，跳过缓存: {}", cacheError.getMessage());
+                cacheKey = null;
+            }
+            String cached = cacheKey == null ? null : answerCache.get(cacheKey);
+            if (cached != null) {
+                chatMemory.add(AiMessage.from(cached));
+                SemanticAnswerCache.replayChunks(cached).forEach(sink::next);
+                sink.complete();
+                return;
+            }
+
+            SemanticAnswerCache.Key key = cacheKey;
+            StageMetrics.Generation generation = stageMetrics.startGeneration("stream");
+            AtomicInteger chunks = new AtomicInteger();
+            ollamaStreamingChatModel.generate(chatMemory.messages(), new StreamingResponseHandler<AiMessage>() {
+                @Override
+                public void onNext(String token) {
+                    generation.onToken();
+                    chunks.incrementAndGet();
+                    sink.next(token);
+                }
+
+                @Override
+                public void onComplete(Response<AiMessage> response) {
+                    // Ollama 流式结束时一般带 eval_count，缺失时按分块数估算（每个分块约一个 token）
+                    generation.finish(response.tokenUsage() != null && response.tokenUsage().outputTokenCount() != null
+                            ? response.tokenUsage().outputTokenCount() : chunks.get());
+                    chatMemory.add(response.content());
+                    if (key != null) {
+                        answerCache.put(key, response.content().text());
+                    }
+                    sink.complete();
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    logger.error("流式生成失败: memoryId={}", memoryId, error);
+                    sink.error(error);
+                }
+            });
+        }));
+    }
+}
@@ -1,18 +1,35 @@
 package org.example.consultantrag.service;
 
-import dev.langchain4j.service.MemoryId;
-import dev.langchain4j.service.SystemMessage;
-import dev.langchain4j.service.UserMessage;
-import dev.langchain4j.service.spring.AiService;
-import dev.langchain4j.service.spring.AiServiceWiringMode;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import dev.langchain4j.model.output.Response;
+import org.example.consultantrag.metrics.StageBreakdown;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.ollama.OllamaToolStreamClient;
+import org.example.consultantrag.tools.ParallelToolExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
 /**
  * 带工具调用能力的顾问服务（V2版本）
  *
  * 新增功能：
  * 1. Function Calling - LLM可以主动调用外部工具
  * 2. 保留所有V1功能（RAG、流式输出、对话记忆）
+ * 3. 同一轮的多个工具调用并发执行（LangChain4j 的 AiService 只能逐个串行执行，因此这里自行编排）
+ * 4. 流式输出时同样支持工具调用，工具执行期间下发状态事件
+ * 5. 每轮生成记录首 token 时间、总耗时与输出速度；开启请求明细时流式结尾下发 timing 事件
  *
  * 使用场景：
  * - "北京现在天气怎么样？" -> 自动调用WeatherTool
@@ -20,31 +37,141 @@ import reactor.core.publisher.Flux;
  * - "现在几点了？" -> 自动调用TimeTool
  * - "帮我分析一下XX问题" -> 使用RAG检索知识库
  */
-@AiService(
-        wiringMode = AiServiceWiringMode.EXPLICIT,
-        chatModel = "ollamaChatModel",
-        streamingChatModel = "ollamaStreamingChatModel",
-        chatMemoryProvider = "chatMemoryProvider",
-        contentRetriever = "contentRetriever",
-        tools = {"weatherTool", "calculatorTool", "timeTool"}  // 🔧 关键配置：注册工具
-)
-public interface ConsultantServiceV2 {
+@Service
+public class ConsultantServiceV2 {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsultantServiceV2.class);
+
+    // 防止模型反复调用工具陷入死循环
+    private static final int MAX_TOOL_ROUNDS = 10;
+
+    @Autowired
+    private ChatLanguageModel ollamaChatModel;
+
+    @Autowired
+    private ChatTurnPreparer chatTurnPreparer;
+
+    @Autowired
+    private ParallelToolExecutor consultantTools;
+
+    @Autowired
+    private OllamaToolStreamClient toolStreamClient;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Autowired
+    @Qualifier("chatExecutor")
+    private ExecutorService chatExecutor;
 
     /**
-     * 发送消息并获取流式回复（支持工具调用）
+     * 发送消息并获取回复（支持工具调用）
      *
      * 工作流程：
      * 1. 用户发送消息
-     * 2. LLM分析是否需要调用工具
-     * 3. 如果需要，自动调用相应工具并获取结果
-     * 4. 将工具结果整合到回复中
-     * 5. 流式返回最终答案
+     * 2. 并行加载会话记忆、检索知识库，将相关内容注入用户消息
+     * 3. LLM分析是否需要调用工具
+     * 4. 如果需要，并发调用本轮的全部工具并获取结果，回到第 3 步
+     * 5. 返回最终答案
      *
      * @param memoryId 会话ID（用于维护上下文）
      * @param message  用户消息
-     * @return 响应式流（逐token返回）
+     * @return 最终回复
      */
-    @SystemMessage(fromResource = "system.txt")
-    String chat(@MemoryId String memoryId, @UserMessage String message);
-}
+    public String chat(String memoryId, String message) {
+        ChatMemory chatMemory = prepareMemory(memoryId, message);
 
+        for (int round = 0; round < MAX_TOOL_ROUNDS; round++) {
+            StageMetrics.Generation generation = stageMetrics.startGeneration("sync");
+            Response<AiMessage> response = ollamaChatModel.generate(chatMemory.messages(),
+                    consultantTools.toolSpecifications());
+            generation.finish(outputTokens(response));
+            AiMessage aiMessage = response.content();
+            chatMemory.add(aiMessage);
+            if (!aiMessage.hasToolExecutionRequests()) {
+                return aiMessage.text();
+            }
+
+            long start = System.currentTimeMillis();
+            List<ToolExecutionResultMessage> results =
+                    consultantTools.executeAll(aiMessage.toolExecutionRequests(), memoryId);
+            results.forEach(chatMemory::add);
+            logger.info("第 {} 轮工具调用: {} 个，耗时 {}ms", round + 1, results.size(), System.currentTimeMillis() - start);
+        }
+        throw new RuntimeException("工具调用轮数超过上限: " + MAX_TOOL_ROUNDS);
+    }
+
+    /**
+     * 流式对话（支持工具调用）
+     *
+     * 每一轮都通过 Ollama 流式接口生成：文本分块立即下发，本轮出现工具调用时先下发工具状态事件，
+     * 并发执行工具后进入下一轮。整个编排在 chatExecutor（虚拟线程）上执行，客户端断开时停止读取。
+     *
+     * @param memoryId 会话ID（用于维护上下文）
+     * @param message  用户消息
+     * @return 事件流：token / tool / timing / done / error
+     */
+    public Flux<ChatEvent> chatStream(String memoryId, String message) {
+        return Flux.create(sink -> chatExecutor.execute(() -> {
+            StageBreakdown breakdown = stageMetrics.beginBreakdown();
+            try {
+                ChatMemory chatMemory = prepareMemory(memoryId, message);
+
+                for (int round = 0; round < MAX_TOOL_ROUNDS && !sink.isCancelled(); round++) {
+                    StageMetrics.Generation generation = stageMetrics.startGeneration("stream");
+                    Response<AiMessage> response = toolStreamClient.chat(chatMemory.messages(),
+                            consultantTools.toolSpecifications(),
+                            token -> {
+                                generation.onToken();
+                                sink.next(ChatEvent.token(token));
+                            },
+                            sink::isCancelled);
+                    if (sink.isCancelled()) return;
+                    generation.finish(outputTokens(response));
+                    AiMessage aiMessage = response.content();
+                    chatMemory.add(aiMessage);
+                    if (!aiMessage.hasToolExecutionRequests()) {
+                        if (breakdown != null) sink.next(ChatEvent.timing(breakdown.toMap()));
+                        sink.next(ChatEvent.done());
+                        sink.complete();
+                        return;
+                    }
+
+                    List<ToolExecutionRequest> requests = aiMessage.toolExecutionRequests();
+                    requests.forEach(request -> sink.next(ChatEvent.toolRunning(request.name())));
+                    long start = System.currentTimeMillis();
+                    List<ToolExecutionResultMessage> results = consultantTools.executeAll(requests, memoryId);
+                    long elapsed = System.currentTimeMillis() - start;
+                    results.forEach(chatMemory::add);
+                    requests.forEach(request -> sink.next(ChatEvent.toolDone(request.name(), elapsed)));
+                    logger.info("第 {} 轮工具调用: {} 个，耗时 {}ms", round + 1, results.size(), elapsed);
+                }
+                if (!sink.isCancelled()) {
+                    sink.next(ChatEvent.error("工具调用轮数超过上限: " + MAX_TOOL_ROUNDS));
+                    sink.complete();
+                }
+            } catch (Exception e) {
+                logger.error("流式对话失败: memoryId={}", memoryId, e);
+                sink.next(ChatEvent.error(e.getMessage()));
+                sink.complete();
+            } finally {
+                StageBreakdown.end();
+            }
+        }));
+    }
+
+    private static Integer outputTokens(Response<AiMessage> response) {
+        return response.tokenUsage() == null ? null : response.tokenUsage().outputTokenCount();
+    }
+
+    /**
+     * 等待生成前的准备阶段（记忆加载与检索并行）完成
+     */
+    private ChatMemory prepareMemory(String memoryId, String message) {
+        try {
+            return chatTurnPreparer.prepare(memoryId, message).join().chatMemory();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+}
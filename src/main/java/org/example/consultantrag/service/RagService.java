@@ -1,22 +1,46 @@
 package org.example.consultantrag.service;
 
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.parser.apache.tika.ApacheTikaDocumentParser;
-import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
-import dev.langchain4j.model.output.Response;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
-import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.example.consultantrag.ingest.DocumentAttributes;
+import org.example.consultantrag.ingest.IngestionJob;
+import org.example.consultantrag.ingest.IngestionPipeline;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.example.consultantrag.store.Matryoshka;
+import org.example.consultantrag.store.SegmentStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
 
 @Service
 public class RagService {
@@ -24,68 +48,316 @@ public class RagService {
     private static final Logger logger = LoggerFactory.getLogger(RagService.class);
 
     @Autowired
-    private EmbeddingStore<TextSegment> embeddingStore;
+    private SegmentStore embeddingStore;
 
     @Autowired
     private EmbeddingModel embeddingModel;
 
-    private final int MAX_SEGMENT_SIZE = 500;
-    private final int MAX_OVERLAP = 50;
+    @Autowired
+    private IngestionPipeline ingestionPipeline;
+
+    @Autowired
+    private StageMetrics stageMetrics;
+
+    @Value("${rag.search.max-batch-queries:64}")
+    private int maxBatchQueries;
 
     /**
-     * 添加文档：仅通过 Tika 提取文本内容
+     * 批量检索中的一个查询
+     *
+     * @param filter 为 null 时检索全部
      */
-    public int addDocument(InputStream inputStream, String fileName) {
-        String extractedText;
-
-        try {
-            logger.info(">>> 正在解析文件: {}", fileName);
-            ApacheTikaDocumentParser parser = new ApacheTikaDocumentParser();
-            Document document = parser.parse(inputStream);
-            extractedText = document.text();
+    public record BatchQuery(String query, int maxResults, Filter filter) {
+    }
 
-            if (extractedText == null || extractedText.trim().isEmpty()) {
-                throw new RuntimeException("文件内容为空或无法提取文本（不支持纯图片/扫描件）");
-            }
+    /**
+     * 异步添加文档：先落盘到临时文件，再交给入库流水线，立即返回任务
+     *
+     * 上传内容已由容器写入磁盘（spring.servlet.multipart.file-size-threshold=0），
+     * transferTo(File) 直接移动该文件，不经过堆内存。
+     */
+    public IngestionJob submitDocument(MultipartFile file, DocumentAttributes attributes) throws IOException {
+        Path tempFile = Files.createTempFile("rag-upload-", ".tmp");
+        file.transferTo(tempFile.toFile());
+        return ingestionPipeline.submit(tempFile, file.getOriginalFilename(), attributes);
+    }
 
-            logger.info("文本提取成功，总字数: {}", extractedText.length());
-        } catch (Exception e) {
+    /**
+     * 同步添加文档：等待流水线完成后返回入库片段数
+     */
+    public int addDocument(InputStream inputStream, String fileName) {
+        IngestionJob job;
+        try {
+            Path tempFile = Files.createTempFile("rag-upload-", ".tmp");
+            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            job = ingestionPipeline.submit(tempFile, fileName);
+        } catch (IOException e) {
             logger.error("解析文件失败: {}", e.getMessage());
             throw new RuntimeException("文件解析失败: " + e.getMessage());
         }
 
-        return processAndStore(Document.from(extractedText));
+        try {
+            return job.getCompletion().join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("文件处理失败: " + e.getCause().getMessage());
+        }
     }
 
-    /**
-     * 分块、向量化并入库
-     */
-    private int processAndStore(Document document) {
-        List<TextSegment> segments = DocumentSplitters.recursive(MAX_SEGMENT_SIZE, MAX_OVERLAP)
-                .split(document);
-
-        if (segments.isEmpty()) return 0;
-
-        logger.info(">>> 正在进行向量化 (Embedding)...");
-        Response<List<Embedding>> embeddingResponse = embeddingModel.embedAll(segments);
-
-        embeddingStore.addAll(embeddingResponse.content(), segments);
-        logger.info("成功添加 {} 个片段到 Qdrant 数据库", segments.size());
-        return segments.size();
+    public IngestionJob getIngestionJob(String jobId) {
+        return ingestionPipeline.getJob(jobId);
     }
 
     /**
      * 语义检索
      */
     public List<TextSegment> searchRelevantDocuments(String query, int maxResults) {
-        Embedding queryEmbedding = embeddingModel.embed(query).content();
+        return searchRelevantDocuments(query, maxResults, null);
+    }
+
+    /**
+     * 带元数据过滤的语义检索，过滤条件下推到向量库（Qdrant 走 payload 索引）
+     *
+     * @param filter 为 null 时检索全部
+     */
+    public List<TextSegment> searchRelevantDocuments(String query, int maxResults, Filter filter) {
+        Embedding queryEmbedding = stageMetrics.time("query_embed", () -> embeddingModel.embed(query).content());
         EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
                 .queryEmbedding(queryEmbedding)
                 .maxResults(maxResults)
                 .minScore(0.5)
+                .filter(filter)
                 .build();
 
-        EmbeddingSearchResult<TextSegment> searchResult = embeddingStore.search(searchRequest);
+        EmbeddingSearchResult<TextSegment> searchResult =
+                stageMetrics.time("vector_search", () -> embeddingStore.search(searchRequest));
         return searchResult.matches().stream().map(match -> match.embedded()).toList();
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量语义检索：全部查询一次 embedAll 向量化，再作为一批提交向量库（Qdrant 为一次 searchBatch 请求）
+     *
+     * @return 与 queries 一一对应的匹配结果（含分数与元数据）
+     */
+    public List<List<EmbeddingMatch<TextSegment>>> searchBatch(List<BatchQuery> queries) {
+        if (queries.size() > maxBatchQueries) {
+            throw new RuntimeException("单次批量检索最多 " + maxBatchQueries + " 个查询，实际 " + queries.size());
+        }
+        if (queries.isEmpty()) return List.of();
+
+        List<TextSegment> texts = queries.stream().map(query -> TextSegment.from(query.query())).toList();
+        List<Embedding> embeddings = stageMetrics.time("query_embed", () -> embeddingModel.embedAll(texts).content());
+
+        List<EmbeddingSearchRequest> requests = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            requests.add(EmbeddingSearchRequest.builder()
+                    .queryEmbedding(embeddings.get(i))
+                    .maxResults(queries.get(i).maxResults())
+                    .minScore(0.5)
+                    .filter(queries.get(i).filter())
+                    .build());
+        }
+
+        List<EmbeddingSearchResult<TextSegment>> results =
+                stageMetrics.time("vector_search", () -> embeddingStore.searchAll(requests));
+        return results.stream().map(EmbeddingSearchResult::matches).toList();
+    }
+
+    /**
+     * 由接口传入的过滤条件构造 Filter，多个字段同时满足
+     *
+     * - city / region / scene / file_name / document_id：字符串或字符串列表（列表表示其一即可）
+     * - uploaded_after / uploaded_before：ISO-8601 时间或毫秒时间戳，按 uploaded_at 取左闭右开区间
+     *
+     * @return conditions 为空时返回 null
+     */
+    public Filter buildFilter(Map<String, Object> conditions) {
+        if (conditions == null) return null;
+        Filter filter = null;
+        for (Map.Entry<String, Object> condition : conditions.entrySet()) {
+            String key = condition.getKey();
+            Object value = condition.getValue();
+            if (value == null) continue;
+            Filter next = switch (key) {
+                case IngestionPipeline.CITY_KEY, IngestionPipeline.REGION_KEY, IngestionPipeline.SCENE_KEY,
+                     IngestionPipeline.FILE_NAME_KEY, IngestionPipeline.DOCUMENT_ID_KEY -> {
+                    List<String> values = keywordValues(key, value);
+                    yield values.size() == 1
+                            ? metadataKey(key).isEqualTo(values.get(0))
+                            : metadataKey(key).isIn(values);
+                }
+                case "uploaded_after" -> metadataKey(IngestionPipeline.UPLOADED_AT_KEY)
+                        .isGreaterThanOrEqualTo(epochMillis(value));
+                case "uploaded_before" -> metadataKey(IngestionPipeline.UPLOADED_AT_KEY)
+                        .isLessThan(epochMillis(value));
+                default -> throw new RuntimeException("不支持的过滤字段: " + key);
+            };
+            filter = filter == null ? next : Filter.and(filter, next);
+        }
+        return filter;
+    }
+
+    private static List<String> keywordValues(String key, Object value) {
+        List<String> values = (value instanceof Collection<?> collection ? collection.stream() : Stream.of(value))
+                .map(String::valueOf)
+                .map(v -> IngestionPipeline.SCENE_KEY.equals(key) ? DocumentAttributes.of(null, null, v).scene() : v)
+                .toList();
+        if (values.isEmpty()) throw new RuntimeException("过滤字段 " + key + " 的取值不能为空");
+        return values;
+    }
+
+    private static long epochMillis(Object value) {
+        if (value instanceof Number number) return number.longValue();
+        try {
+            return Instant.parse(String.valueOf(value)).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("时间格式错误（需要 ISO-8601 或毫秒时间戳）: " + value);
+        }
+    }
+
+    /**
+     * 评估当前检索（可能开启了量化）相对精确检索的召回率与耗时
+     *
+     * recall@k = 两次检索结果 ID 的交集 / 精确检索结果数，对所有查询取平均
+     */
+    public Map<String, Object> evaluateRecall(List<String> queries, int maxResults) {
+        double recallSum = 0;
+        int evaluated = 0;
+        long searchNanos = 0;
+        long exactNanos = 0;
+
+        for (String query : queries) {
+            EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(embeddingModel.embed(query).content())
+                    .maxResults(maxResults)
+                    .build();
+
+            long start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> approximate = embeddingStore.search(searchRequest).matches();
+            searchNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<EmbeddingMatch<TextSegment>> exact = embeddingStore.searchExact(searchRequest).matches();
+            exactNanos += System.nanoTime() - start;
+
+            if (exact.isEmpty()) continue;
+            Set<String> exactIds = new HashSet<>();
+            exact.forEach(match -> exactIds.add(match.embeddingId()));
+            long hits = approximate.stream().filter(match -> exactIds.contains(match.embeddingId())).count();
+            recallSum += (double) hits / exact.size();
+            evaluated++;
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("queries", evaluated);
+        report.put("maxResults", maxResults);
+        report.put("recall", evaluated == 0 ? null : recallSum / evaluated);
+        report.put("avgSearchMillis", queries.isEmpty() ? 0 : searchNanos / 1e6 / queries.size());
+        report.put("avgExactSearchMillis", queries.isEmpty() ? 0 : exactNanos / 1e6 / queries.size());
+        logger.info("召回评估: {}", report);
+        return report;
+    }
+
+    /**
+     * 降维取舍评估：在已入库的完整向量上离线模拟“前 d 维检索 + 完整向量重排”，不需要为每个维度重建 collection
+     *
+     * - 基准为完整维度暴力检索的 top-k
+     * - recall：只用前 d 维检索 top-k 的召回率；recallRescored：前 d 维取 k × oversampling 个候选、再用完整向量重排后的召回率
+     * - bytesPerVector / vectorMemoryMB 按 float32 估算检索向量的占用（不含 HNSW 图）
+     * - 耗时为单线程暴力扫描，只用于不同维度之间的相对比较
+     *
+     * 评估时把最多 maxPoints 个完整向量读入堆内存（4096 维每个约 16KB）。
+     */
+    public Map<String, Object> evaluateDimensions(List<String> queries, int maxResults, List<Integer> dimensions,
+                                                  double oversampling, int maxPoints) {
+        List<float[]> corpus = new ArrayList<>();
+        embeddingStore.forEachVector(maxPoints, (id, vector) -> corpus.add(vector));
+        if (corpus.isEmpty() || queries.isEmpty()) {
+            throw new RuntimeException("没有可评估的向量或查询");
+        }
+        int fullDimension = corpus.get(0).length;
+        int candidates = (int) Math.ceil(maxResults * Math.max(1.0, oversampling));
+
+        List<float[]> queryVectors = embeddingModel.embedAll(queries.stream().map(TextSegment::from).toList())
+                .content().stream()
+                .map(embedding -> Matryoshka.truncate(embedding.vector(), fullDimension))
+                .toList();
+        List<Set<Integer>> exact = new ArrayList<>();
+        for (float[] query : queryVectors) {
+            Set<Integer> ids = new HashSet<>();
+            for (int index : topK(query, corpus, null, maxResults)) ids.add(index);
+            exact.add(ids);
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int dimension : dimensions) {
+            if (dimension <= 0 || dimension > fullDimension) continue;
+            List<float[]> truncated = corpus.stream().map(vector -> Matryoshka.truncate(vector, dimension)).toList();
+
+            double recall = 0;
+            double recallRescored = 0;
+            long searchNanos = 0;
+            long rescoreNanos = 0;
+            for (int q = 0; q < queryVectors.size(); q++) {
+                float[] query = queryVectors.get(q);
+
+                long start = System.nanoTime();
+                int[] shortlist = topK(Matryoshka.truncate(query, dimension), truncated, null, candidates);
+                searchNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int[] rescored = topK(query, corpus, shortlist, maxResults);
+                rescoreNanos += System.nanoTime() - start;
+
+                recall += recall(Arrays.copyOf(shortlist, Math.min(maxResults, shortlist.length)), exact.get(q));
+                recallRescored += recall(rescored, exact.get(q));
+            }
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("dimension", dimension);
+            row.put("bytesPerVector", dimension * Float.BYTES);
+            row.put("vectorMemoryMB", (double) dimension * Float.BYTES * corpus.size() / (1024 * 1024));
+            row.put("recall", recall / queryVectors.size());
+            row.put("recallRescored", recallRescored / queryVectors.size());
+            row.put("avgSearchMillis", searchNanos / 1e6 / queryVectors.size());
+            row.put("avgRescoreMillis", rescoreNanos / 1e6 / queryVectors.size());
+            rows.add(row);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("points", corpus.size());
+        report.put("fullDimension", fullDimension);
+        report.put("queries", queryVectors.size());
+        report.put("maxResults", maxResults);
+        report.put("candidates", candidates);
+        report.put("dimensions", rows);
+        logger.info("降维评估: {}", report);
+        return report;
+    }
+
+    /**
+     * 暴力检索前 k 个，按相似度降序返回下标；candidates 非空时只在这些下标中选
+     */
+    private static int[] topK(float[] query, List<float[]> vectors, int[] candidates, int k) {
+        int n = candidates == null ? vectors.size() : candidates.length;
+        float[] scores = new float[n];
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Comparator.comparingDouble(i -> scores[i]));
+        for (int i = 0; i < n; i++) {
+            int index = candidates == null ? i : candidates[i];
+            scores[i] = Matryoshka.dot(query, vectors.get(index), query.length);
+            heap.add(i);
+            if (heap.size() > k) heap.poll();
+        }
+        int[] result = new int[heap.size()];
+        for (int i = result.length - 1; i >= 0; i--) {
+            int position = heap.poll();
+            result[i] = candidates == null ? position : candidates[position];
+        }
+        return result;
+    }
+
+    private static double recall(int[] found, Set<Integer> exact) {
+        if (exact.isEmpty()) return 1.0;
+        long hits = Arrays.stream(found).filter(exact::contains).count();
+        return (double) hits / exact.size();
+    }
+}
@@ -0,0 +1,290 @@
+package org.example.consultantrag.store;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）近邻图
+ *
+ * 只保存图结构（每个节点各层的邻居），向量本身由调用方通过打分函数提供，
+ * 分数越大表示越相似。节点编号即向量存储中的槽位号。非线程安全，由外层加锁。
+ *
+ * 每层的邻居数组写入后不再原地修改，更新时整体替换，因此 snapshot 只需复制到节点这一级。
+ */
+class HnswGraph {
+
+    /**
+     * 两个已入图节点之间的相似度
+     */
+    interface PairScorer {
+        double score(int a, int b);
+    }
+
+    record Candidate(int node, double score) {
+    }
+
+    private static final Comparator<Candidate> BY_SCORE = Comparator.comparingDouble(Candidate::score);
+    private static final int[] EMPTY = new int[0];
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+
+    private int[] levels = new int[16];
+    private int[][][] links = new int[16][][];
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    HnswGraph(int m, int efConstruction) {
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 当前图结构的只读副本（邻居数组与原图共享），供锁外写快照使用
+     */
+    HnswGraph snapshot() {
+        HnswGraph copy = new HnswGraph(m, efConstruction);
+        copy.size = size;
+        copy.entryPoint = entryPoint;
+        copy.maxLevel = maxLevel;
+        copy.levels = Arrays.copyOf(levels, Math.max(16, size));
+        copy.links = new int[Math.max(16, size)][][];
+        for (int node = 0; node < size; node++) {
+            copy.links[node] = links[node].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * 插入节点
+     *
+     * @param node        节点编号（槽位号），需依次递增
+     * @param scoreToNode 任意已有节点与新节点的相似度
+     * @param pair        已有节点之间的相似度，用于邻居裁剪
+     */
+    void insert(int node, IntToDoubleFunction scoreToNode, PairScorer pair) {
+        int level = randomLevel();
+        ensureCapacity(node + 1);
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        Arrays.fill(links[node], EMPTY);
+        size = Math.max(size, node + 1);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(ep, l, scoreToNode);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> nearest = searchLayer(ep, scoreToNode, efConstruction, l, null);
+            int[] neighbors = selectNeighbors(nearest, m, pair);
+            links[node][l] = neighbors;
+            int maxConnections = l == 0 ? maxM0 : m;
+            for (int neighbor : neighbors) {
+                connect(neighbor, node, l, maxConnections, pair);
+            }
+            ep = nearest.get(0).node();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 近邻检索
+     *
+     * @param accept 结果过滤（已删除 / 元数据不匹配的节点仍参与图遍历，但不进入结果）
+     * @return 按相似度降序排列，最多 ef 个
+     */
+    List<Candidate> search(IntToDoubleFunction scoreToQuery, int ef, IntPredicate accept) {
+        if (entryPoint < 0) return List.of();
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedyClosest(ep, l, scoreToQuery);
+        }
+        return searchLayer(ep, scoreToQuery, ef, 0, accept);
+    }
+
+    private int greedyClosest(int ep, int level, IntToDoubleFunction score) {
+        int current = ep;
+        double currentScore = score.applyAsDouble(current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : neighbors(current, level)) {
+                double s = score.applyAsDouble(neighbor);
+                if (s > currentScore) {
+                    current = neighbor;
+                    currentScore = s;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private List<Candidate> searchLayer(int ep, IntToDoubleFunction score, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(BY_SCORE.reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(BY_SCORE);
+
+        Candidate start = new Candidate(ep, score.applyAsDouble(ep));
+        visited.set(ep);
+        candidates.add(start);
+        if (accept == null || accept.test(ep)) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbor : neighbors(current.node(), level)) {
+                if (visited.get(neighbor)) continue;
+                visited.set(neighbor);
+
+                double s = score.applyAsDouble(neighbor);
+                if (results.size() < ef || s > results.peek().score()) {
+                    Candidate candidate = new Candidate(neighbor, s);
+                    candidates.add(candidate);
+                    if (accept == null || accept.test(neighbor)) {
+                        results.add(candidate);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(BY_SCORE.reversed());
+        return sorted;
+    }
+
+    /**
+     * 启发式选邻：候选点只有在比已选邻居更接近目标时才入选，保证邻居方向分散
+     */
+    private int[] selectNeighbors(List<Candidate> sortedCandidates, int max, PairScorer pair) {
+        List<Integer> selected = new ArrayList<>(max);
+        List<Integer> pruned = new ArrayList<>();
+        for (Candidate candidate : sortedCandidates) {
+            if (selected.size() >= max) break;
+            boolean diverse = true;
+            for (int chosen : selected) {
+                if (pair.score(candidate.node(), chosen) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate.node());
+            } else {
+                pruned.add(candidate.node());
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < max; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void connect(int from, int to, int level, int maxConnections, PairScorer pair) {
+        int[] current = links[from][level];
+        if (current.length < maxConnections) {
+            int[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = to;
+            links[from][level] = extended;
+            return;
+        }
+
+        List<Candidate> candidates = new ArrayList<>(current.length + 1);
+        for (int neighbor : current) {
+            candidates.add(new Candidate(neighbor, pair.score(from, neighbor)));
+        }
+        candidates.add(new Candidate(to, pair.score(from, to)));
+        candidates.sort(BY_SCORE.reversed());
+        links[from][level] = selectNeighbors(candidates, maxConnections, pair);
+    }
+
+    private int[] neighbors(int node, int level) {
+        int[][] nodeLinks = links[node];
+        return level < nodeLinks.length ? nodeLinks[level] : EMPTY;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= levels.length) return;
+        int newCapacity = Math.max(capacity, levels.length * 2);
+        levels = Arrays.copyOf(levels, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < size; node++) {
+            out.writeByte(levels[node]);
+            for (int[] levelLinks : links[node]) {
+                out.writeShort(levelLinks.length);
+                for (int neighbor : levelLinks) {
+                    out.writeInt(neighbor);
+                }
+            }
+        }
+    }
+
+    void read(DataInput in) throws IOException {
+        size = in.readInt();
+        entryPoint = in.readInt();
+        maxLevel = in.readInt();
+        levels = new int[Math.max(16, size)];
+        links = new int[Math.max(16, size)][][];
+        for (int node = 0; node < size; node++) {
+            int level = in.readByte();
+            levels[node] = level;
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int[] levelLinks = new int[in.readShort()];
+                for (int i = 0; i < levelLinks.length; i++) {
+                    levelLinks[i] = in.readInt();
+                }
+                links[node][l] = levelLinks;
+            }
+        }
+    }
+}
@@ -0,0 +1,709 @@
+package org.example.consultantrag.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * 进程内的 HNSW 向量库，用于单机部署和离线测试，省掉每次检索到 Qdrant 的 gRPC 往返
+ *
+ * 文件布局（data-dir 下）：
+ * - vectors.f32 / vectors-<代号>.f32：内存映射的归一化向量，按槽位顺序追加，不在堆上
+ * - index.bin：图结构 + 片段文本/元数据 + 删除标记的快照，记录所用向量文件的代号，先写临时文件再原子替换
+ *
+ * 删除和覆盖写入只打删除标记，旧槽位仍参与图遍历；打开时若删除比例过高则自动重建。
+ * 压缩和清空不改写当前向量文件，而是写入下一代文件，新快照替换 index.bin 后才删除旧文件，
+ * 任一步骤崩溃后重新打开得到的都是配套的快照和向量文件。
+ * 有修改时按 flush-interval 写快照，关闭时写入剩余修改，重新打开时直接加载快照无需重建索引。
+ * 写快照只在读锁下复制槽位列表、删除标记和图的节点级副本，序列化与写盘都在锁外进行，不阻塞检索。
+ *
+ * 开启量化后，检索时图遍历只读取堆内的量化编码，再对 top-k × oversampling 个候选
+ * 读取映射文件中的原始向量精确重排；建图仍使用原始向量以保证图质量。
+ */
+public class HnswSegmentStore implements SegmentStore, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HnswSegmentStore.class);
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    // 2：快照记录向量文件代号；1 为旧格式，对应 vectors.f32
+    private static final int FORMAT_VERSION = 2;
+    private static final double COMPACT_THRESHOLD = 0.5;
+
+    private final Path directory;
+    private final int dimension;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final Duration flushInterval;
+    private final double oversampling;
+
+    private MappedVectorStorage vectors;
+    private final QuantizedVectors quantized;
+    private HnswGraph graph;
+
+    private List<String> ids = new ArrayList<>();
+    private List<TextSegment> segments = new ArrayList<>();
+    private Map<String, Integer> slotById = new HashMap<>();
+    private BitSet deleted = new BitSet();
+    // 当前向量文件的代号（写锁内修改），压缩 / 清空时加一
+    private long generation;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // 串行化快照写入；持有写锁时不能调用 flush（flush 内部需要读锁）
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private volatile long lastFlushNanos = System.nanoTime();
+    // 每次修改递增（写锁内），persistedVersion 为最近一次写入快照时的版本
+    private long version;
+    private volatile long persistedVersion;
+
+    private HnswSegmentStore(Path directory, int dimension, int m, int efConstruction, int efSearch,
+                             Duration flushInterval, Quantization quantization, double oversampling) throws IOException {
+        this.directory = directory;
+        this.dimension = dimension;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.flushInterval = flushInterval;
+        this.oversampling = Math.max(1.0, oversampling);
+        this.quantized = quantization == Quantization.NONE ? null : new QuantizedVectors(quantization, dimension);
+        this.graph = new HnswGraph(m, efConstruction);
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * 打开（或新建）目录下的索引
+     */
+    public static HnswSegmentStore open(Path directory, int dimension, int m, int efConstruction, int efSearch,
+                                        Duration flushInterval) {
+        return open(directory, dimension, m, efConstruction, efSearch, flushInterval, Quantization.NONE, 1.0);
+    }
+
+    /**
+     * 打开（或新建）目录下的索引，并按指定方式量化
+     *
+     * @param oversampling 量化检索时候选数相对 maxResults 的倍数，候选用原始向量重排
+     */
+    public static HnswSegmentStore open(Path directory, int dimension, int m, int efConstruction, int efSearch,
+                                        Duration flushInterval, Quantization quantization, double oversampling) {
+        try {
+            HnswSegmentStore store = new HnswSegmentStore(directory, dimension, m, efConstruction, efSearch,
+                    flushInterval, quantization, oversampling);
+            store.loadSnapshot();
+            store.openVectors();
+            store.rebuildQuantizedCodes();
+            if (store.ids.size() > 1000 && store.deleted.cardinality() > store.ids.size() * COMPACT_THRESHOLD) {
+                store.compact();
+            }
+            logger.info("HNSW 索引已打开: {}，共 {} 个片段", directory, store.slotById.size());
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException("HNSW 索引打开失败: " + directory, e);
+        }
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        upsertAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        upsertAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = embeddings.stream().map(e -> UUID.randomUUID().toString()).toList();
+        upsertAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> newIds = embeddings.stream().map(e -> UUID.randomUUID().toString()).toList();
+        upsertAll(newIds, embeddings, textSegments);
+        return newIds;
+    }
+
+    @Override
+    public void upsertAll(List<String> pointIds, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < pointIds.size(); i++) {
+                insert(pointIds.get(i), embeddings.get(i).vector(), textSegments == null ? null : textSegments.get(i));
+            }
+            version++;
+        } catch (IOException e) {
+            throw new UncheckedIOException("HNSW 写入失败", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeFlush();
+    }
+
+    private void insert(String id, float[] vector, TextSegment segment) throws IOException {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: " + vector.length + " != " + dimension);
+        }
+        Integer previous = slotById.get(id);
+        if (previous != null) {
+            deleted.set(previous);
+        }
+
+        float[] normalized = normalize(vector);
+        int slot = ids.size();
+        vectors.write(slot, normalized);
+        if (quantized != null) {
+            quantized.encode(slot, normalized);
+        }
+        ids.add(id);
+        segments.add(segment);
+        slotById.put(id, slot);
+
+        graph.insert(slot, other -> vectors.dot(normalized, other), vectors::dot);
+    }
+
+    @Override
+    public void removeAll(Collection<String> pointIds) {
+        lock.writeLock().lock();
+        try {
+            for (String id : pointIds) {
+                Integer slot = slotById.remove(id);
+                if (slot != null) {
+                    deleted.set(slot);
+                }
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeFlush();
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        removeAll(findIds(filter));
+    }
+
+    @Override
+    public void removeAll() {
+        try {
+            lock.writeLock().lock();
+            try {
+                reset();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("HNSW 清空失败", e);
+        }
+    }
+
+    @Override
+    public Set<String> findIds(Filter filter) {
+        lock.readLock().lock();
+        try {
+            Set<String> result = new HashSet<>();
+            for (int slot = 0; slot < ids.size(); slot++) {
+                if (matches(slot, filter)) {
+                    result.add(ids.get(slot));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void forEachSegment(BiConsumer<String, TextSegment> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < ids.size(); slot++) {
+                if (!deleted.get(slot) && segments.get(slot) != null) {
+                    consumer.accept(ids.get(slot), segments.get(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 向量已在写入时归一化
+     */
+    @Override
+    public void forEachVector(int limit, BiConsumer<String, float[]> consumer) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (int slot = 0; slot < ids.size() && count < limit; slot++) {
+                if (deleted.get(slot)) continue;
+                consumer.accept(ids.get(slot), vectors.read(slot));
+                count++;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+        IntPredicate accept = slot -> matches(slot, filter);
+
+        lock.readLock().lock();
+        try {
+            List<HnswGraph.Candidate> candidates;
+            if (quantized == null) {
+                int ef = Math.max(efSearch, request.maxResults());
+                candidates = graph.search(slot -> vectors.dot(query, slot), ef, accept);
+            } else {
+                // 第一轮用量化编码取 top-k × oversampling，再用原始向量精确重排
+                int rescoreCount = (int) Math.ceil(request.maxResults() * oversampling);
+                int ef = Math.max(efSearch, rescoreCount);
+                List<HnswGraph.Candidate> approximate = graph.search(quantized.scorer(query), ef, accept);
+                candidates = new ArrayList<>(Math.min(rescoreCount, approximate.size()));
+                for (int i = 0; i < approximate.size() && i < rescoreCount; i++) {
+                    int slot = approximate.get(i).node();
+                    candidates.add(new HnswGraph.Candidate(slot, vectors.dot(query, slot)));
+                }
+                candidates.sort(Comparator.comparingDouble(HnswGraph.Candidate::score).reversed());
+            }
+            return toResult(candidates, request);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 遍历全部存活槽位的暴力精确检索
+     */
+    @Override
+    public EmbeddingSearchResult<TextSegment> searchExact(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            PriorityQueue<HnswGraph.Candidate> top = new PriorityQueue<>(
+                    Comparator.comparingDouble(HnswGraph.Candidate::score));
+            for (int slot = 0; slot < ids.size(); slot++) {
+                if (!matches(slot, filter)) continue;
+                top.add(new HnswGraph.Candidate(slot, vectors.dot(query, slot)));
+                if (top.size() > request.maxResults()) {
+                    top.poll();
+                }
+            }
+            List<HnswGraph.Candidate> candidates = new ArrayList<>(top);
+            candidates.sort(Comparator.comparingDouble(HnswGraph.Candidate::score).reversed());
+            return toResult(candidates, request);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> toResult(List<HnswGraph.Candidate> sortedCandidates,
+                                                        EmbeddingSearchRequest request) {
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+        for (HnswGraph.Candidate candidate : sortedCandidates) {
+            double score = RelevanceScore.fromCosineSimilarity(candidate.score());
+            if (score < request.minScore()) break;
+            matches.add(new EmbeddingMatch<>(score, ids.get(candidate.node()), null, segments.get(candidate.node())));
+            if (matches.size() >= request.maxResults()) break;
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private boolean matches(int slot, Filter filter) {
+        if (deleted.get(slot)) return false;
+        if (filter == null) return true;
+        TextSegment segment = segments.get(slot);
+        return segment != null && filter.test(segment.metadata());
+    }
+
+    /**
+     * 有未写入的修改时，将图和元数据写入快照（临时文件 + 原子替换）
+     *
+     * 读锁内只做 msync 和浅复制，序列化与写盘在锁外进行，期间检索和写入都不受影响。
+     */
+    public void flush() throws IOException {
+        flushLock.lock();
+        try {
+            writeSnapshot();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        long snapshotVersion;
+        long snapshotGeneration;
+        List<String> snapshotIds;
+        List<TextSegment> snapshotSegments;
+        BitSet snapshotDeleted;
+        HnswGraph snapshotGraph;
+        lock.readLock().lock();
+        try {
+            if (version == persistedVersion) return;
+            vectors.force();
+            snapshotVersion = version;
+            snapshotGeneration = generation;
+            snapshotIds = new ArrayList<>(ids);
+            snapshotSegments = new ArrayList<>(segments);
+            snapshotDeleted = (BitSet) deleted.clone();
+            snapshotGraph = graph.snapshot();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path tmp = directory.resolve("index.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dimension);
+            out.writeLong(snapshotGeneration);
+            out.writeInt(snapshotIds.size());
+            for (int slot = 0; slot < snapshotIds.size(); slot++) {
+                writeString(out, snapshotIds.get(slot));
+                out.writeBoolean(snapshotDeleted.get(slot));
+                writeSegment(out, snapshotSegments.get(slot));
+            }
+            snapshotGraph.write(out);
+        }
+        Files.move(tmp, directory.resolve("index.bin"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        persistedVersion = snapshotVersion;
+        lastFlushNanos = System.nanoTime();
+
+        // 快照已指向新一代，之前的向量文件不再需要
+        try {
+            deleteVectorFiles(g -> g < snapshotGeneration);
+        } catch (IOException e) {
+            logger.warn("HNSW 旧向量文件删除失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 量化编码不入快照，打开时从向量文件顺序读取重建
+     */
+    private void rebuildQuantizedCodes() {
+        if (quantized == null || ids.isEmpty()) return;
+        for (int slot = 0; slot < ids.size(); slot++) {
+            quantized.encode(slot, vectors.read(slot));
+        }
+        logger.info("HNSW 量化编码已重建: {} 个槽位，每个 {} 字节（原始向量 {} 字节）",
+                ids.size(), quantized.bytesPerVector(), dimension * Float.BYTES);
+    }
+
+    /**
+     * 距上次写快照超过 flush-interval 时写入；已有线程在写时直接返回，不阻塞写入方
+     */
+    private void maybeFlush() {
+        if (System.nanoTime() - lastFlushNanos < flushInterval.toNanos() || !flushLock.tryLock()) return;
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            logger.warn("HNSW 快照写入失败: {}", e.getMessage());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void loadSnapshot() throws IOException {
+        Path snapshot = directory.resolve("index.bin");
+        if (!Files.exists(snapshot)) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("无法识别的索引文件格式");
+            }
+            int format = in.readInt();
+            if (format != 1 && format != FORMAT_VERSION) {
+                throw new IOException("不支持的索引文件版本: " + format);
+            }
+            int storedDimension = in.readInt();
+            if (storedDimension != dimension) {
+                throw new IOException("索引维度 " + storedDimension + " 与配置维度 " + dimension + " 不一致");
+            }
+            generation = format == 1 ? 0 : in.readLong();
+            int count = in.readInt();
+            for (int slot = 0; slot < count; slot++) {
+                String id = readString(in);
+                boolean isDeleted = in.readBoolean();
+                ids.add(id);
+                segments.add(readSegment(in));
+                if (isDeleted) {
+                    deleted.set(slot);
+                } else {
+                    slotById.put(id, slot);
+                }
+            }
+            graph.read(in);
+        }
+    }
+
+    /**
+     * 打开快照对应代号的向量文件，删除其他代的文件（压缩中途崩溃遗留的新文件、已被替换的旧文件）
+     *
+     * 向量文件的槽位少于快照说明两者不配套，拒绝打开，避免在错位的向量上加载旧图。
+     */
+    private void openVectors() throws IOException {
+        Path file = vectorFile(generation);
+        vectors = new MappedVectorStorage(file, dimension);
+        long stored = vectors.initialVectors();
+        if (stored < ids.size()) {
+            vectors.close();
+            throw new IOException("向量文件 " + file.getFileName() + " 只有 " + stored
+                    + " 个槽位，与索引快照的 " + ids.size() + " 个槽位不一致");
+        }
+        deleteVectorFiles(g -> g != generation);
+    }
+
+    /**
+     * 丢弃已删除的槽位：存活向量逐个从当前文件读出写入下一代文件，同时重建图
+     *
+     * 当前文件和 index.bin 保持不变，新快照原子替换 index.bin 后旧文件才被删除；
+     * 重建失败时放弃新文件，恢复原有状态。
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            MappedVectorStorage source = vectors;
+            HnswGraph oldGraph = graph;
+            List<String> oldIds = ids;
+            List<TextSegment> oldSegments = segments;
+            Map<String, Integer> oldSlotById = slotById;
+            BitSet oldDeleted = deleted;
+            logger.info("HNSW 索引压缩: {} -> {} 个槽位", oldIds.size(), oldSlotById.size());
+
+            long nextGeneration = generation + 1;
+            vectors = openGeneration(nextGeneration);
+            graph = new HnswGraph(m, efConstruction);
+            ids = new ArrayList<>(oldSlotById.size());
+            segments = new ArrayList<>(oldSlotById.size());
+            slotById = new HashMap<>();
+            deleted = new BitSet();
+            if (quantized != null) {
+                quantized.clear();
+            }
+            try {
+                for (int slot = 0; slot < oldIds.size(); slot++) {
+                    if (!oldDeleted.get(slot)) {
+                        insert(oldIds.get(slot), source.read(slot), oldSegments.get(slot));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                vectors.close();
+                Files.deleteIfExists(vectorFile(nextGeneration));
+                vectors = source;
+                graph = oldGraph;
+                ids = oldIds;
+                segments = oldSegments;
+                slotById = oldSlotById;
+                deleted = oldDeleted;
+                if (quantized != null) {
+                    quantized.clear();
+                    rebuildQuantizedCodes();
+                }
+                throw e;
+            }
+            generation = nextGeneration;
+            source.close();
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        flush();
+    }
+
+    /**
+     * 切换到空的下一代向量文件，旧文件留到新快照写入后删除
+     */
+    private void reset() throws IOException {
+        MappedVectorStorage fresh = openGeneration(generation + 1);
+        vectors.close();
+        vectors = fresh;
+        generation++;
+        if (quantized != null) {
+            quantized.clear();
+        }
+        graph = new HnswGraph(m, efConstruction);
+        ids.clear();
+        segments.clear();
+        slotById.clear();
+        deleted.clear();
+        version++;
+    }
+
+    /**
+     * 新建指定代号的空向量文件；同名文件只可能是崩溃遗留的未完成文件，直接覆盖
+     */
+    private MappedVectorStorage openGeneration(long target) throws IOException {
+        Path file = vectorFile(target);
+        Files.deleteIfExists(file);
+        return new MappedVectorStorage(file, dimension);
+    }
+
+    /**
+     * 第 0 代沿用 vectors.f32，与旧版本的数据目录兼容
+     */
+    private Path vectorFile(long target) {
+        return directory.resolve(target == 0 ? "vectors.f32" : "vectors-" + target + ".f32");
+    }
+
+    private void deleteVectorFiles(LongPredicate obsolete) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "vectors*.f32")) {
+            for (Path file : files) {
+                long fileGeneration = generationOf(file.getFileName().toString());
+                if (fileGeneration >= 0 && obsolete.test(fileGeneration)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static long generationOf(String fileName) {
+        if (fileName.equals("vectors.f32")) return 0;
+        if (!fileName.startsWith("vectors-")) return -1;
+        try {
+            return Long.parseLong(fileName.substring("vectors-".length(), fileName.length() - ".f32".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        vectors.close();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) return normalized;
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    // ---------- 快照序列化 ----------
+
+    private static void writeSegment(DataOutputStream out, TextSegment segment) throws IOException {
+        out.writeBoolean(segment != null);
+        if (segment == null) return;
+        writeString(out, segment.text());
+        Map<String, Object> metadata = segment.metadata().toMap();
+        out.writeInt(metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Integer v) {
+                out.writeByte('I');
+                out.writeInt(v);
+            } else if (value instanceof Long v) {
+                out.writeByte('L');
+                out.writeLong(v);
+            } else if (value instanceof Float v) {
+                out.writeByte('F');
+                out.writeFloat(v);
+            } else if (value instanceof Double v) {
+                out.writeByte('D');
+                out.writeDouble(v);
+            } else if (value instanceof UUID v) {
+                out.writeByte('U');
+                writeString(out, v.toString());
+            } else {
+                out.writeByte('S');
+                writeString(out, String.valueOf(value));
+            }
+        }
+    }
+
+    private static TextSegment readSegment(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        String text = readString(in);
+        int entries = in.readInt();
+        Map<String, Object> metadata = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            String key = readString(in);
+            Object value = switch (in.readByte()) {
+                case 'I' -> in.readInt();
+                case 'L' -> in.readLong();
+                case 'F' -> in.readFloat();
+                case 'D' -> in.readDouble();
+                case 'U' -> UUID.fromString(readString(in));
+                default -> readString(in);
+            };
+            metadata.put(key, value);
+        }
+        return TextSegment.from(text, new Metadata(metadata));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
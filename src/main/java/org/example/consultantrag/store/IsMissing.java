@@ -0,0 +1,18 @@
+package org.example.consultantrag.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+/**
+ * 元数据中没有该字段（LangChain4j 的过滤条件不含“字段不存在”，这里补上）
+ *
+ * Qdrant 上转换为 is_empty 条件；进程内的实现（HNSW、BM25）直接调用 test。
+ * 常与 IsEqualTo / IsIn 以 or 组合，表示“属于该城市或未标注城市”。
+ */
+public record IsMissing(String key) implements Filter {
+
+    @Override
+    public boolean test(Object object) {
+        return object instanceof Metadata metadata && !metadata.containsKey(key);
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.consultantrag.store;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内存映射的定长 float32 向量存储
+ *
+ * 向量按槽位顺序写入文件，文件按区段（最多 4096 个向量）逐段扩容映射
+ * （单个 MappedByteBuffer 最大 2GB），数据在堆外，由操作系统页缓存管理。
+ */
+class MappedVectorStorage implements AutoCloseable {
+
+    private static final long MAX_REGION_BYTES = 1L << 30;
+    private static final int MAX_REGION_VECTORS = 4096;
+
+    private final FileChannel channel;
+    private final int dimension;
+    private final int vectorsPerRegion;
+    // 打开时文件已有的向量数；映射区段会把文件扩展到区段整数倍，之后的文件长度不再反映原始内容
+    private final long initialVectors;
+    private final List<FloatBuffer> regions = new ArrayList<>();
+    private final List<MappedByteBuffer> mappedRegions = new ArrayList<>();
+
+    MappedVectorStorage(Path file, int dimension) throws IOException {
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dimension = dimension;
+        this.vectorsPerRegion = (int) Math.max(1,
+                Math.min(MAX_REGION_VECTORS, MAX_REGION_BYTES / ((long) dimension * Float.BYTES)));
+
+        this.initialVectors = channel.size() / ((long) dimension * Float.BYTES);
+        ensureCapacity((int) initialVectors);
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    void write(int slot, float[] vector) throws IOException {
+        ensureCapacity(slot + 1);
+        FloatBuffer region = regions.get(slot / vectorsPerRegion);
+        region.put((slot % vectorsPerRegion) * dimension, vector);
+    }
+
+    float[] read(int slot) {
+        float[] vector = new float[dimension];
+        FloatBuffer region = regions.get(slot / vectorsPerRegion);
+        region.get((slot % vectorsPerRegion) * dimension, vector);
+        return vector;
+    }
+
+    /**
+     * 查询向量与槽位向量的点积（向量已归一化时即余弦相似度）
+     */
+    float dot(float[] query, int slot) {
+        FloatBuffer region = regions.get(slot / vectorsPerRegion);
+        int offset = (slot % vectorsPerRegion) * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * region.get(offset + i);
+        }
+        return sum;
+    }
+
+    float dot(int slotA, int slotB) {
+        return dot(read(slotA), slotB);
+    }
+
+    void force() {
+        mappedRegions.forEach(MappedByteBuffer::force);
+    }
+
+    /**
+     * 打开时文件中已有的向量数（含区段扩容预留的空槽位，可能大于实际写入数）
+     */
+    long initialVectors() {
+        return initialVectors;
+    }
+
+    private void ensureCapacity(int vectors) throws IOException {
+        long regionBytes = (long) vectorsPerRegion * dimension * Float.BYTES;
+        while ((long) regions.size() * vectorsPerRegion < vectors) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                    regions.size() * regionBytes, regionBytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            mappedRegions.add(buffer);
+            regions.add(buffer.asFloatBuffer());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
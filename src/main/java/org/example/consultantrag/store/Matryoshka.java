@@ -0,0 +1,41 @@
+package org.example.consultantrag.store;
+
+/**
+ * Matryoshka（俄罗斯套娃）式降维：取向量前 dimension 维并重新归一化
+ *
+ * qwen3-embedding 等按 MRL 训练的模型把主要语义集中在前几百维，截断后的向量仍可直接做余弦检索，
+ * 用于第一轮召回；完整向量只在重排时读取。
+ */
+public final class Matryoshka {
+
+    private Matryoshka() {
+    }
+
+    /**
+     * 前 dimension 维，L2 归一化；dimension 不小于原始维度时只做归一化
+     */
+    public static float[] truncate(float[] vector, int dimension) {
+        int size = Math.min(dimension, vector.length);
+        float[] truncated = new float[size];
+        double norm = 0;
+        for (int i = 0; i < size; i++) {
+            norm += (double) vector[i] * vector[i];
+        }
+        float scale = norm == 0 ? 0f : (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < size; i++) {
+            truncated[i] = vector[i] * scale;
+        }
+        return truncated;
+    }
+
+    /**
+     * 两个向量前 dimension 维的点积
+     */
+    public static float dot(float[] a, float[] b, int dimension) {
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.consultantrag.store;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import io.qdrant.client.grpc.Points;
+
+import java.util.Collection;
+import java.util.List;
+
+import static io.qdrant.client.ConditionFactory.filter;
+import static io.qdrant.client.ConditionFactory.isEmpty;
+import static io.qdrant.client.ConditionFactory.match;
+import static io.qdrant.client.ConditionFactory.matchKeyword;
+import static io.qdrant.client.ConditionFactory.matchKeywords;
+import static io.qdrant.client.ConditionFactory.matchValues;
+import static io.qdrant.client.ConditionFactory.range;
+
+/**
+ * 将 LangChain4j 的元数据过滤条件转换为 Qdrant Filter
+ */
+final class QdrantFilterMapper {
+
+    private QdrantFilterMapper() {
+    }
+
+    static Points.Filter toQdrant(Filter filter) {
+        if (filter instanceof And and) {
+            return Points.Filter.newBuilder()
+                    .addMust(filter(toQdrant(and.left())))
+                    .addMust(filter(toQdrant(and.right())))
+                    .build();
+        }
+        if (filter instanceof Or or) {
+            return Points.Filter.newBuilder()
+                    .addShould(filter(toQdrant(or.left())))
+                    .addShould(filter(toQdrant(or.right())))
+                    .build();
+        }
+        if (filter instanceof Not not) {
+            return Points.Filter.newBuilder()
+                    .addMustNot(filter(toQdrant(not.expression())))
+                    .build();
+        }
+        if (filter instanceof IsNotEqualTo notEqualTo) {
+            return Points.Filter.newBuilder()
+                    .addMustNot(equalTo(notEqualTo.key(), notEqualTo.comparisonValue()))
+                    .build();
+        }
+        if (filter instanceof IsNotIn notIn) {
+            return Points.Filter.newBuilder()
+                    .addMustNot(in(notIn.key(), notIn.comparisonValues()))
+                    .build();
+        }
+        return Points.Filter.newBuilder().addMust(condition(filter)).build();
+    }
+
+    private static Points.Condition condition(Filter filter) {
+        if (filter instanceof IsEqualTo equalTo) {
+            return equalTo(equalTo.key(), equalTo.comparisonValue());
+        }
+        if (filter instanceof IsIn isIn) {
+            return in(isIn.key(), isIn.comparisonValues());
+        }
+        if (filter instanceof IsMissing missing) {
+            return isEmpty(missing.key());
+        }
+        if (filter instanceof IsGreaterThan gt) {
+            return range(gt.key(), Points.Range.newBuilder().setGt(number(gt.comparisonValue())).build());
+        }
+        if (filter instanceof IsGreaterThanOrEqualTo gte) {
+            return range(gte.key(), Points.Range.newBuilder().setGte(number(gte.comparisonValue())).build());
+        }
+        if (filter instanceof IsLessThan lt) {
+            return range(lt.key(), Points.Range.newBuilder().setLt(number(lt.comparisonValue())).build());
+        }
+        if (filter instanceof IsLessThanOrEqualTo lte) {
+            return range(lte.key(), Points.Range.newBuilder().setLte(number(lte.comparisonValue())).build());
+        }
+        throw new UnsupportedOperationException("不支持的过滤条件: " + filter);
+    }
+
+    private static Points.Condition equalTo(String key, Object value) {
+        if (value instanceof Number number && !(value instanceof Float || value instanceof Double)) {
+            return match(key, number.longValue());
+        }
+        return matchKeyword(key, String.valueOf(value));
+    }
+
+    private static Points.Condition in(String key, Collection<?> values) {
+        if (!values.isEmpty() && values.iterator().next() instanceof Number) {
+            List<Long> longs = values.stream().map(v -> ((Number) v).longValue()).toList();
+            return matchValues(key, longs);
+        }
+        return matchKeywords(key, values.stream().map(String::valueOf).toList());
+    }
+
+    private static double number(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        throw new UnsupportedOperationException("范围过滤只支持数字: " + value);
+    }
+}
@@ -0,0 +1,404 @@
+package org.example.consultantrag.store;
+
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.WithVectorsSelectorFactory;
+import io.qdrant.client.grpc.JsonWithInt;
+import io.qdrant.client.grpc.Points;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import static io.qdrant.client.PointIdFactory.id;
+import static io.qdrant.client.QueryFactory.nearest;
+import static io.qdrant.client.ValueFactory.value;
+import static io.qdrant.client.VectorFactory.vector;
+import static io.qdrant.client.VectorsFactory.namedVectors;
+import static io.qdrant.client.VectorsFactory.vectors;
+import static io.qdrant.client.WithPayloadSelectorFactory.enable;
+
+/**
+ * 基于 QdrantClient 的向量库实现
+ *
+ * 与 LangChain4j 自带的 QdrantEmbeddingStore 使用相同的 payload 布局
+ * （文本存在 text_segment 字段，元数据平铺），已有数据可直接读取。
+ * 额外支持指定 ID 写入、按 ID / 过滤条件删除，且检索时不回传向量。
+ *
+ * collection 开启量化时，检索先用量化向量取 limit × oversampling 个候选，
+ * 再由 Qdrant 用原始向量重排（rescore）后返回。
+ *
+ * 开启降维（searchDimension > 0）时每个点写入两个命名向量：mrl 为截断并归一化的前 searchDimension 维，
+ * 建 HNSW 索引（量化也作用在它上面）；full 为完整向量，不建索引、存放在磁盘上。检索用一次 Query 请求完成：
+ * prefetch 在 mrl 上取 limit × matryoshkaOversampling 个候选，再按 full 的余弦相似度重排。
+ */
+public class QdrantSegmentStore implements SegmentStore {
+
+    static final String TEXT_KEY = "text_segment";
+    public static final String SEARCH_VECTOR = "mrl";
+    public static final String FULL_VECTOR = "full";
+
+    private static final int SCROLL_PAGE_SIZE = 1000;
+
+    private final QdrantClient client;
+    private final String collectionName;
+    private final Points.SearchParams searchParams;
+    private final int searchDimension;
+    private final double matryoshkaOversampling;
+
+    public QdrantSegmentStore(QdrantClient client, String collectionName) {
+        this(client, collectionName, Quantization.NONE, 1.0);
+    }
+
+    public QdrantSegmentStore(QdrantClient client, String collectionName,
+                              Quantization quantization, double oversampling) {
+        this(client, collectionName, quantization, oversampling, 0, 1.0);
+    }
+
+    /**
+     * @param searchDimension        大于 0 时按 mrl / full 两个命名向量读写，collection 需按同样的结构创建
+     * @param matryoshkaOversampling 降维检索第一轮的候选数相对 limit 的倍数
+     */
+    public QdrantSegmentStore(QdrantClient client, String collectionName,
+                              Quantization quantization, double oversampling,
+                              int searchDimension, double matryoshkaOversampling) {
+        this.client = client;
+        this.collectionName = collectionName;
+        this.searchDimension = searchDimension;
+        this.matryoshkaOversampling = Math.max(1.0, matryoshkaOversampling);
+        this.searchParams = quantization == Quantization.NONE ? null : Points.SearchParams.newBuilder()
+                .setQuantization(Points.QuantizationSearchParams.newBuilder()
+                        .setRescore(true)
+                        .setOversampling(Math.max(1.0, oversampling)))
+                .build();
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        upsertAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment segment) {
+        String id = UUID.randomUUID().toString();
+        upsertAll(List.of(id), List.of(embedding), List.of(segment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> ids = randomIds(embeddings.size());
+        upsertAll(ids, embeddings, null);
+        return ids;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> segments) {
+        List<String> ids = randomIds(embeddings.size());
+        upsertAll(ids, embeddings, segments);
+        return ids;
+    }
+
+    @Override
+    public void upsertAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        if (ids.isEmpty()) return;
+
+        List<Points.PointStruct> points = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            Points.PointStruct.Builder point = Points.PointStruct.newBuilder()
+                    .setId(id(UUID.fromString(ids.get(i))))
+                    .setVectors(toVectors(embeddings.get(i).vector()));
+            if (segments != null) {
+                point.putAllPayload(toPayload(segments.get(i)));
+            }
+            points.add(point.build());
+        }
+
+        await(client.upsertAsync(collectionName, points));
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        List<Points.PointId> pointIds = ids.stream().map(id -> id(UUID.fromString(id))).toList();
+        await(client.deleteAsync(collectionName, pointIds));
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        await(client.deleteAsync(collectionName, QdrantFilterMapper.toQdrant(filter)));
+    }
+
+    @Override
+    public void removeAll() {
+        await(client.deleteAsync(collectionName, Points.Filter.getDefaultInstance()));
+    }
+
+    @Override
+    public Set<String> findIds(Filter filter) {
+        Set<String> ids = new HashSet<>();
+        Points.ScrollPoints.Builder scroll = Points.ScrollPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .setLimit(SCROLL_PAGE_SIZE)
+                .setWithPayload(enable(false));
+        if (filter != null) {
+            scroll.setFilter(QdrantFilterMapper.toQdrant(filter));
+        }
+
+        while (true) {
+            Points.ScrollResponse response = await(client.scrollAsync(scroll.build()));
+            response.getResultList().forEach(point -> ids.add(point.getId().getUuid()));
+            if (!response.hasNextPageOffset()) {
+                return ids;
+            }
+            scroll.setOffset(response.getNextPageOffset());
+        }
+    }
+
+    @Override
+    public void forEachSegment(BiConsumer<String, TextSegment> consumer) {
+        Points.ScrollPoints.Builder scroll = Points.ScrollPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .setLimit(SCROLL_PAGE_SIZE)
+                .setWithPayload(enable(true));
+
+        while (true) {
+            Points.ScrollResponse response = await(client.scrollAsync(scroll.build()));
+            for (Points.RetrievedPoint point : response.getResultList()) {
+                TextSegment segment = toSegment(point.getPayloadMap());
+                if (segment != null) {
+                    consumer.accept(point.getId().getUuid(), segment);
+                }
+            }
+            if (!response.hasNextPageOffset()) {
+                return;
+            }
+            scroll.setOffset(response.getNextPageOffset());
+        }
+    }
+
+    /**
+     * 完整向量；降维模式下读取 full 命名向量（Cosine collection 中已归一化）
+     */
+    @Override
+    public void forEachVector(int limit, BiConsumer<String, float[]> consumer) {
+        Points.ScrollPoints.Builder scroll = Points.ScrollPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .setWithPayload(enable(false))
+                .setWithVectors(searchDimension > 0
+                        ? WithVectorsSelectorFactory.include(List.of(FULL_VECTOR))
+                        : WithVectorsSelectorFactory.enable(true));
+
+        int count = 0;
+        while (count < limit) {
+            scroll.setLimit(Math.min(SCROLL_PAGE_SIZE, limit - count));
+            Points.ScrollResponse response = await(client.scrollAsync(scroll.build()));
+            for (Points.RetrievedPoint point : response.getResultList()) {
+                Points.Vectors vectors = point.getVectors();
+                List<Float> data = vectors.hasVectors()
+                        ? vectors.getVectors().getVectorsOrThrow(FULL_VECTOR).getDataList()
+                        : vectors.getVector().getDataList();
+                float[] vector = new float[data.size()];
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = data.get(i);
+                }
+                consumer.accept(point.getId().getUuid(), vector);
+                count++;
+            }
+            if (!response.hasNextPageOffset()) {
+                return;
+            }
+            scroll.setOffset(response.getNextPageOffset());
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        if (searchDimension > 0) {
+            return toResult(await(client.queryAsync(toRescoreQuery(request))), request);
+        }
+        return search(request, searchParams);
+    }
+
+    /**
+     * 跳过 HNSW 和量化的全量精确检索（降维模式下在完整向量上检索）
+     */
+    @Override
+    public EmbeddingSearchResult<TextSegment> searchExact(EmbeddingSearchRequest request) {
+        return search(request, Points.SearchParams.newBuilder().setExact(true).build());
+    }
+
+    /**
+     * 多个检索合并为一次 searchBatch 请求，Qdrant 端并行执行，只有一次网络往返
+     */
+    @Override
+    public List<EmbeddingSearchResult<TextSegment>> searchAll(List<EmbeddingSearchRequest> requests) {
+        if (requests.isEmpty()) return List.of();
+        List<Points.BatchResult> batch;
+        if (searchDimension > 0) {
+            batch = await(client.queryBatchAsync(collectionName,
+                    requests.stream().map(this::toRescoreQuery).toList()));
+        } else {
+            batch = await(client.searchBatchAsync(collectionName,
+                    requests.stream().map(request -> toSearchPoints(request, searchParams)).toList(), null));
+        }
+        List<EmbeddingSearchResult<TextSegment>> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            results.add(toResult(batch.get(i).getResultList(), requests.get(i)));
+        }
+        return results;
+    }
+
+    private EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request, Points.SearchParams params) {
+        List<Points.ScoredPoint> points = await(client.searchAsync(toSearchPoints(request, params)));
+        return toResult(points, request);
+    }
+
+    private Points.SearchPoints toSearchPoints(EmbeddingSearchRequest request, Points.SearchParams params) {
+        Points.SearchPoints.Builder search = Points.SearchPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .addAllVector(request.queryEmbedding().vectorAsList())
+                .setLimit(request.maxResults())
+                .setWithPayload(enable(true));
+        if (searchDimension > 0) {
+            search.setVectorName(FULL_VECTOR);
+        }
+        if (request.minScore() > 0) {
+            // Qdrant 返回余弦相似度 [-1, 1]，LangChain4j 的相关度是 (cos + 1) / 2
+            search.setScoreThreshold((float) (2 * request.minScore() - 1));
+        }
+        if (request.filter() != null) {
+            search.setFilter(QdrantFilterMapper.toQdrant(request.filter()));
+        }
+        if (params != null) {
+            search.setParams(params);
+        }
+        return search.build();
+    }
+
+    /**
+     * 降维检索：prefetch 在截断向量上取候选（过滤、量化参数都作用在这一轮），再用完整向量重排
+     */
+    private Points.QueryPoints toRescoreQuery(EmbeddingSearchRequest request) {
+        float[] query = request.queryEmbedding().vector();
+        Points.PrefetchQuery.Builder prefetch = Points.PrefetchQuery.newBuilder()
+                .setQuery(nearest(Matryoshka.truncate(query, searchDimension)))
+                .setUsing(SEARCH_VECTOR)
+                .setLimit((long) Math.ceil(request.maxResults() * matryoshkaOversampling));
+        if (request.filter() != null) {
+            prefetch.setFilter(QdrantFilterMapper.toQdrant(request.filter()));
+        }
+        if (searchParams != null) {
+            prefetch.setParams(searchParams);
+        }
+
+        Points.QueryPoints.Builder rescore = Points.QueryPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .addPrefetch(prefetch)
+                .setQuery(nearest(query))
+                .setUsing(FULL_VECTOR)
+                .setLimit(request.maxResults())
+                .setWithPayload(enable(true));
+        if (request.minScore() > 0) {
+            rescore.setScoreThreshold((float) (2 * request.minScore() - 1));
+        }
+        return rescore.build();
+    }
+
+    private Points.Vectors toVectors(float[] vector) {
+        if (searchDimension <= 0) {
+            return vectors(vector);
+        }
+        return namedVectors(Map.of(
+                SEARCH_VECTOR, vector(Matryoshka.truncate(vector, searchDimension)),
+                FULL_VECTOR, vector(vector)));
+    }
+
+    private EmbeddingSearchResult<TextSegment> toResult(List<Points.ScoredPoint> points, EmbeddingSearchRequest request) {
+        List<EmbeddingMatch<TextSegment>> matches = points.stream()
+                .map(this::toMatch)
+                .filter(match -> match.score() >= request.minScore())
+                .toList();
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private EmbeddingMatch<TextSegment> toMatch(Points.ScoredPoint point) {
+        double score = RelevanceScore.fromCosineSimilarity(point.getScore());
+        return new EmbeddingMatch<>(score, point.getId().getUuid(), null, toSegment(point.getPayloadMap()));
+    }
+
+    static Map<String, JsonWithInt.Value> toPayload(TextSegment segment) {
+        Map<String, JsonWithInt.Value> payload = new HashMap<>();
+        segment.metadata().toMap().forEach((key, val) -> {
+            if (val instanceof Integer || val instanceof Long) {
+                payload.put(key, value(((Number) val).longValue()));
+            } else if (val instanceof Float || val instanceof Double) {
+                payload.put(key, value(((Number) val).doubleValue()));
+            } else {
+                payload.put(key, value(String.valueOf(val)));
+            }
+        });
+        payload.put(TEXT_KEY, value(segment.text()));
+        return payload;
+    }
+
+    static TextSegment toSegment(Map<String, JsonWithInt.Value> payload) {
+        JsonWithInt.Value text = payload.get(TEXT_KEY);
+        if (text == null) return null;
+
+        Map<String, Object> metadata = new HashMap<>();
+        payload.forEach((key, val) -> {
+            if (TEXT_KEY.equals(key)) return;
+            switch (val.getKindCase()) {
+                case STRING_VALUE -> metadata.put(key, val.getStringValue());
+                case INTEGER_VALUE -> metadata.put(key, val.getIntegerValue());
+                case DOUBLE_VALUE -> metadata.put(key, val.getDoubleValue());
+                default -> {
+                    // 其它类型（bool / 列表 / 对象）不在 Metadata 支持范围内
+                }
+            }
+        });
+        return TextSegment.from(text.getStringValue(), new Metadata(metadata));
+    }
+
+    private static List<String> randomIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        return ids;
+    }
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Qdrant 请求被中断", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Qdrant 请求失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
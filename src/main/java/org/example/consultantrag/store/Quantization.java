@@ -0,0 +1,23 @@
+package org.example.consultantrag.store;
+
+/**
+ * 向量量化方式
+ *
+ * 开启后第一轮检索使用量化编码打分，再取 top-k × oversampling 个候选用原始 float32 向量精确重排。
+ * - SCALAR：int8 标量量化，每维 1 字节，工作集缩小约 4 倍，召回损失很小
+ * - BINARY：1-bit 二值量化（只保留符号位），工作集缩小约 32 倍，适合高维向量，依赖重排弥补精度
+ */
+public enum Quantization {
+    NONE,
+    SCALAR,
+    BINARY;
+
+    public static Quantization from(String value) {
+        if (value == null || value.isBlank()) return NONE;
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的量化方式: " + value + "（可选 none / scalar / binary）");
+        }
+    }
+}
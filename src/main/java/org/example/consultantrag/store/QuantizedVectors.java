@@ -0,0 +1,114 @@
+package org.example.consultantrag.store;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * 堆内的量化向量编码，供 HNSW 第一轮检索打分
+ *
+ * 输入向量均已归一化：
+ * - SCALAR：每个向量按自身最大绝对值缩放到 [-127, 127]，打分时 float 查询向量直接与 int8 编码做点积（非对称），
+ *   避免查询向量也被量化带来的误差
+ * - BINARY：每维只保留符号位，按 64 位打包；打分为 1 - 2 × 汉明距离 / 维度，近似余弦相似度
+ *
+ * 编码可由向量文件完全重建，不写入快照。非线程安全，由外层加锁。
+ */
+class QuantizedVectors {
+
+    private final Quantization type;
+    private final int dimension;
+    private final int words;
+
+    private byte[] scalarCodes = new byte[0];
+    private float[] scales = new float[0];
+    private long[] binaryCodes = new long[0];
+
+    QuantizedVectors(Quantization type, int dimension) {
+        if (type == Quantization.NONE) {
+            throw new IllegalArgumentException("未开启量化");
+        }
+        this.type = type;
+        this.dimension = dimension;
+        this.words = (dimension + 63) / 64;
+    }
+
+    /**
+     * 每个向量编码占用的字节数
+     */
+    int bytesPerVector() {
+        return type == Quantization.SCALAR ? dimension + Float.BYTES : words * Long.BYTES;
+    }
+
+    void encode(int slot, float[] vector) {
+        ensureCapacity(slot + 1);
+        if (type == Quantization.SCALAR) {
+            float maxAbs = 0f;
+            for (float v : vector) {
+                maxAbs = Math.max(maxAbs, Math.abs(v));
+            }
+            float scale = maxAbs == 0 ? 0f : maxAbs / 127f;
+            int offset = slot * dimension;
+            for (int i = 0; i < dimension; i++) {
+                scalarCodes[offset + i] = scale == 0 ? 0 : (byte) Math.round(vector[i] / scale);
+            }
+            scales[slot] = scale;
+        } else {
+            long[] bits = signBits(vector);
+            System.arraycopy(bits, 0, binaryCodes, slot * words, words);
+        }
+    }
+
+    /**
+     * 查询向量与各槽位编码的近似相似度
+     */
+    IntToDoubleFunction scorer(float[] query) {
+        if (type == Quantization.SCALAR) {
+            return slot -> {
+                int offset = slot * dimension;
+                float sum = 0f;
+                for (int i = 0; i < dimension; i++) {
+                    sum += query[i] * scalarCodes[offset + i];
+                }
+                return sum * scales[slot];
+            };
+        }
+        long[] queryBits = signBits(query);
+        return slot -> {
+            int offset = slot * words;
+            int hamming = 0;
+            for (int w = 0; w < words; w++) {
+                hamming += Long.bitCount(queryBits[w] ^ binaryCodes[offset + w]);
+            }
+            return 1.0 - 2.0 * hamming / dimension;
+        };
+    }
+
+    void clear() {
+        scalarCodes = new byte[0];
+        scales = new float[0];
+        binaryCodes = new long[0];
+    }
+
+    private long[] signBits(float[] vector) {
+        long[] bits = new long[words];
+        for (int i = 0; i < dimension; i++) {
+            if (vector[i] > 0) {
+                bits[i >> 6] |= 1L << (i & 63);
+            }
+        }
+        return bits;
+    }
+
+    private void ensureCapacity(int vectors) {
+        if (type == Quantization.SCALAR) {
+            if (scales.length >= vectors) return;
+            int capacity = Math.max(vectors, Math.max(16, scales.length * 2));
+            scalarCodes = Arrays.copyOf(scalarCodes, capacity * dimension);
+            scales = Arrays.copyOf(scales, capacity);
+        } else {
+            if (binaryCodes.length >= vectors * words) return;
+            int capacity = Math.max(vectors, Math.max(16, binaryCodes.length / words * 2));
+            binaryCodes = Arrays.copyOf(binaryCodes, capacity * words);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.consultantrag.store;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * 支持指定 ID 写入、按 ID 删除和按元数据列出 ID 的向量库
+ *
+ * 增量入库需要这三个能力：确定性 ID 保证重复上传是覆盖而不是追加，
+ * 列出文档已有 ID 用于比对，删除用于清理已不存在的片段。
+ */
+public interface SegmentStore extends EmbeddingStore<TextSegment> {
+
+    /**
+     * 按给定 ID 写入（已存在则覆盖）
+     */
+    void upsertAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments);
+
+    /**
+     * 列出满足过滤条件的全部点 ID
+     */
+    Set<String> findIds(Filter filter);
+
+    /**
+     * 遍历全部带文本的片段（用于启动时重建词法索引等派生数据）
+     */
+    void forEachSegment(BiConsumer<String, TextSegment> consumer);
+
+    /**
+     * 批量检索，结果与 requests 一一对应；默认逐个执行，Qdrant 实现合并为一次 searchBatch 请求
+     */
+    default List<EmbeddingSearchResult<TextSegment>> searchAll(List<EmbeddingSearchRequest> requests) {
+        return requests.stream().map(this::search).toList();
+    }
+
+    /**
+     * 遍历已存储的完整维度向量，最多 limit 个（用于离线评估降维、量化等方案的召回）
+     */
+    void forEachVector(int limit, BiConsumer<String, float[]> consumer);
+
+    /**
+     * 不使用量化 / 近似索引的精确检索，作为评估召回率的基准（未开启量化的实现与 search 相同）
+     */
+    default EmbeddingSearchResult<TextSegment> searchExact(EmbeddingSearchRequest request) {
+        return search(request);
+    }
+}
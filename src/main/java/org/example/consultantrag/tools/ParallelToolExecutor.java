@@ -0,0 +1,133 @@
+package org.example.consultantrag.tools;
+
+import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.agent.tool.ToolSpecifications;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.service.tool.DefaultToolExecutor;
+import dev.langchain4j.service.tool.ToolExecutor;
+import org.example.consultantrag.metrics.StageBreakdown;
+import org.example.consultantrag.metrics.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 工具注册表 + 并发执行器
+ *
+ * 模型在同一轮返回多个工具调用（如两个城市各查一次天气和时间）时，
+ * 各调用在有界线程池中并发执行，每个调用单独计时，超时的调用返回超时提示而不拖慢其它调用，
+ * 结果按请求顺序返回。一轮的耗时取决于最慢的工具，而不是所有工具之和。
+ * 每次调用的耗时按工具名和成败记入 rag_tool_seconds。
+ */
+public class ParallelToolExecutor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelToolExecutor.class);
+
+    private final List<ToolSpecification> toolSpecifications = new ArrayList<>();
+    private final Map<String, ToolExecutor> executors = new HashMap<>();
+    private final Duration timeout;
+    private final StageMetrics stageMetrics;
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * @param tools       带 @Tool 方法的对象
+     * @param parallelism 同时执行的工具调用上限，排队也满时由调用线程自己执行（背压）
+     * @param timeout     单个工具调用的超时时间
+     */
+    public ParallelToolExecutor(List<Object> tools, int parallelism, Duration timeout, StageMetrics stageMetrics) {
+        for (Object tool : tools) {
+            for (Method method : tool.getClass().getDeclaredMethods()) {
+                if (!method.isAnnotationPresent(Tool.class)) continue;
+                ToolSpecification specification = ToolSpecifications.toolSpecificationFrom(method);
+                if (executors.putIfAbsent(specification.name(), new DefaultToolExecutor(tool, method)) != null) {
+                    throw new IllegalArgumentException("工具名称重复: " + specification.name());
+                }
+                toolSpecifications.add(specification);
+            }
+        }
+        this.timeout = timeout;
+        this.stageMetrics = stageMetrics;
+        this.pool = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4), new CustomizableThreadFactory("tool-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+        logger.info("已注册 {} 个工具: {}", toolSpecifications.size(), executors.keySet());
+    }
+
+    public List<ToolSpecification> toolSpecifications() {
+        return toolSpecifications;
+    }
+
+    /**
+     * 并发执行同一轮的全部工具调用，结果与请求一一对应
+     */
+    public List<ToolExecutionResultMessage> executeAll(List<ToolExecutionRequest> requests, Object memoryId) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<Future<String>> futures = new ArrayList<>(requests.size());
+        for (ToolExecutionRequest request : requests) {
+            futures.add(pool.submit(StageBreakdown.wrap(() -> execute(request, memoryId))));
+        }
+
+        List<ToolExecutionResultMessage> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            ToolExecutionRequest request = requests.get(i);
+            results.add(ToolExecutionResultMessage.from(request, await(request, futures.get(i), deadline)));
+        }
+        return results;
+    }
+
+    private String execute(ToolExecutionRequest request, Object memoryId) {
+        ToolExecutor executor = executors.get(request.name());
+        if (executor == null) {
+            return "错误：不存在名为 " + request.name() + " 的工具";
+        }
+        long start = System.nanoTime();
+        try {
+            String result = executor.execute(request, memoryId);
+            long elapsed = System.nanoTime() - start;
+            stageMetrics.recordTool(request.name(), elapsed, true);
+            logger.debug("工具 {} 执行完成，耗时 {}ms", request.name(), TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return result;
+        } catch (Exception e) {
+            stageMetrics.recordTool(request.name(), System.nanoTime() - start, false);
+            logger.warn("工具 {} 执行失败: {}", request.name(), e.getMessage());
+            return "工具调用失败: " + e.getMessage();
+        }
+    }
+
+    private String await(ToolExecutionRequest request, Future<String> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("工具 {} 执行超时（{}ms）", request.name(), timeout.toMillis());
+            return "工具调用超时: " + request.name();
+        } catch (ExecutionException e) {
+            return "工具调用失败: " + e.getCause().getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RuntimeException("工具调用被中断", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
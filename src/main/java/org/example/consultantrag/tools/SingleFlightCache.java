@@ -0,0 +1,90 @@
+package org.example.consultantrag.tools;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 带 TTL 的异步缓存，同一个 key 的并发请求合并为一次上游调用（single-flight）
+ *
+ * 缓存的是 Future：加载中的 key 再次请求时直接复用同一个 Future，
+ * 加载失败的条目立即移除，下次请求重新加载。
+ */
+public class SingleFlightCache<K, V> {
+
+    private record Entry<V>(CompletableFuture<V> future, long expiresAtNanos) {
+    }
+
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    /**
+     * @param ttl        条目有效期，null 表示永不过期
+     * @param maxEntries 条目上限，超出时先清理过期条目，仍超出则淘汰任意条目
+     */
+    public SingleFlightCache(Duration ttl, int maxEntries) {
+        this.ttlNanos = ttl == null ? Long.MAX_VALUE : ttl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && !isExpired(entry, now)) {
+            return entry.future();
+        }
+
+        CompletableFuture<V> created = new CompletableFuture<>();
+        Entry<V> winner = entries.compute(key, (k, existing) ->
+                existing != null && !isExpired(existing, now) ? existing : new Entry<>(created, expiresAt(now)));
+        if (winner.future() != created) {
+            return winner.future();
+        }
+
+        evictIfFull();
+        CompletableFuture<V> loaded;
+        try {
+            loaded = loader.apply(key);
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+        loaded.whenComplete((value, e) -> {
+            if (e != null) {
+                entries.remove(key, winner);
+                created.completeExceptionally(e);
+            } else {
+                created.complete(value);
+            }
+        });
+        return created;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        // 加载中的条目不过期，避免重复请求上游
+        return entry.future().isDone() && entry.expiresAtNanos() != Long.MAX_VALUE
+                && now - entry.expiresAtNanos() > 0;
+    }
+
+    private long expiresAt(long now) {
+        return ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : now + ttlNanos;
+    }
+
+    private void evictIfFull() {
+        if (entries.size() <= maxEntries) return;
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> isExpired(entry, now));
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+}
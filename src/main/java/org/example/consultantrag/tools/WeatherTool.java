@@ -2,65 +2,107 @@ package org.example.consultantrag.tools;
 
 import dev.langchain4j.agent.tool.P;
 import dev.langchain4j.agent.tool.Tool;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 天气工具
+ *
+ * - 基于 Reactor Netty 连接池的非阻塞 WebClient，带连接超时和响应超时
+ * - 城市坐标基本不变，长期缓存；天气数据按坐标（保留两位小数，约 1km）缓存 cache-ttl
+ * - 同一城市 / 坐标的并发查询合并成一次上游请求
+ * - 接口地址可配置，便于指向本地桩服务测试
+ */
 @Component("weatherTool")
 public class WeatherTool {
 
-    // 从配置文件中动态注入 API Key，确保本地私密性
-    @Value("${weather.api.key}")
-    private String apiKey;
+    private static final Logger logger = LoggerFactory.getLogger(WeatherTool.class);
+
+    private static final int MAX_GEOCODE_ENTRIES = 10_000;
+    private static final int MAX_WEATHER_ENTRIES = 2_000;
+
+    private record Coordinates(double lat, double lon) {
+    }
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    // 从配置文件中动态注入 API Key，确保本地私密性
+    private final String apiKey;
+    private final String geoBaseUrl;
+    private final String weatherBaseUrl;
+
+    private final ConnectionProvider connectionProvider;
+    private final WebClient webClient;
+
+    private final SingleFlightCache<String, Optional<Coordinates>> geocodeCache =
+            new SingleFlightCache<>(null, MAX_GEOCODE_ENTRIES);
+    private final SingleFlightCache<String, Map<String, Object>> weatherCache;
+
+    public WeatherTool(@Value("${weather.api.key}") String apiKey,
+                       @Value("${weather.api.geo-base-url:http://api.openweathermap.org}") String geoBaseUrl,
+                       @Value("${weather.api.base-url:https://api.openweathermap.org}") String weatherBaseUrl,
+                       @Value("${weather.api.connect-timeout:PT3S}") Duration connectTimeout,
+                       @Value("${weather.api.read-timeout:PT5S}") Duration readTimeout,
+                       @Value("${weather.api.max-connections:50}") int maxConnections,
+                       @Value("${weather.api.cache-ttl:PT10M}") Duration cacheTtl) {
+        this.apiKey = apiKey;
+        this.geoBaseUrl = geoBaseUrl;
+        this.weatherBaseUrl = weatherBaseUrl;
+        this.weatherCache = new SingleFlightCache<>(cacheTtl, MAX_WEATHER_ENTRIES);
+
+        this.connectionProvider = ConnectionProvider.builder("weather-api")
+                .maxConnections(maxConnections)
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(readTimeout);
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
 
     @Tool("查询指定城市的实时天气信息")
     public String getWeather(@P("城市名称，例如：Beijing, San Jose") String city) {
         try {
-            // 1. 地理编码：将城市名转换为经纬度
-            String geoUrl = UriComponentsBuilder.fromHttpUrl("http://api.openweathermap.org/geo/1.0/direct")
-                    .queryParam("q", city)
-                    .queryParam("limit", 1)
-                    .queryParam("appid", apiKey) // 使用注入的变量
-                    .build().toUriString();
-
-            List<Map<String, Object>> geoLocations = restTemplate.getForObject(geoUrl, List.class);
-            if (geoLocations == null || geoLocations.isEmpty()) {
+            // 1. 地理编码：将城市名转换为经纬度（长期缓存）
+            Optional<Coordinates> coordinates = geocodeCache
+                    .get(city.trim().toLowerCase(Locale.ROOT), key -> geocode(city))
+                    .join();
+            if (coordinates.isEmpty()) {
                 return "未能识别城市坐标：" + city;
             }
+            double lat = coordinates.get().lat();
+            double lon = coordinates.get().lon();
 
-            Map<String, Object> location = geoLocations.get(0);
-            double lat = (double) location.get("lat");
-            double lon = (double) location.get("lon");
-
-            // 2. 调用 One Call 3.0 接口获取实时气象数据
-            long currentTimestamp = Instant.now().getEpochSecond();
-
-            String weatherUrl = UriComponentsBuilder.fromHttpUrl("https://api.openweathermap.org/data/3.0/onecall/timemachine")
-                    .queryParam("lat", lat)
-                    .queryParam("lon", lon)
-                    .queryParam("dt", currentTimestamp)
-                    .queryParam("appid", apiKey) // 使用注入的变量
-                    .queryParam("units", "metric")
-                    .queryParam("lang", "zh_cn")
-                    .build().toUriString();
-
-            Map<String, Object> response = restTemplate.getForObject(weatherUrl, Map.class);
+            // 2. 调用 One Call 3.0 接口获取实时气象数据（按坐标短期缓存）
+            String weatherKey = String.format(Locale.ROOT, "%.2f,%.2f", lat, lon);
+            Map<String, Object> response = weatherCache.get(weatherKey, key -> fetchWeather(lat, lon)).join();
 
             // --- 核心逻辑：基于时区偏移量计算当地时间 ---
             // 解决服务器系统时间与目的地物理位置的时间对齐痛点
             int offsetInSeconds = ((Number) response.get("timezone_offset")).intValue();
 
-            // 计算当地精确时间
+            // 计算当地精确时间（每次按当前时刻计算，不随天气数据缓存）
             ZoneOffset zoneOffset = ZoneOffset.ofTotalSeconds(offsetInSeconds);
             OffsetDateTime localTime = Instant.now().atOffset(zoneOffset);
 
@@ -88,7 +130,40 @@ public class WeatherTool {
                     weatherData.get("humidity"), weatherData.get("uvi"));
 
         } catch (Exception e) {
-            return "天气服务调用异常: " + e.getMessage();
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            String reason = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+            return "天气服务调用异常: " + reason;
         }
     }
-}
\ No newline at end of file
+
+    private CompletableFuture<Optional<Coordinates>> geocode(String city) {
+        logger.debug("地理编码请求: {}", city);
+        return webClient.get()
+                .uri(geoBaseUrl + "/geo/1.0/direct?q={q}&limit=1&appid={appid}", city, apiKey)
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<List<Map<String, Object>>>() {
+                })
+                .map(locations -> locations.isEmpty() ? Optional.<Coordinates>empty() : Optional.of(new Coordinates(
+                        ((Number) locations.get(0).get("lat")).doubleValue(),
+                        ((Number) locations.get(0).get("lon")).doubleValue())))
+                .defaultIfEmpty(Optional.empty())
+                .toFuture();
+    }
+
+    private CompletableFuture<Map<String, Object>> fetchWeather(double lat, double lon) {
+        logger.debug("天气请求: {}, {}", lat, lon);
+        return webClient.get()
+                .uri(weatherBaseUrl + "/data/3.0/onecall/timemachine"
+                                + "?lat={lat}&lon={lon}&dt={dt}&appid={appid}&units=metric&lang=zh_cn",
+                        lat, lon, Instant.now().getEpochSecond(), apiKey)
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {
+                })
+                .toFuture();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        connectionProvider.dispose();
+    }
+}